@@ -0,0 +1,490 @@
+package pwneegl;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.util.Arrays;
+
+import javax.media.opengl.GL2;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+
+/** 
+ * A shadow copy of the OpenGL state that the engine changes most often: 
+ * the current shader program, the bound vertex array, array, and element 
+ * buffers, the active texture unit and the 2D texture bound to each unit, 
+ * capabilities toggled with glEnable/glDisable, and the front material 
+ * values. Engine code makes these calls through GLState, which drops any 
+ * call that wouldn't change the state.
+ * 
+ * Code that changes this state by calling OpenGL directly should call 
+ * invalidate afterwards, so that the shadow doesn't go out of date. This 
+ * includes enabling GL_COLOR_MATERIAL, which lets glColor change the 
+ * material values behind GLState's back.
+ * 
+ * GLState also counts the calls made through it and how many of them were 
+ * elided. GameCanvas starts a new frame of counts each time it displays.
+ */
+public class GLState {
+  
+  /** The value of shadowed state that isn't known. */
+  private static final int UNKNOWN = -1;
+  
+  /** The number of texture units whose bindings are shadowed. */
+  private static final int MAX_TEXTURE_UNITS = 32;
+  
+  /** The material parameters that are shadowed, in order of their slots. */
+  private static final int[] MATERIAL_PARAMS = {GL_AMBIENT, GL_DIFFUSE, GL_SPECULAR, GL_EMISSION, GL_SHININESS};
+  
+  
+  /** The singleton instance. */
+  private static GLState instance = null;
+  
+  
+  //////// Shadowed state
+  
+  /** The current shader program. */
+  private int program;
+  
+  /** The bound vertex array object. */
+  private int vertexArray;
+  
+  /** The buffer bound to GL_ARRAY_BUFFER. */
+  private int arrayBuffer;
+  
+  /** The buffer bound to GL_ELEMENT_ARRAY_BUFFER. This is part of the vertex array's state. */
+  private int elementBuffer;
+  
+  /** The active texture unit, as GL_TEXTUREi. */
+  private int activeTexture;
+  
+  /** The texture bound to GL_TEXTURE_2D for each texture unit. */
+  private int[] textures2D = new int[MAX_TEXTURE_UNITS];
+  
+  /** Whether GL_TEXTURE_2D is enabled for each texture unit: 1, 0, or UNKNOWN. */
+  private int[] textures2DEnabled = new int[MAX_TEXTURE_UNITS];
+  
+  /** The capabilities whose enabled state is known. */
+  private int[] caps = new int[16];
+  
+  /** Whether each known capability is enabled. */
+  private boolean[] capsEnabled = new boolean[16];
+  
+  /** The number of known capabilities. */
+  private int numCaps;
+  
+  /** The front material values, 4 floats per parameter in MATERIAL_PARAMS. */
+  private float[] material = new float[MATERIAL_PARAMS.length*4];
+  
+  /** Whether each front material parameter is known. */
+  private boolean[] materialKnown = new boolean[MATERIAL_PARAMS.length];
+  
+  
+  //////// Counts
+  
+  /** The number of calls made through GLState this frame. */
+  private int numCalls;
+  
+  /** The number of calls elided this frame. */
+  private int numElided;
+  
+  /** The number of calls made through GLState last frame. */
+  private int lastNumCalls;
+  
+  /** The number of calls elided last frame. */
+  private int lastNumElided;
+  
+  /** The number of frames started so far. */
+  private long frame;
+  
+  
+  private GLState() {
+    reset();
+  }
+  
+  
+  /** Obtains the singleton instance, creating it if necessary. */
+  private static GLState getInstance() {
+    if(instance == null) {
+      instance = new GLState();
+    }
+    return instance;
+  }
+  
+  
+  /** Forgets all the shadowed state. */
+  private void reset() {
+    program = UNKNOWN;
+    vertexArray = UNKNOWN;
+    arrayBuffer = UNKNOWN;
+    elementBuffer = UNKNOWN;
+    activeTexture = UNKNOWN;
+    Arrays.fill(textures2D, UNKNOWN);
+    Arrays.fill(textures2DEnabled, UNKNOWN);
+    numCaps = 0;
+    Arrays.fill(materialKnown, false);
+  }
+  
+  
+  /** Counts a call and returns true iff it should be made. */
+  private boolean count(boolean changed) {
+    numCalls++;
+    if(!changed) {
+      numElided++;
+    }
+    return changed;
+  }
+  
+  
+  //////// Frames and invalidation
+  
+  /** 
+   * Forgets all the shadowed state, so that the next call for each piece 
+   * of state is always made. Call this after changing the state without 
+   * going through GLState, or when the OpenGL context is (re)created.
+   */
+  public static void invalidate() {
+    getInstance().reset();
+  }
+  
+  /** Ends the current frame of counts and starts a new one. */
+  public static void nextFrame() {
+    GLState s = getInstance();
+    s.frame++;
+    s.lastNumCalls = s.numCalls;
+    s.lastNumElided = s.numElided;
+    s.numCalls = 0;
+    s.numElided = 0;
+  }
+  
+  /** 
+   * Returns the number of the current frame, for things that need to count
+   * something at most once per frame.
+   */
+  public static long getFrame() {
+    return getInstance().frame;
+  }
+  
+  /** Returns the number of calls made through GLState last frame. */
+  public static int getNumCalls() {
+    return getInstance().lastNumCalls;
+  }
+  
+  /** Returns the number of calls that were elided last frame. */
+  public static int getNumElided() {
+    return getInstance().lastNumElided;
+  }
+  
+  
+  //////// Programs
+  
+  /** Uses a shader program, unless it is already in use. */
+  public static void useProgram(GL2 gl, int program) {
+    GLState s = getInstance();
+    if(s.count(s.program != program)) {
+      gl.glUseProgram(program);
+      s.program = program;
+    }
+  }
+  
+  /** Deletes a shader program. If it was in use, the current program becomes unknown. */
+  public static void deleteProgram(GL2 gl, int program) {
+    GLState s = getInstance();
+    gl.glDeleteProgram(program);
+    if(s.program == program) {
+      s.program = UNKNOWN;
+    }
+  }
+  
+  
+  //////// Buffers
+  
+  /** Binds a vertex array object, unless it is already bound. */
+  public static void bindVertexArray(GL2 gl, int vao) {
+    GLState s = getInstance();
+    if(s.count(s.vertexArray != vao)) {
+      gl.glBindVertexArray(vao);
+      s.vertexArray = vao;
+      
+      // The element buffer binding comes with the vertex array.
+      s.elementBuffer = UNKNOWN;
+    }
+  }
+  
+  /** 
+   * Binds a buffer to a target, unless it is already bound there. Only 
+   * GL_ARRAY_BUFFER and GL_ELEMENT_ARRAY_BUFFER are shadowed. 
+   */
+  public static void bindBuffer(GL2 gl, int target, int buffer) {
+    GLState s = getInstance();
+    if(target == GL_ARRAY_BUFFER) {
+      if(s.count(s.arrayBuffer != buffer)) {
+        gl.glBindBuffer(target, buffer);
+        s.arrayBuffer = buffer;
+      }
+    }
+    else if(target == GL_ELEMENT_ARRAY_BUFFER) {
+      if(s.count(s.elementBuffer != buffer)) {
+        gl.glBindBuffer(target, buffer);
+        s.elementBuffer = buffer;
+      }
+    }
+    else {
+      s.count(true);
+      gl.glBindBuffer(target, buffer);
+    }
+  }
+  
+  /** Deletes buffers. Any of them that were bound become unbound. */
+  public static void deleteBuffers(GL2 gl, int[] buffers) {
+    GLState s = getInstance();
+    gl.glDeleteBuffers(buffers.length, buffers, 0);
+    for(int buffer : buffers) {
+      if(s.arrayBuffer == buffer) {
+        s.arrayBuffer = 0;
+      }
+      if(s.elementBuffer == buffer) {
+        s.elementBuffer = 0;
+      }
+    }
+  }
+  
+  /** Deletes vertex array objects. If one of them was bound, no vertex array is bound anymore. */
+  public static void deleteVertexArrays(GL2 gl, int[] vaos) {
+    GLState s = getInstance();
+    gl.glDeleteVertexArrays(vaos.length, vaos, 0);
+    for(int vao : vaos) {
+      if(s.vertexArray == vao) {
+        s.vertexArray = 0;
+        s.elementBuffer = UNKNOWN;
+      }
+    }
+  }
+  
+  
+  //////// Textures
+  
+  /** Selects the active texture unit (GL_TEXTUREi), unless it is already active. */
+  public static void activeTexture(GL2 gl, int unit) {
+    GLState s = getInstance();
+    if(s.count(s.activeTexture != unit)) {
+      gl.glActiveTexture(unit);
+      s.activeTexture = unit;
+    }
+  }
+  
+  /** 
+   * Binds a texture to a target of the active texture unit, unless it is 
+   * already bound there. Only GL_TEXTURE_2D is shadowed.
+   */
+  public static void bindTexture(GL2 gl, int target, int texture) {
+    GLState s = getInstance();
+    int unit = s.activeUnitIndex();
+    if(target == GL_TEXTURE_2D && unit >= 0) {
+      if(s.count(s.textures2D[unit] != texture)) {
+        gl.glBindTexture(target, texture);
+        s.textures2D[unit] = texture;
+      }
+    }
+    else {
+      s.count(true);
+      gl.glBindTexture(target, texture);
+      if(target == GL_TEXTURE_2D) {
+        Arrays.fill(s.textures2D, UNKNOWN);
+      }
+    }
+  }
+  
+  /** 
+   * Forgets which 2D texture is bound to the active texture unit. Call this 
+   * after anything that binds a texture without going through GLState, such 
+   * as JOGL's TextureIO creating or updating a Texture. If the active unit 
+   * isn't known, the bindings of all the units are forgotten.
+   */
+  public static void forgetActiveTexture() {
+    GLState s = getInstance();
+    int unit = s.activeUnitIndex();
+    if(unit < 0) {
+      Arrays.fill(s.textures2D, UNKNOWN);
+    }
+    else {
+      s.textures2D[unit] = UNKNOWN;
+    }
+  }
+  
+  /** Forgets a texture that is about to be deleted, since deleting it unbinds it. */
+  public static void forgetTexture(int texture) {
+    GLState s = getInstance();
+    for(int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+      if(s.textures2D[i] == texture) {
+        s.textures2D[i] = 0;
+      }
+    }
+  }
+  
+  /** Returns the index of the active texture unit, or -1 if it is unknown or isn't shadowed. */
+  private int activeUnitIndex() {
+    int unit = activeTexture - GL_TEXTURE0;
+    if(activeTexture == UNKNOWN || unit >= MAX_TEXTURE_UNITS) {
+      return -1;
+    }
+    return unit;
+  }
+  
+  
+  //////// Capabilities
+  
+  /** Enables a capability, unless it is already enabled. */
+  public static void enable(GL2 gl, int cap) {
+    if(getInstance().setCap(cap, true)) {
+      gl.glEnable(cap);
+    }
+  }
+  
+  /** Disables a capability, unless it is already disabled. */
+  public static void disable(GL2 gl, int cap) {
+    if(getInstance().setCap(cap, false)) {
+      gl.glDisable(cap);
+    }
+  }
+  
+  /** 
+   * Records the enabled state of a capability, returning true iff the call 
+   * to change it needs to be made. GL_TEXTURE_2D is tracked per texture unit.
+   */
+  private boolean setCap(int cap, boolean enabled) {
+    int value = enabled ? 1 : 0;
+    
+    if(cap == GL_TEXTURE_2D) {
+      int unit = activeUnitIndex();
+      if(unit < 0) {
+        Arrays.fill(textures2DEnabled, UNKNOWN);
+        return count(true);
+      }
+      boolean changed = (textures2DEnabled[unit] != value);
+      textures2DEnabled[unit] = value;
+      return count(changed);
+    }
+    
+    for(int i = 0; i < numCaps; i++) {
+      if(caps[i] == cap) {
+        boolean changed = (capsEnabled[i] != enabled);
+        capsEnabled[i] = enabled;
+        return count(changed);
+      }
+    }
+    
+    if(numCaps == caps.length) {
+      caps = Arrays.copyOf(caps, numCaps*2);
+      capsEnabled = Arrays.copyOf(capsEnabled, numCaps*2);
+    }
+    caps[numCaps] = cap;
+    capsEnabled[numCaps] = enabled;
+    numCaps++;
+    return count(true);
+  }
+  
+  
+  //////// Materials
+  
+  /** 
+   * Sets a material parameter from an array of values, unless the front 
+   * material already has those values. 
+   */
+  public static void material(GL2 gl, int face, int pname, float[] values, int offset) {
+    GLState s = getInstance();
+    int slot = materialSlot(pname);
+    int size = (pname == GL_SHININESS) ? 1 : 4;
+    
+    if(face == GL_FRONT && slot >= 0 && s.materialKnown[slot]) {
+      boolean changed = false;
+      for(int i = 0; i < size; i++) {
+        if(s.material[slot*4 + i] != values[offset + i]) {
+          changed = true;
+          break;
+        }
+      }
+      if(!s.count(changed)) {
+        return;
+      }
+    }
+    else {
+      s.count(true);
+    }
+    
+    gl.glMaterialfv(face, pname, values, offset);
+    s.recordMaterial(face, slot, values, offset, size);
+  }
+  
+  /** Sets a single-valued material parameter, unless the front material already has that value. */
+  public static void material(GL2 gl, int face, int pname, float value) {
+    GLState s = getInstance();
+    int slot = materialSlot(pname);
+    
+    if(face == GL_FRONT && slot >= 0 && s.materialKnown[slot]) {
+      if(!s.count(s.material[slot*4] != value)) {
+        return;
+      }
+    }
+    else {
+      s.count(true);
+    }
+    
+    gl.glMaterialf(face, pname, value);
+    if(face != GL_BACK && slot >= 0) {
+      s.material[slot*4] = value;
+      s.materialKnown[slot] = true;
+    }
+  }
+  
+  /** Records the values of a front material parameter after they were set. */
+  private void recordMaterial(int face, int slot, float[] values, int offset, int size) {
+    if(face == GL_BACK) {
+      return;
+    }
+    if(slot < 0) {
+      // Compound parameters like GL_AMBIENT_AND_DIFFUSE.
+      Arrays.fill(materialKnown, false);
+      return;
+    }
+    System.arraycopy(values, offset, material, slot*4, size);
+    materialKnown[slot] = true;
+  }
+  
+  /** Returns the slot of a shadowed material parameter, or -1 if it isn't shadowed. */
+  private static int materialSlot(int pname) {
+    for(int i = 0; i < MATERIAL_PARAMS.length; i++) {
+      if(MATERIAL_PARAMS[i] == pname) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
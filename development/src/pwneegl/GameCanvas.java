@@ -53,8 +53,10 @@ import com.jogamp.opengl.util.FPSAnimator;
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
+import pwneegl.asset.AssetLoader;
 import pwneegl.input.Keyboard;
 import pwneegl.input.Mouse;
+import pwneegl.math.Matrix4f;
 
 
 public abstract class GameCanvas extends GLCanvas implements GLEventListener {
@@ -71,6 +73,12 @@ public abstract class GameCanvas extends GLCanvas implements GLEventListener {
   /** The animator for the game. */
   public AnimatorBase animator;
   
+  /** Loads assets in the background. Its GL work is done at the start of each frame. */
+  public AssetLoader assets;
+  
+  /** The default projection matrix set when the view resizes. */
+  private Matrix4f projection = new Matrix4f();
+  
   
   //////// Construction
   
@@ -78,6 +86,7 @@ public abstract class GameCanvas extends GLCanvas implements GLEventListener {
   public GameCanvas(GLCapabilities caps, int fps) {
     super(caps); 
     animator = new FPSAnimator(fps);
+    assets = new AssetLoader(caps.getGLProfile());
     
     initListeners();
   }
@@ -91,6 +100,7 @@ public abstract class GameCanvas extends GLCanvas implements GLEventListener {
   public GameCanvas(GLCapabilities caps) {
     super(caps);
     animator = new Animator();
+    assets = new AssetLoader(caps.getGLProfile());
     
     initListeners();
   }
@@ -152,6 +162,8 @@ public abstract class GameCanvas extends GLCanvas implements GLEventListener {
   /** Called every frame of animation. */
   @Override
   public void display(GLAutoDrawable drawable) {
+    GLState.nextFrame();
+    assets.processGLTasks(drawable.getGL().getGL2());
     update();
     render(drawable);
   }
@@ -162,6 +174,7 @@ public abstract class GameCanvas extends GLCanvas implements GLEventListener {
   
     GL2 gl = drawable.getGL().getGL2();
     glu = new GLU(); // obtain GL Utilities
+    GLState.invalidate(); // The context may be new, so nothing about its state is known.
     
     gl.glClearColor(0f, 0f, 0f, 0f); // transparent
     gl.glClearDepth(1f); // farthest
@@ -190,6 +203,7 @@ public abstract class GameCanvas extends GLCanvas implements GLEventListener {
   @Override
   public void dispose(GLAutoDrawable drawable) {
     // put your cleanup code here
+    assets.shutdown();
   }
   
   /** Called when the game's view resizes. */
@@ -207,8 +221,7 @@ public abstract class GameCanvas extends GLCanvas implements GLEventListener {
     
     // Reset our perspective projection matrix stack so that the aspect ratio matches the viewport.
     gl.glMatrixMode(GL_PROJECTION);
-    gl.glLoadIdentity();
-    glu.gluPerspective(45.0, aspect, 0.1, 100.0); // fovy, aspect, zNear, zFar
+    gl.glLoadMatrixf(projection.setPerspective(45f, aspect, 0.1f, 100f).getData(), 0); // fovy, aspect, zNear, zFar
     
     // Reset the model-view matrix stack.
     gl.glMatrixMode(GL_MODELVIEW);
@@ -0,0 +1,118 @@
+package pwneegl.asset;
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+/**
+ * A handle to an asset that is being loaded by an AssetLoader. The asset 
+ * starts out pending and becomes either ready, once it has been fully loaded
+ * (including any work on the GL thread), or failed. The handle can be polled
+ * from the game loop to find out when the asset can be used.
+ */
+public class Asset<T> {
+  
+  /** The asset is still being loaded. */
+  public static final int PENDING = 0;
+  
+  /** The asset is loaded and ready to use. */
+  public static final int READY = 1;
+  
+  /** The asset could not be loaded. */
+  public static final int FAILED = 2;
+  
+  /** The path the asset is loaded from. */
+  private String path;
+  
+  /** The loaded asset. */
+  private volatile T value = null;
+  
+  /** The error that caused the load to fail. */
+  private volatile Throwable error = null;
+  
+  /** PENDING, READY, or FAILED. */
+  private volatile int state = PENDING;
+  
+  
+  /** Creates a pending handle for an asset loaded from the given path. */
+  Asset(String path) {
+    this.path = path;
+  }
+  
+  
+  //////// Completion
+  
+  /** Marks the asset as loaded. */
+  void complete(T value) {
+    this.value = value;
+    state = READY;
+  }
+  
+  /** Marks the asset as failed. */
+  void fail(Throwable error) {
+    this.error = error;
+    state = FAILED;
+  }
+  
+  
+  //////// Properties
+  
+  /** Returns the path the asset is loaded from. */
+  public String getPath() {
+    return path;
+  }
+  
+  /** Returns PENDING, READY, or FAILED. */
+  public int getState() {
+    return state;
+  }
+  
+  /** Returns true iff the asset is loaded and ready to use. */
+  public boolean isReady() {
+    return (state == READY);
+  }
+  
+  /** Returns true iff the asset could not be loaded. */
+  public boolean isFailed() {
+    return (state == FAILED);
+  }
+  
+  /** Returns true iff the asset is no longer pending. */
+  public boolean isDone() {
+    return (state != PENDING);
+  }
+  
+  /** Returns the loaded asset, or null if it isn't ready. */
+  public T get() {
+    return value;
+  }
+  
+  /** Returns the error that caused the load to fail, or null if it hasn't failed. */
+  public Throwable getError() {
+    return error;
+  }
+}
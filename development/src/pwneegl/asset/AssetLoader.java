@@ -0,0 +1,354 @@
+package pwneegl.asset;
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLProfile;
+
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
+
+import static javax.media.opengl.GL2ES2.*; // GL2ES2 constants
+
+import pwneegl.PwneeGLError;
+import pwneegl.geom.Poly3f;
+import pwneegl.geom.io.WavefrontIO;
+import pwneegl.material.TexturedMaterial;
+import pwneegl.shader.ShaderProgram;
+
+/**
+ * Loads meshes, textures, and shader programs without stalling rendering.
+ * Reading, decoding, and parsing run on a pool of worker threads. The work 
+ * that needs the GL context (uploading buffers, creating textures, compiling
+ * shaders) is queued and carried out by processGLTasks, which should be 
+ * called once per frame on the GL thread. processGLTasks stops once it has 
+ * used up its frame budget, leaving the rest of the queue for later frames.
+ * 
+ * Each load returns an Asset handle right away. The handle becomes ready
+ * after its GL work is done.
+ */
+public class AssetLoader {
+  
+  /** The default time processGLTasks may spend per frame, in nanoseconds. (4ms) */
+  public static final long DEFAULT_FRAME_BUDGET = 4000000L;
+  
+  /** The profile textures are prepared for. */
+  private GLProfile profile;
+  
+  /** The worker threads that read and decode assets. */
+  private ExecutorService workers;
+  
+  /** The work waiting to be done on the GL thread. */
+  private Queue<GLTask> glTasks = new ConcurrentLinkedQueue<>();
+  
+  /** The time processGLTasks may spend per frame, in nanoseconds. */
+  private long frameBudget = DEFAULT_FRAME_BUDGET;
+  
+  /** The number of assets that are still pending. */
+  private AtomicInteger numPending = new AtomicInteger();
+  
+  
+  /** 
+   * Creates the loader with some number of worker threads. Textures are 
+   * prepared for the given GL profile. 
+   */
+  public AssetLoader(GLProfile profile, int numThreads) {
+    this.profile = profile;
+    
+    // Daemon threads, so that pending loads don't keep the game running.
+    workers = Executors.newFixedThreadPool(Math.max(1, numThreads), new ThreadFactory() {
+      private AtomicInteger count = new AtomicInteger();
+      
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "PwneeGL asset loader " + count.incrementAndGet());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+      }
+    });
+  }
+  
+  /** 
+   * Creates the loader with a worker thread for each available processor 
+   * but one, which is left to the GL thread. 
+   */
+  public AssetLoader(GLProfile profile) {
+    this(profile, Runtime.getRuntime().availableProcessors() - 1);
+  }
+  
+  
+  //////// Properties
+  
+  /** Returns the time processGLTasks may spend per frame, in nanoseconds. */
+  public long getFrameBudget() {
+    return frameBudget;
+  }
+  
+  /** Sets the time processGLTasks may spend per frame, in nanoseconds. */
+  public void setFrameBudget(long nanos) {
+    frameBudget = nanos;
+  }
+  
+  /** Returns the number of assets that are still pending. */
+  public int getNumPending() {
+    return numPending.get();
+  }
+  
+  /** Returns true iff every asset requested so far is done loading. */
+  public boolean isIdle() {
+    return (numPending.get() == 0);
+  }
+  
+  
+  //////// Loading
+  
+  /** 
+   * Loads a Wavefront OBJ mesh from a file or resource path and uploads it 
+   * to graphics memory laid out for a shader program. (null for the 
+   * fixed-function pipeline) If weld is true, identical face corners share a 
+   * single vertex. 
+   */
+  public Asset<Poly3f> loadObj(final String path, final boolean isResource, final boolean weld, final ShaderProgram program) {
+    return load(path, new Work<Poly3f>() {
+      @Override
+      public Poly3f read() throws Exception {
+        if(isResource) {
+          return WavefrontIO.readFromResource(path, weld);
+        }
+        else {
+          return WavefrontIO.readFromFile(path, weld);
+        }
+      }
+    }, new GLWork<Poly3f, Poly3f>() {
+      @Override
+      public Poly3f finish(GL2 gl, Poly3f poly) {
+        poly.upload(gl, program);
+        return poly;
+      }
+    });
+  }
+  
+  /** 
+   * Loads a Wavefront OBJ mesh from a file or resource path and uploads it 
+   * to graphics memory for the fixed-function pipeline.
+   */
+  public Asset<Poly3f> loadObj(String path, boolean isResource) {
+    return loadObj(path, isResource, false, null);
+  }
+  
+  
+  /** 
+   * Loads a textured material from an image file or resource path. The 
+   * image is decoded and converted to texture data on a worker thread, and
+   * the texture is created with the specified active texture number 
+   * (i.e.: GL_TEXTUREi) on the GL thread.
+   */
+  public Asset<TexturedMaterial> loadTexture(final String path, final boolean isResource, final int activeTexNum) {
+    
+    /** The decoded material and its texture data. */
+    class Decoded {
+      TexturedMaterial material;
+      TextureData data;
+    }
+    
+    return load(path, new Work<Decoded>() {
+      @Override
+      public Decoded read() throws Exception {
+        BufferedImage image;
+        if(isResource) {
+          InputStream is = AssetLoader.class.getClassLoader().getResourceAsStream(path);
+          if(is == null) {
+            throw new FileNotFoundException("Image resource not found: " + path);
+          }
+          try {
+            image = ImageIO.read(is);
+          }
+          finally {
+            is.close();
+          }
+        }
+        else {
+          image = ImageIO.read(new File(path));
+        }
+        if(image == null) {
+          throw new PwneeGLError("Unsupported image format: " + path);
+        }
+        
+        Decoded result = new Decoded();
+        result.material = new TexturedMaterial(image, activeTexNum);
+        result.data = AWTTextureIO.newTextureData(profile, image, false);
+        return result;
+      }
+    }, new GLWork<Decoded, TexturedMaterial>() {
+      @Override
+      public TexturedMaterial finish(GL2 gl, Decoded decoded) {
+        decoded.material.initTexture(gl, decoded.data);
+        decoded.data.flush();
+        return decoded.material;
+      }
+    });
+  }
+  
+  /** Loads a textured material from an image file or resource path, using GL_TEXTURE0. */
+  public Asset<TexturedMaterial> loadTexture(String path, boolean isResource) {
+    return loadTexture(path, isResource, GL_TEXTURE0);
+  }
+  
+  
+  /** 
+   * Loads a shader program from vertex and fragment shader files or 
+   * resources. The sources are read on a worker thread and compiled and 
+   * linked on the GL thread. 
+   */
+  public Asset<ShaderProgram> loadShader(final String vertexPath, final String fragmentPath, final boolean loadAsResources) {
+    return load(vertexPath, new Work<Map<Integer, String>>() {
+      @Override
+      public Map<Integer, String> read() throws Exception {
+        Map<Integer, String> sources = new HashMap<>();
+        sources.put(GL_VERTEX_SHADER, ShaderProgram.readSource(vertexPath, loadAsResources));
+        sources.put(GL_FRAGMENT_SHADER, ShaderProgram.readSource(fragmentPath, loadAsResources));
+        return sources;
+      }
+    }, new GLWork<Map<Integer, String>, ShaderProgram>() {
+      @Override
+      public ShaderProgram finish(GL2 gl, Map<Integer, String> sources) {
+        return ShaderProgram.fromSources(gl, sources);
+      }
+    });
+  }
+  
+  
+  /** 
+   * Starts loading an asset. The work is run on a worker thread, and its 
+   * result is then passed to the GL work on the GL thread.
+   */
+  private <I, T> Asset<T> load(String path, final Work<I> work, final GLWork<I, T> glWork) {
+    final Asset<T> asset = new Asset<>(path);
+    numPending.incrementAndGet();
+    
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        final I data;
+        try {
+          data = work.read();
+        }
+        catch(Throwable e) {
+          fail(asset, e);
+          return;
+        }
+        
+        glTasks.add(new GLTask() {
+          @Override
+          public void run(GL2 gl) {
+            try {
+              asset.complete(glWork.finish(gl, data));
+              numPending.decrementAndGet();
+            }
+            catch(Throwable e) {
+              fail(asset, e);
+            }
+          }
+        });
+      }
+    });
+    return asset;
+  }
+  
+  
+  /** Marks an asset as failed. */
+  private void fail(Asset<?> asset, Throwable e) {
+    asset.fail(e);
+    numPending.decrementAndGet();
+  }
+  
+  
+  //////// GL thread
+  
+  /** 
+   * Carries out the queued GL work for loaded assets until the queue is empty
+   * or the frame budget has been used up. At least one task is run per call,
+   * so that loading always makes progress. Call this once per frame on the 
+   * GL thread. 
+   */
+  public void processGLTasks(GL2 gl) {
+    long start = System.nanoTime();
+    GLTask task = glTasks.poll();
+    while(task != null) {
+      task.run(gl);
+      
+      if(System.nanoTime() - start >= frameBudget) {
+        break;
+      }
+      task = glTasks.poll();
+    }
+  }
+  
+  
+  /** 
+   * Stops the worker threads. Loads that haven't been read yet are 
+   * abandoned. 
+   */
+  public void shutdown() {
+    workers.shutdownNow();
+  }
+  
+  
+  //////// Work
+  
+  /** Work done on a worker thread to read and decode an asset. */
+  private interface Work<I> {
+    I read() throws Exception;
+  }
+  
+  /** Work done on the GL thread to finish loading an asset. */
+  private interface GLWork<I, T> {
+    T finish(GL2 gl, I data);
+  }
+  
+  /** A queued task for the GL thread. */
+  private interface GLTask {
+    void run(GL2 gl);
+  }
+}
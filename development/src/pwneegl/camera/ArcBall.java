@@ -55,6 +55,7 @@ import static javax.media.opengl.GL2.*; // GL2 constants
 import pwneegl.input.Mouse;
 import pwneegl.math.Point3f;
 import pwneegl.math.PwneeMath;
+import pwneegl.math.ScratchPool;
 import pwneegl.math.Vector3f;
 
 
@@ -83,6 +84,12 @@ public class ArcBall extends Camera3D {
   /** Rotation of the eye around the Y axis relative to the look point. */
   private float thetaY;
   
+  /** Scratch array for radial coordinates. */
+  private float[] radial = new float[3];
+  
+  /** Scratch array for the arc ball angles of the mouse. */
+  private float[] sphereCoords = new float[2];
+  
   public ArcBall(Point3f eye, Point3f look, Component viewport) {
     super(eye);
     setLookPoint(look);
@@ -104,11 +111,18 @@ public class ArcBall extends Camera3D {
    * look point, based on their current relative xyz coordinates.
    */
   private void calibratePolarCoords() {
-    Vector3f v = getLookVector().negate();
-    float[] rxy = PwneeMath.toRadial(v.getX(), v.getY(), v.getZ());
-    distance = rxy[0];
-    thetaX = rxy[1];
-    thetaY = rxy[2];
+    ScratchPool pool = ScratchPool.get();
+    int mark = pool.mark();
+    try {
+      Vector3f v = getLookVector(pool.vector()).negateLocal();
+      float[] rxy = PwneeMath.toRadial(v.getX(), v.getY(), v.getZ(), radial);
+      distance = rxy[0];
+      thetaX = rxy[1];
+      thetaY = rxy[2];
+    }
+    finally {
+      pool.release(mark);
+    }
   }
   
   
@@ -149,7 +163,8 @@ public class ArcBall extends Camera3D {
   
   /** 
    * Converts view coords into radial coords on the surface of the arc ball. 
-   * This is returned as the array [angleX, angleY].
+   * This is returned as the array [angleX, angleY], which is reused by 
+   * the next call.
    */
   private float[] mouse2SphereCoords(int x, int y) {
     int r = viewport.getHeight()/2;
@@ -159,23 +174,32 @@ public class ArcBall extends Camera3D {
     // Get the vector from the input view point to the center view point.
     float dx = x-cx;
     float dy = y-cy;
-    Vector3f v = new Vector3f(dx, dy, 0);
-    
-    // Collapse the vector to fit in a unit circle.
-    v = v.scale((float) (1f/r));
-    if(v.length() > 1) {
-      v = v.normalize();
+    ScratchPool pool = ScratchPool.get();
+    int mark = pool.mark();
+    try {
+      Vector3f v = pool.vector(dx, dy, 0);
+      
+      // Collapse the vector to fit in a unit circle.
+      v.scaleLocal((float) (1f/r));
+      if(v.length() > 1) {
+        v.normalizeLocal();
+      }
+      
+      // compute the radial coordinates on the arc ball's virtual unit sphere.
+      float angleX = (float) Math.asin(PwneeMath.clamp(v.getY(), -1, 1));
+      float angleY = 0f;
+      float u = (float) Math.cos(angleX);
+      if(u != 0) {
+        angleY = (float) Math.acos(PwneeMath.clamp(v.getX()/u, -1, 1));
+      }
+      
+      sphereCoords[0] = angleX;
+      sphereCoords[1] = angleY;
     }
-    
-    // compute the radial coordinates on the arc ball's virtual unit sphere.
-    float angleX = (float) Math.asin(PwneeMath.clamp(v.getY(), -1, 1));
-    float angleY = 0f;
-    float u = (float) Math.cos(angleX);
-    if(u != 0) {
-      angleY = (float) Math.acos(PwneeMath.clamp(v.getX()/u, -1, 1));
+    finally {
+      pool.release(mark);
     }
-    
-    return new float[] {angleX, angleY};
+    return sphereCoords;
   }
   
   /** Begin dragging the arc ball from the specified coordinates.*/
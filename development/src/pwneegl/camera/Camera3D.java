@@ -44,6 +44,7 @@ import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
 import pwneegl.PwneeGLError;
+import pwneegl.math.Matrix4f;
 import pwneegl.math.Point3f;
 import pwneegl.math.PwneeMath;
 import pwneegl.math.Vector3f;
@@ -91,6 +92,34 @@ public class Camera3D {
   /** The far z-clipping plane. */
   private float zFar;
   
+  /** Scratch array for radial coordinates. */
+  private float[] radial = new float[3];
+  
+  
+  /** The aspect ratio of the viewport the camera was last applied to. */
+  private float aspect = 1f;
+  
+  /** The cached projection matrix. */
+  private Matrix4f projection = new Matrix4f();
+  
+  /** The cached view matrix. */
+  private Matrix4f view = new Matrix4f();
+  
+  /** The cached product of the projection and view matrices. */
+  private Matrix4f viewProjection = new Matrix4f();
+  
+  /** Whether the projection matrix needs to be recomputed. */
+  private boolean projectionDirty = true;
+  
+  /** Whether the view matrix needs to be recomputed. */
+  private boolean viewDirty = true;
+  
+  /** The projection and view matrices the view-projection matrix was last computed from. */
+  private int viewProjectionVersion = -1;
+  
+  /** Incremented whenever the projection or view matrix is recomputed. */
+  private int matrixVersion = 0;
+  
   
   public Camera3D(float x, float y, float z) {
     this.x = x;
@@ -116,22 +145,26 @@ public class Camera3D {
   }
   
   
-  /** Updates the GLU perspective with the camera's properties. */
+  /** 
+   * Updates the OpenGL projection with the camera's properties. The glu 
+   * object is no longer used, since the matrices are computed by the camera.
+   */
   public void glCamera(GL2 gl, GLU glu, int width, int height) {
-    
-    // The aspect ratio.
-    float aspect = (float) (1.0*width/Math.max(height,1));
+    glCamera(gl, width, height);
+  }
+  
+  /** 
+   * Updates the OpenGL projection with the camera's properties. The product 
+   * of the projection and view matrices is loaded into GL_PROJECTION with a 
+   * single call. It is only recomputed when the camera or the viewport's 
+   * aspect ratio has changed.
+   */
+  public void glCamera(GL2 gl, int width, int height) {
+    setAspect((float) (1.0*width/Math.max(height,1)));
     
     // Change to projection matrix.
     gl.glMatrixMode(GL_PROJECTION);
-    gl.glLoadIdentity();
-    
-    // Perspective
-    glu.gluPerspective( getFoV(), aspect, zNear, zFar);
-                        
-    glu.gluLookAt(x,            y,            z,
-                  lookX,        lookY,        lookZ,
-                  up.getX(),    up.getY(),    up.getZ());
+    gl.glLoadMatrixf(getViewProjectionMatrix().getData(), 0);
     
     // Change back to model-view matrix.
     gl.glMatrixMode(GL_MODELVIEW);
@@ -139,6 +172,64 @@ public class Camera3D {
   }
   
   
+  //////// Matrices
+  
+  /** Returns the aspect ratio the camera's projection is computed for. */
+  public float getAspect() {
+    return aspect;
+  }
+  
+  /** Sets the aspect ratio (width/height) the camera's projection is computed for. */
+  public void setAspect(float aspect) {
+    if(aspect != this.aspect) {
+      this.aspect = aspect;
+      projectionDirty = true;
+    }
+  }
+  
+  /** 
+   * Returns the camera's perspective projection matrix. The matrix is cached 
+   * and shouldn't be modified. 
+   */
+  public Matrix4f getProjectionMatrix() {
+    if(projectionDirty) {
+      projection.setPerspective(getFoV(), aspect, zNear, zFar);
+      projectionDirty = false;
+      matrixVersion++;
+    }
+    return projection;
+  }
+  
+  /** 
+   * Returns the camera's view matrix, which transforms model coordinates into
+   * eye coordinates. The matrix is cached and shouldn't be modified. 
+   */
+  public Matrix4f getViewMatrix() {
+    if(viewDirty) {
+      view.setLookAt( x,          y,          z,
+                      lookX,      lookY,      lookZ,
+                      up.getX(),  up.getY(),  up.getZ());
+      viewDirty = false;
+      matrixVersion++;
+    }
+    return view;
+  }
+  
+  /** 
+   * Returns the product of the projection and view matrices. The matrix is 
+   * cached and shouldn't be modified. 
+   */
+  public Matrix4f getViewProjectionMatrix() {
+    getProjectionMatrix();
+    getViewMatrix();
+    if(viewProjectionVersion != matrixVersion) {
+      viewProjection.mulInto(projection, view);
+      viewProjectionVersion = matrixVersion;
+    }
+    return viewProjection;
+  }
+  
+  
   /** Returns the location of the camera's eye in model coordinates. */
   public Point3f getEyePoint() {
     return new Point3f(x, y, z);
@@ -170,6 +261,7 @@ public class Camera3D {
     this.x = x;
     this.y = y;
     this.z = z;
+    viewDirty = true;
   }
   
   /** Sets the X coordinate of the camera's eye. */
@@ -218,6 +310,7 @@ public class Camera3D {
     lookX = x;
     lookY = y;
     lookZ = z;
+    viewDirty = true;
   }
   
   /** Sets the X coordinate for the point the camera is looking towards. */
@@ -236,9 +329,17 @@ public class Camera3D {
   }
   
   
-  /** Returns the camera's current "up" vector. */
+  /** Returns a copy of the camera's current "up" vector. */
   public Vector3f getUpVector() {
-    return up;
+    return getUpVector(new Vector3f());
+  }
+  
+  /** 
+   * Copies the camera's current "up" vector into dst and returns dst. Use 
+   * setUpVector to change it, so that the view matrix is updated.
+   */
+  public Vector3f getUpVector(Vector3f dst) {
+    return dst.set(up);
   }
   
   /** 
@@ -247,11 +348,20 @@ public class Camera3D {
    */
   public void setUpVector(float x, float y, float z) {
     up = new Vector3f(x, y, z);
+    viewDirty = true;
   }
   
   /** Returns the vector from the eye to the look-at point of the camera. */
   public Vector3f getLookVector() {
-    return new Vector3f(getEyePoint(), getLookPoint());
+    return getLookVector(new Vector3f());
+  }
+  
+  /** 
+   * Computes the vector from the eye to the look-at point of the camera into
+   * dst and returns dst. 
+   */
+  public Vector3f getLookVector(Vector3f dst) {
+    return dst.set(lookX - x, lookY - y, lookZ - z);
   }
   
   /** Returns the camera's base field of view, in degrees. */
@@ -280,6 +390,7 @@ public class Camera3D {
       throw new PwneeGLError("Camera's zoom cannot be less than or equal to 0.");
     }
     this.zoom = zoom;
+    projectionDirty = true;
   }
   
   
@@ -310,6 +421,7 @@ public class Camera3D {
     }
     zNear = near;
     zFar = far;
+    projectionDirty = true;
   }
   
   
@@ -323,6 +435,7 @@ public class Camera3D {
     x = lookX + xyz[0];
     y = lookY + xyz[1];
     z = lookZ + xyz[2];
+    viewDirty = true;
   }
   
   
@@ -339,19 +452,22 @@ public class Camera3D {
     lookX = x + xyz[0];
     lookY = y + xyz[1];
     lookZ = z + xyz[2];
+    viewDirty = true;
   }
   
   
   
   /** Returns the distance of the camera's eye to its look point. */
   public float getDistance() {
-    return getLookVector().length();
+    float dx = lookX - x;
+    float dy = lookY - y;
+    float dz = lookZ - z;
+    return (float) Math.sqrt(dx*dx + dy*dy + dz*dz);
   }
   
   /** Sets the camera's eye to be positioned at the specified distance from its look point*/
   public void setDistance(float dist) {
-    Vector3f v = getLookVector().negate();
-    float[] rxy = PwneeMath.toRadial(v.getX(), v.getY(), v.getZ());
+    float[] rxy = PwneeMath.toRadial(x - lookX, y - lookY, z - lookZ, radial);
     float thetaX = rxy[1];
     float thetaY = rxy[2];
     setEyeRadialCoords(dist, thetaX, thetaY);
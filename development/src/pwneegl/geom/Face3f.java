@@ -41,6 +41,7 @@ import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
 import pwneegl.math.Point3f;
+import pwneegl.math.ScratchPool;
 import pwneegl.math.Vector3f;
 
 /** 
@@ -68,6 +69,12 @@ public class Face3f {
     this.v3 = v3;
   }
   
+  /** Constructs a face already assigned to a polygon. Used by Poly3f.addFaces. */
+  Face3f(Poly3f polygon, int v1, int v2, int v3) {
+    this(v1, v2, v3);
+    this.polygon = polygon;
+  }
+  
   
   //////// Polygon
   
@@ -90,6 +97,17 @@ public class Face3f {
     }
   }
   
+  /** 
+   * Replaces this face's vertex indices, given a mapping from each old vertex 
+   * index to its new index. This is done by Poly3f when it reorders its 
+   * vertices.
+   */
+  void remap(int[] vertexRemap) {
+    v1 = vertexRemap[v1];
+    v2 = vertexRemap[v2];
+    v3 = vertexRemap[v3];
+  }
+  
   //////// Vertices
   
   
@@ -129,13 +147,27 @@ public class Face3f {
    * Gets the normal vector for this face. 
    */
   public Vector3f getNormal() {
+    return getNormal(new Vector3f());
+  }
+  
+  /** 
+   * Computes the normal vector for this face into dst and returns dst, 
+   * without allocating anything. 
+   */
+  public Vector3f getNormal(Vector3f dst) {
     Vertex3f p1 = getVertex1();
     Vertex3f p2 = getVertex2();
     Vertex3f p3 = getVertex3();
     
-    Vector3f v1_2 = new Vector3f(p1, p2);
-    Vector3f v1_3 = new Vector3f(p1, p3);
-    return v1_2.cross(v1_3);
+    ScratchPool pool = ScratchPool.get();
+    int mark = pool.mark();
+    try {
+      Vector3f v1_3 = pool.vector(p1, p3);
+      return dst.set(p1, p2).crossInto(dst, v1_3);
+    }
+    finally {
+      pool.release(mark);
+    }
   }
   
   
@@ -35,6 +35,7 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.media.opengl.GL;
@@ -46,39 +47,94 @@ import static javax.media.opengl.GL2.*; // GL2 constants
 import com.jogamp.common.nio.Buffers;
 
 import pwneegl.GLNames;
+import pwneegl.PwneeGLError;
+import pwneegl.geom.data.InstanceAttributes;
+import pwneegl.geom.data.PackedMesh;
 import pwneegl.geom.data.VBOPipeline;
+import pwneegl.geom.data.VertexFormat;
+import pwneegl.geom.data.VertexStore;
 import pwneegl.material.Material;
 import pwneegl.shader.Attribute;
 import pwneegl.shader.ShaderLibrary;
+import pwneegl.shader.ShaderProgram;
 
 /** 
  * A polyhedral comprised of a set of vertices and a set of faces formed 
  * from those vertices. 
+ *
+ * The vertices' built-in attributes are kept in a VertexStore, one primitive
+ * array per attribute. Vertex3f objects are views onto the store, created 
+ * only when they are asked for, so large meshes can be built and uploaded 
+ * without any per-vertex objects.
  */
 public class Poly3f {
   
-  /** The vertices making up the polygon. */
-  private List<Vertex3f> vertices;
+  /** The attributes of the vertices making up the polygon. */
+  private VertexStore store;
+  
+  /** The Vertex3f views onto the store that have been created, by vertex index. */
+  private Vertex3f[] views;
   
   /** The list of faces making up the polygon. */
   private List<Face3f> faces;
   
+  /** The vertex indices of the faces, 3 per face, in the order the faces were added. */
+  private int[] indices = new int[48];
+  
   /** The programmable vbo pipeline manager for this polygon. */
   private VBOPipeline pipeline;
   
+  /** The format the polygon's vertices are stored in in graphics memory. */
+  private VertexFormat format = VertexFormat.STANDARD;
+  
+  /** Pre-packed vertex and index data to upload instead of packing the vertices, if any. */
+  private PackedMesh packedMesh = null;
+  
+  /** The index of the first vertex changed since the last upload. */
+  private int dirtyStart = Integer.MAX_VALUE;
+  
+  /** The index after the last vertex changed since the last upload. */
+  private int dirtyEnd = -1;
+  
+  /** Whether faces were added since the last upload. */
+  private boolean facesDirty = false;
+  
   /** Creates the polyhedral from the given set of vertices. The faces still need to be defined. */
   public Poly3f(Vertex3f[] vArr) {
-    vertices = new ArrayList<>();
-    for(Vertex3f v : vArr) {
-      vertices.add(v);
-    }
-    faces = new ArrayList<>();
-    pipeline = new VBOPipeline();
+    this(Arrays.asList(vArr));
   }
   
-  /** Creates the polyhedral from the given set of vertices. The faces still need to be defined. */
+  /** 
+   * Creates the polyhedral from the given set of vertices. The faces still 
+   * need to be defined. The vertices' attributes are moved into the 
+   * polygon's VertexStore, and the vertices become views onto it. A vertex 
+   * that already belongs to a polygon (including this one, if it is listed 
+   * more than once) stays a view onto that polygon. Its attributes are 
+   * copied instead, and getVertex returns a new view onto the copy.
+   */
   public Poly3f(List<Vertex3f> vertices) {
-    this.vertices = vertices;
+    this(new VertexStore(vertices.size()));
+    views = new Vertex3f[vertices.size()];
+    for(Vertex3f v : vertices) {
+      int i = store.add(0f, 0f, 0f);
+      if(v.getPoly() != null) {
+        store.copyVertex(v.getStore(), v.getStoreIndex(), i);
+        views[i] = new Vertex3f(this, store, i);
+      }
+      else {
+        v.addToPoly(this, store, i);
+        views[i] = v;
+      }
+    }
+  }
+  
+  /** 
+   * Creates the polyhedral from a store of vertex attributes, without 
+   * creating any Vertex3f objects. The faces still need to be defined. The 
+   * polygon takes ownership of the store. 
+   */
+  public Poly3f(VertexStore store) {
+    this.store = store;
     faces = new ArrayList<>();
     pipeline = new VBOPipeline();
   }
@@ -99,19 +155,45 @@ public class Poly3f {
   
   //////// Vertices
   
-  /** Gets the vertex in this polyhedron at the specified index. */
+  /** 
+   * Gets the vertex in this polyhedron at the specified index. The vertex is
+   * a view onto the polygon's VertexStore. It is created the first time it 
+   * is asked for, and the same object is returned after that. 
+   */
   public Vertex3f getVertex(int index) {
-    return vertices.get(index);
+    if(index < 0 || index >= store.size()) {
+      throw new IndexOutOfBoundsException("Vertex index: " + index + ", number of vertices: " + store.size());
+    }
+    if(views == null || index >= views.length) {
+      views = (views == null) ? new Vertex3f[store.size()] : Arrays.copyOf(views, store.size());
+    }
+    if(views[index] == null) {
+      views[index] = new Vertex3f(this, store, index);
+    }
+    return views[index];
   }
   
   /** Returns the number of vertices making up this polygon. */
   public int getNumVertices() {
-    return vertices.size(); 
+    return store.size(); 
   }
   
-  /** Returns a copy of the list of vertices in this polygon. */
+  /** Returns a list of the vertices in this polygon. */
   public List<Vertex3f> getVertices() {
-    return new ArrayList<Vertex3f>(vertices);
+    List<Vertex3f> result = new ArrayList<>(store.size());
+    for(int i = 0; i < store.size(); i++) {
+      result.add(getVertex(i));
+    }
+    return result;
+  }
+  
+  /** 
+   * Returns the store holding the attributes of this polygon's vertices. 
+   * After changing its arrays directly, call markDirty or markVertexDirty so
+   * that the changes are uploaded.
+   */
+  public VertexStore getVertexStore() {
+    return store;
   }
   
   
@@ -123,19 +205,59 @@ public class Poly3f {
   public void addFace(Face3f face) {
     if(face.addToPoly(this)) {
       faces.add(face);
+      facesDirty = true;
+      
+      int numIndices = faces.size()*3;
+      if(numIndices > indices.length) {
+        indices = Arrays.copyOf(indices, Math.max(numIndices, indices.length*2));
+      }
+      indices[numIndices - 3] = face.getIndex1();
+      indices[numIndices - 2] = face.getIndex2();
+      indices[numIndices - 1] = face.getIndex3();
       
-      // Compute the tangental vectors  for the 3 vertices.
-      Vertex3f v1 = face.getVertex1();
-      Vertex3f v2 = face.getVertex2();
-      Vertex3f v3 = face.getVertex3();
+      // Compute the tangental vector for the 3 vertices. It's the same for 
+      // each vertex of the face.
+      int v1 = face.getIndex1();
+      int v2 = face.getIndex2();
+      int v3 = face.getIndex3();
       
-      v1.computeTangentalVector(v2, v3);
-      v2.computeTangentalVector(v3, v1);
-      v3.computeTangentalVector(v1, v2);
+      store.computeTangent(v1, v2, v3);
+      float tx = store.getTangent(v1, 0);
+      float ty = store.getTangent(v1, 1);
+      float tz = store.getTangent(v1, 2);
+      store.setTangent(v2, tx, ty, tz);
+      store.setTangent(v3, tx, ty, tz);
+      markVertexDirty(v1);
+      markVertexDirty(v2);
+      markVertexDirty(v3);
     }
   }
   
   
+  /** 
+   * Adds numFaces faces to this polygon, given 3 vertex indices per face in 
+   * CCW order, starting at v[off]. This is the same as calling addFace for 
+   * each of them, but the tangental vectors of all the faces are computed 
+   * in one batch.
+   */
+  public void addFaces(int[] v, int off, int numFaces) {
+    int start = faces.size()*3;
+    int numIndices = start + numFaces*3;
+    if(numIndices > indices.length) {
+      indices = Arrays.copyOf(indices, Math.max(numIndices, indices.length*2));
+    }
+    System.arraycopy(v, off, indices, start, numFaces*3);
+    
+    for(int i = start; i < numIndices; i += 3) {
+      faces.add(new Face3f(this, indices[i], indices[i + 1], indices[i + 2]));
+      markVertexDirty(indices[i]);
+      markVertexDirty(indices[i + 1]);
+      markVertexDirty(indices[i + 2]);
+    }
+    store.computeTangents(indices, start, numFaces);
+    facesDirty = facesDirty || (numFaces > 0);
+  }
+  
   /** Adds a face to this polygon, given its vertices in CCW order. */
   public void addFace(int v1, int v2, int v3) {
     addFace(new Face3f(v1, v2, v3));
@@ -211,6 +333,11 @@ public class Poly3f {
     return result;
   }
   
+  /** Returns the face in this polygon at the specified index. */
+  public Face3f getFace(int index) {
+    return faces.get(index);
+  }
+  
   /** Returns a copy of the list of faces for this polygon. */
   public List<Face3f> getFaces() {
     return new ArrayList<Face3f>(faces);
@@ -227,6 +354,88 @@ public class Poly3f {
     return faces.size()*3;
   }
   
+  /** 
+   * Returns the array of vertex indices making up the faces of this polygon, 
+   * 3 per face. Only the first getNumIndices() elements are meaningful. This 
+   * is the polygon's own array, so it must not be modified.
+   */
+  public int[] getIndexArray() {
+    return indices;
+  }
+  
+  //////// Reordering
+  
+  /** 
+   * Reorders this polygon's faces and vertices in place, without changing its 
+   * shape. This is used by optimizations such as VertexCacheOptimizer to 
+   * improve how efficiently the GPU processes the polygon. 
+   * @param faceOrder     The old indices of the faces, in their new order. 
+   *                      This must be a permutation of [0, getNumFaces()).
+   * @param vertexRemap   The new index for each old vertex index. This must 
+   *                      be a permutation of [0, getNumVertices()).
+   * The vertices' attributes, including their tangental vectors, move with 
+   * them, so nothing needs to be recomputed. Vertex3f views move with their 
+   * vertices too. The polygon's vertex buffers are refilled the next time it 
+   * is rendered.
+   */
+  public void reorder(int[] faceOrder, int[] vertexRemap) {
+    int numFaces = faces.size();
+    int numVertices = store.size();
+    if(faceOrder.length != numFaces || vertexRemap.length != numVertices) {
+      throw new PwneeGLError("Poly3f reordering doesn't match the polygon's number of faces and vertices.");
+    }
+    
+    // Check the vertex remapping before anything is moved.
+    boolean[] remapped = new boolean[numVertices];
+    for(int i = 0; i < numVertices; i++) {
+      int j = vertexRemap[i];
+      if(j < 0 || j >= numVertices || remapped[j]) {
+        throw new PwneeGLError("Poly3f vertex remapping is not a permutation.");
+      }
+      remapped[j] = true;
+    }
+    
+    // Put the faces in their new order.
+    Face3f[] newFaces = new Face3f[numFaces];
+    boolean[] used = new boolean[numFaces];
+    for(int i = 0; i < numFaces; i++) {
+      int f = faceOrder[i];
+      if(f < 0 || f >= numFaces || used[f]) {
+        throw new PwneeGLError("Poly3f face ordering is not a permutation.");
+      }
+      used[f] = true;
+      newFaces[i] = faces.get(f);
+    }
+    
+    // Move the vertices and any views onto them to their new positions.
+    store.permute(vertexRemap);
+    if(views != null) {
+      Vertex3f[] newViews = new Vertex3f[numVertices];
+      for(int i = 0; i < views.length && i < numVertices; i++) {
+        Vertex3f v = views[i];
+        if(v != null) {
+          newViews[vertexRemap[i]] = v;
+          v.addToPoly(this, store, vertexRemap[i]);
+        }
+      }
+      views = newViews;
+    }
+    
+    for(int i = 0; i < numFaces; i++) {
+      Face3f face = newFaces[i];
+      face.remap(vertexRemap);
+      faces.set(i, face);
+      
+      indices[i*3] = face.getIndex1();
+      indices[i*3 + 1] = face.getIndex2();
+      indices[i*3 + 2] = face.getIndex3();
+    }
+    
+    markDirty();
+    facesDirty = true;
+  }
+  
+  
   //////// Colors
   
   /** 
@@ -234,8 +443,12 @@ public class Poly3f {
    * rgba components as floats in the range [0, 1]. 
    */
   public void setColor(float r, float g, float b, float a) {
-    for(Face3f face : faces) {
-      face.setColor(r, g, b, a);
+    int numIndices = getNumIndices();
+    for(int i = 0; i < numIndices; i++) {
+      store.setColor(indices[i], r, g, b, a);
+    }
+    if(numIndices > 0) {
+      markDirty();
     }
   }
   
@@ -291,11 +504,132 @@ public class Poly3f {
   }
   
   
+  //////// Vertex format
+  
+  /** Returns the format this polygon's vertices are stored in in graphics memory. */
+  public VertexFormat getVertexFormat() {
+    return format;
+  }
+  
+  /** 
+   * Sets the format this polygon's vertices are stored in in graphics memory. 
+   * Compact formats such as VertexFormat.COMPACT use less than half the 
+   * memory of VertexFormat.STANDARD. The vertex buffers are rebuilt the next 
+   * time the polygon is rendered.
+   */
+  public void setVertexFormat(VertexFormat format) {
+    this.format = format;
+  }
+  
+  
+  //////// Packed data
+  
+  /** Returns the pre-packed data for this polygon, or null if it doesn't have any. */
+  public PackedMesh getPackedMesh() {
+    return packedMesh;
+  }
+  
+  /** 
+   * Sets data already packed from this polygon's vertices and faces, such as 
+   * data loaded from a mesh cache. If its layout matches the one needed when 
+   * the polygon is first rendered and the polygon hasn't changed since, it 
+   * is uploaded as is. VBOPipeline drops the data after the first upload.
+   */
+  public void setPackedMesh(PackedMesh packedMesh) {
+    this.packedMesh = packedMesh;
+  }
+  
+  
+  //////// Dirty tracking
+  
+  /** 
+   * Records that the vertex at the given index has changed since the 
+   * polygon's vertex data was last uploaded to graphics memory. Vertices 
+   * call this themselves when their attributes are set. 
+   */
+  public void markVertexDirty(int index) {
+    dirtyStart = Math.min(dirtyStart, index);
+    dirtyEnd = Math.max(dirtyEnd, index + 1);
+  }
+  
+  /** 
+   * Records that all of the polygon's vertices have changed. Use this after 
+   * modifying vertices in ways the polygon can't detect, such as writing to 
+   * the arrays of its VertexStore directly.
+   */
+  public void markDirty() {
+    dirtyStart = 0;
+    dirtyEnd = Math.max(dirtyEnd, store.size());
+  }
+  
+  /** Returns true iff any vertices have changed since the last upload. */
+  public boolean isDirty() {
+    return (dirtyEnd > dirtyStart);
+  }
+  
+  /** Returns true iff faces have been added since the last upload. */
+  public boolean isFacesDirty() {
+    return facesDirty;
+  }
+  
+  /** Returns the index of the first vertex changed since the last upload. */
+  public int getDirtyStart() {
+    return dirtyStart;
+  }
+  
+  /** Returns the index after the last vertex changed since the last upload. */
+  public int getDirtyEnd() {
+    return dirtyEnd;
+  }
+  
+  /** Forgets about any changes. This is done by VBOPipeline after it uploads the polygon's data. */
+  public void clearDirty() {
+    dirtyStart = Integer.MAX_VALUE;
+    dirtyEnd = -1;
+    facesDirty = false;
+  }
+  
+  
   //////// Rendering
   
+  /** 
+   * Uploads the polygon's vertex data to graphics memory ahead of its first 
+   * render, laid out for the given shader program. (null for the 
+   * fixed-function pipeline) 
+   */
+  public void upload(GL2 gl, ShaderProgram program) {
+    pipeline.upload(gl, this, program);
+  }
+  
   /** Render the polygon using VBO. (Fast!)*/
   public void render(GL2 gl) {
-    pipeline.render(gl, faces, vertices);
+    pipeline.render(gl, this);
+  }
+
+  /**
+   * Binds the polygon's vertex arrays, so that it can be drawn several times
+   * in a row with draw. Call unbind when done.
+   */
+  public void bind(GL2 gl) {
+    pipeline.bind(gl, this);
+  }
+
+  /** Draws the polygon, assuming it is currently bound. */
+  public void draw(GL2 gl) {
+    pipeline.draw(gl);
+  }
+
+  /** Unbinds the polygon's vertex arrays. */
+  public void unbind(GL2 gl) {
+    pipeline.unbind(gl);
+  }
+
+  /** 
+   * Renders many instances of this polygon at once, with their per-instance 
+   * attributes supplied by instances, such as an InstancedBatch. 
+   */
+  public void renderInstanced(GL2 gl, InstanceAttributes instances) {
+    pipeline.renderInstanced(gl, this, instances);
   }
   
 } 
@@ -29,21 +29,15 @@ package pwneegl.geom;
 ======================================================================*/
 
 import java.nio.FloatBuffer;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
-import javax.media.opengl.GL;
-import javax.media.opengl.GL2;
 
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
-import com.jogamp.common.nio.Buffers;
-
 import pwneegl.PwneeGLError;
+import pwneegl.geom.data.VertexStore;
 import pwneegl.math.Point3f;
-import pwneegl.math.PwneeMath;
+import pwneegl.math.ScratchPool;
 import pwneegl.math.Vector3f;
 import pwneegl.shader.Attribute;
 import pwneegl.shader.ShaderLibrary;
@@ -52,58 +46,37 @@ import pwneegl.shader.ShaderLibrary;
  * A vertex is a point in 3D space with extra properties such as color, 
  * texture coordinates, and extra goodies that are helpful for vertices to
  * have in OpenGL.
+ *
+ * A vertex is a view onto a slot in a VertexStore. A new vertex gets a 
+ * private store of its own. Once it is added to a Poly3f, its attributes are 
+ * moved into the polygon's store, and the vertex becomes a view onto its slot
+ * there. Polygons created directly from a VertexStore create these views 
+ * only when getVertex is called. 
+ *
+ * The coordinates live in the store too, so the inherited coords array is 
+ * null. Use getX, getY, getZ, and getCoords instead.
  */
 public class Vertex3f extends Point3f {
   
-  /** The rgba color array. */
-  private float[] color;
-  
-  /** The texture coordinates array. */
-  private float[] texCoords;
-  
-  /** The per-vertex normal for this vertex. This is used to produce smoother shading. */
-  private float[] normal;
-  
-  /** 
-   * The tangental vector for this vertex. This is orthogonal to the normal 
-   * and oriented in the positive s direction of the texture coordinate system 
-   * at this vertex. This is useful for special effects such as bump mapping.
-   */
-  private float[] tangental;
-   
-  /** Map of user-defined float attribute locations to their values. */
-  private Map<Integer, float[]> attribsf;
+  /** A reference to the polygon this vertex belongs to. */
+  private Poly3f polygon = null;
   
-  /** Map of user-defined int attribute locations to their values. */
-  private Map<Integer, int[]> attribsi;
+  /** The store holding this vertex's attributes. */
+  private VertexStore store;
   
-  /** Map of user-defined double attribute locations to their values. */
-  private Map<Integer, double[]> attribsd;
+  /** The index of this vertex in its store. */
+  private int index;
   
   
   
   /** Creates the vertex, specifying only its model coordinates. */
   public Vertex3f(float x, float y, float z) {
-    super(x, y, z);
+    super();
     
-    // Initialize the color to be transparent black.
-    color = new float[4];
-    color[0] = 0f;
-    color[1] = 0f;
-    color[2] = 0f;
-    color[3] = 0f;
-    
-    // Initialize the texture coordinates to be (0,0).
-    texCoords = new float[2];
-    texCoords[0] = 0f;
-    texCoords[1] = 0f;
-    
-    normal = null;
-    tangental = null;
-    
-    attribsf = new HashMap<>();
-    attribsi = new HashMap<>();
-    attribsd = new HashMap<>();
+    // The color starts as transparent black, the texture coordinates as 
+    // (0,0), and the normal and tangental vector as [1,0,0].
+    store = new VertexStore(1);
+    index = store.add(x, y, z);
   }
   
   /** Creates the vertex, specifying only its model coordinates. */
@@ -111,23 +84,150 @@ public class Vertex3f extends Point3f {
     this(xyz[0], xyz[1], xyz[2]);
   }
   
+  /** Creates a view onto a vertex in a polygon's store. */
+  Vertex3f(Poly3f poly, VertexStore store, int index) {
+    super();
+    this.polygon = poly;
+    this.store = store;
+    this.index = index;
+  }
+  
+  
+  //////// Polygon
+  
+  /** 
+   * Assigns this vertex to be part of a polygon at the given index in its 
+   * vertex list. Changes to the vertex's attributes are then reported to the 
+   * polygon so that they can be uploaded to graphics memory. A vertex belongs 
+   * to at most one polygon, so it can't be added to a different one.
+   *
+   * If the vertex isn't already a view onto the polygon's store, its 
+   * attributes are copied into the store at the given index, which the 
+   * polygon has already allocated, and the vertex becomes a view onto it.
+   * Poly3f.reorder moves the store's data itself and only tells its views 
+   * their new indices.
+   */
+  void addToPoly(Poly3f poly, VertexStore store, int index) {
+    if(polygon != null && polygon != poly) {
+      throw new PwneeGLError("Vertex already belongs to another polygon.");
+    }
+    if(this.store != store) {
+      store.copyVertex(this.store, this.index, index);
+    }
+    
+    this.polygon = poly;
+    this.store = store;
+    this.index = index;
+  }
+  
+  /** Returns the polygon this vertex belongs to, or null if it doesn't belong to one. */
+  public Poly3f getPoly() {
+    return polygon;
+  }
+  
+  /** Returns the index of this vertex in its polygon, or -1 if it doesn't belong to one. */
+  public int getIndex() {
+    if(polygon == null) {
+      return -1;
+    }
+    return index;
+  }
+  
+  /** 
+   * Returns the store holding this vertex's attributes. This is the 
+   * polygon's store if the vertex belongs to one. 
+   */
+  public VertexStore getStore() {
+    return store;
+  }
+  
+  /** Returns the index of this vertex's slot in its store. */
+  public int getStoreIndex() {
+    return index;
+  }
+  
+  /** Reports to this vertex's polygon that its attributes have changed. */
+  private void markDirty() {
+    if(polygon != null) {
+      polygon.markVertexDirty(index);
+    }
+  }
+  
+  
+  //////// Coordinates
+  
+  @Override
+  public float getX() {
+    return store.getX(index);
+  }
+  
+  @Override
+  public float getY() {
+    return store.getY(index);
+  }
+  
+  @Override
+  public float getZ() {
+    return store.getZ(index);
+  }
+  
+  @Override
+  public float[] getCoords() {
+    return new float[] {store.getX(index), store.getY(index), store.getZ(index), 1f};
+  }
+  
+  @Override
+  public float[] getCoords(float[] dst, int off) {
+    dst[off] = store.getX(index);
+    dst[off + 1] = store.getY(index);
+    dst[off + 2] = store.getZ(index);
+    dst[off + 3] = 1f;
+    return dst;
+  }
+  
+  @Override
+  public void writeTo(FloatBuffer dst) {
+    dst.put(store.getX(index));
+    dst.put(store.getY(index));
+    dst.put(store.getZ(index));
+    dst.put(1f);
+  }
+  
+  @Override
+  public void setX(float x) {
+    store.setPosition(index, x, getY(), getZ());
+    markDirty();
+  }
+  
+  @Override
+  public void setY(float y) {
+    store.setPosition(index, getX(), y, getZ());
+    markDirty();
+  }
+  
+  @Override
+  public void setZ(float z) {
+    store.setPosition(index, getX(), getY(), z);
+    markDirty();
+  }
+  
   
   //////// Color
   
   public float getRed() {
-    return color[0];
+    return store.getColor(index, 0);
   }
   
   public float getGreen() {
-    return color[1];
+    return store.getColor(index, 1);
   }
   
   public float getBlue() {
-    return color[2];
+    return store.getColor(index, 2);
   }
   
   public float getAlpha() {
-    return color[3];
+    return store.getColor(index, 3);
   }
   
   /** 
@@ -136,22 +236,28 @@ public class Vertex3f extends Point3f {
    */
   public float[] getColor() {
     float[] result = new float[4];
-    result[0] = color[0];
-    result[1] = color[1];
-    result[2] = color[2];
-    result[3] = color[3];
+    result[0] = getRed();
+    result[1] = getGreen();
+    result[2] = getBlue();
+    result[3] = getAlpha();
     return result;
   }
   
+  /** Copies the vertex's rgba color into dst, starting at index off, and returns dst. */
+  public float[] getColor(float[] dst, int off) {
+    for(int i = 0; i < 4; i++) {
+      dst[off + i] = store.getColor(index, i);
+    }
+    return dst;
+  }
+  
   /** 
    * Sets the color of the vertex, given the color's rgba components as 
    * floats in the range [0, 1].
    */
   public void setColor(float r, float g, float b, float a) {
-    color[0] = r;
-    color[1] = g;
-    color[2] = b;
-    color[3] = a;
+    store.setColor(index, r, g, b, a);
+    markDirty();
   }
   
   /** 
@@ -200,24 +306,23 @@ public class Vertex3f extends Point3f {
   
   /** Set texture coordinates for a single texture. */
   public void setTexCoords(float[] st) {
-    texCoords[0] = st[0];
-    texCoords[1] = st[1];
+    setTexCoords(st[0], st[1]);
   }
   
   /** Set texture coordinates for a single texture. */
   public void setTexCoords(float s, float t) {
-    texCoords[0] = s;
-    texCoords[1] = t;
+    store.setTexCoords(index, s, t);
+    markDirty();
   }
   
   /** Returns the S texture coordinate of the vertex. */
   public float getTexS() {
-    return texCoords[0];
+    return store.getTexS(index);
   }
   
   /** Returns the T texture coordinate of the vertex. */
   public float getTexT() {
-    return texCoords[1];
+    return store.getTexT(index);
   }
   
   /** 
@@ -226,11 +331,18 @@ public class Vertex3f extends Point3f {
    */
   public float[] getTexCoords() {
     float[] result = new float[2];
-    result[0] = texCoords[0];
-    result[1] = texCoords[1];
+    result[0] = getTexS();
+    result[1] = getTexT();
     return result;
   }
   
+  /** Copies the vertex's st texture coordinates into dst, starting at index off, and returns dst. */
+  public float[] getTexCoords(float[] dst, int off) {
+    dst[off] = getTexS();
+    dst[off + 1] = getTexT();
+    return dst;
+  }
+  
   
   
   //////// vertex normal
@@ -240,20 +352,24 @@ public class Vertex3f extends Point3f {
    * In shader programs, this result is available for the vertex in gl_Normal.
    */
   public float[] getNormal() {
-    if(normal == null) {
-      return new float[] {1f, 0f, 0f};
-    }
-    else {
-      return normal;
+    return getNormal(new float[3], 0);
+  }
+  
+  /** Copies the vertex's 3-dimensional normal into dst, starting at index off, and returns dst. */
+  public float[] getNormal(float[] dst, int off) {
+    for(int i = 0; i < 3; i++) {
+      dst[off + i] = store.getNormal(index, i);
     }
+    return dst;
   }
   
   public void setNormal(float[] n) {
-    normal = PwneeMath.normalize(new float[] {n[0], n[1], n[2]});
+    setNormal(n[0], n[1], n[2]);
   }
   
   public void setNormal(float nx, float ny, float nz) {
-    normal = PwneeMath.normalize(new float[] {nx, ny, nz});
+    store.setNormal(index, nx, ny, nz);
+    markDirty();
   }
   
   
@@ -265,9 +381,6 @@ public class Vertex3f extends Point3f {
    * with which this vertex forms a face. 
    */
   public void computeTangentalVector(Vertex3f v2, Vertex3f v3) {
-    Vector3f u = new Vector3f(v2.getX() - this.getX(), v2.getY() - this.getY(), v2.getZ() - this.getZ());
-    Vector3f v = new Vector3f(v3.getX() - this.getX(), v3.getY() - this.getY(), v3.getZ() - this.getZ());
-    
     float su = v2.getTexS() - this.getTexS();
     float sv = v3.getTexS() - this.getTexS();
     float tu = v2.getTexT() - this.getTexT();
@@ -275,16 +388,32 @@ public class Vertex3f extends Point3f {
     float dst = tv*su - tu*sv;
     
     if(dst == 0) {
-      tangental = new float[] {1,0,0};
+      setTangental(1, 0, 0);
+      return;
     }
-    else {
-      tangental = u.scale(tv).sub(v.scale(tu)).scale(1/dst).getCoords(3);
+    
+    ScratchPool pool = ScratchPool.get();
+    int mark = pool.mark();
+    try {
+      Vector3f u = pool.vector(this, v2);
+      Vector3f v = pool.vector(this, v3);
+      u.scaleLocal(tv).subLocal(v.scaleLocal(tu)).scaleLocal(1/dst);
+      setTangental(u.getX(), u.getY(), u.getZ());
+    }
+    finally {
+      pool.release(mark);
     }
   }
   
   /** Sets the tangental vector manually. */
   public void setTangental(float[] t) {
-    this.tangental = new float[] {t[0], t[1], t[2]};
+    setTangental(t[0], t[1], t[2]);
+  }
+  
+  /** Sets the tangental vector manually. */
+  public void setTangental(float tx, float ty, float tz) {
+    store.setTangent(index, tx, ty, tz);
+    markDirty();
   }
   
   /** 
@@ -295,10 +424,15 @@ public class Vertex3f extends Point3f {
    * use this.
    */
   public float[] getTangental() {
-    if(tangental == null) {
-      tangental = new float[] {1f, 0f, 0f};
+    return getTangental(new float[3], 0);
+  }
+  
+  /** Copies the vertex's 3-dimensional tangental vector into dst, starting at index off, and returns dst. */
+  public float[] getTangental(float[] dst, int off) {
+    for(int i = 0; i < 3; i++) {
+      dst[off + i] = store.getTangent(index, i);
     }
-    return tangental;
+    return dst;
   }
   
   
@@ -307,53 +441,64 @@ public class Vertex3f extends Point3f {
   
   //////// User-defined vertex attributes
   
+  /*
+   * User-defined attributes are identified by their names in the shader. 
+   * The first time an attribute is set, it is added to the schema of the 
+   * vertex's store with the given number of components, and every other 
+   * vertex in the store starts out with all of its components set to 0.
+   */
+  
   // Floats
   
   /** Sets a single-float attribute. */
   public void setAttribf(String name, float value) {
-    int attLoc = ShaderLibrary.get().getAttribLocation(name);
-    attribsf.put(attLoc, new float[] {value});
+    setAttribfv(name, new float[] {value});
   }
   
   /** Sets a float-based attribute. */
   public void setAttribfv(String name, float[] values) {
-    int attLoc = ShaderLibrary.get().getAttribLocation(name);
-    attribsf.put(attLoc, values);
+    int slot = store.addAttribute(name, GL_FLOAT, values.length);
+    store.setAttribf(index, slot, values);
+    markDirty();
   }
   
   /** 
-   * Gets the value of a float-based attribute, given its OpenGL location. 
+   * Gets the value of a float-based attribute, given its OpenGL location in 
+   * the shader currently in use. 
    * If the vertex has no such attribute, a PwneeGLError is thrown.
    */
   public float[] getAttribf(int loc) {
-    float[] result = attribsf.get(loc);
-    if(result == null) {
-      throw new PwneeGLError("Vertex does not have user-defined attribute at location: " + loc);
-    }
-    else {
-      return result;
-    }
+    return store.getAttribf(index, getSlot(loc));
   }
   
   /** 
    * Gets the value of a float-based attribute, given its name. 
-   * If the vertex has no such attribute, an empty array is returned.
+   * If the vertex has no such attribute, a PwneeGLError is thrown.
    */
   public float[] getAttribf(String name) {
-    return getAttribf(ShaderLibrary.get().getAttribLocation(name));
+    return store.getAttribf(index, getSlot(name));
+  }
+  
+  /** 
+   * Copies the value of a float-based attribute, given its name, into dst 
+   * starting at index off, and returns dst. 
+   * If the vertex has no such attribute, a PwneeGLError is thrown.
+   */
+  public float[] getAttribf(String name, float[] dst, int off) {
+    return store.getAttribf(index, getSlot(name), dst, off);
   }
   
   /** 
    * Returns an array of the float-based attributes for this vertex, 
    * in context to the shader currently in use. 
-   * Any attributes used by the shader that the vertex doesn't have are 
-   * returned as empty arrays.
+   * If the vertex doesn't have an attribute used by the shader, a 
+   * PwneeGLError is thrown.
    */
   public float[][] getAttribsf() {
     List<Attribute> attributes = ShaderLibrary.get().getUserAttribsf();
     float[][] result = new float[attributes.size()][];
     for(int i = 0; i < attributes.size(); i++) {
-      result[i] = getAttribf(attributes.get(i).getLocation());
+      result[i] = getAttribf(attributes.get(i).getName());
     }
     return result;
   }
@@ -363,50 +508,45 @@ public class Vertex3f extends Point3f {
   
   /** Sets a single-int attribute. */
   public void setAttribi(String name, int value) {
-    int attLoc = ShaderLibrary.get().getAttribLocation(name);
-    attribsi.put(attLoc, new int[] {value});
+    setAttribiv(name, new int[] {value});
   }
   
   /** Sets a int-based attribute. */
   public void setAttribiv(String name, int[] values) {
-    int attLoc = ShaderLibrary.get().getAttribLocation(name);
-    attribsi.put(attLoc, values);
+    int slot = store.addAttribute(name, GL_INT, values.length);
+    store.setAttribi(index, slot, values);
+    markDirty();
   }
   
   
   /** 
-   * Gets the value of a int-based attribute, given its OpenGL location. 
+   * Gets the value of a int-based attribute, given its OpenGL location in 
+   * the shader currently in use. 
    * If the vertex has no such attribute, a PwneeGLError is thrown.
    */
   public int[] getAttribi(int loc) {
-    int[] result = attribsi.get(loc);
-    if(result == null) {
-      throw new PwneeGLError("Vertex does not have user-defined attribute at location: " + loc);
-    }
-    else {
-      return result;
-    }
+    return store.getAttribi(index, getSlot(loc));
   }
   
   /** 
    * Gets the value of a int-based attribute, given its name. 
-   * If the vertex has no such attribute, an empty array is returned.
+   * If the vertex has no such attribute, a PwneeGLError is thrown.
    */
   public int[] getAttribi(String name) {
-    return getAttribi(ShaderLibrary.get().getAttribLocation(name));
+    return store.getAttribi(index, getSlot(name));
   }
   
   /** 
    * Returns an array of the int-based attributes for this vertex, 
    * in context to the shader currently in use. 
-   * Any attributes used by the shader that the vertex doesn't have are 
-   * returned as empty arrays.
+   * If the vertex doesn't have an attribute used by the shader, a 
+   * PwneeGLError is thrown.
    */
   public int[][] getAttribsi() {
     List<Attribute> attributes = ShaderLibrary.get().getUserAttribsi();
     int[][] result = new int[attributes.size()][];
     for(int i = 0; i < attributes.size(); i++) {
-      result[i] = getAttribi(attributes.get(i).getLocation());
+      result[i] = getAttribi(attributes.get(i).getName());
     }
     return result;
   }
@@ -416,55 +556,75 @@ public class Vertex3f extends Point3f {
   
   /** Sets a single-double attribute. */
   public void setAttribd(String name, double value) {
-    int attLoc = ShaderLibrary.get().getAttribLocation(name);
-    attribsd.put(attLoc, new double[] {value});
+    setAttribdv(name, new double[] {value});
   }
   
   /** Sets a double-based attribute. */
   public void setAttribdv(String name, double[] values) {
-    int attLoc = ShaderLibrary.get().getAttribLocation(name);
-    attribsd.put(attLoc, values);
+    int slot = store.addAttribute(name, GL_DOUBLE, values.length);
+    store.setAttribd(index, slot, values);
+    markDirty();
   }
   
   
   /** 
-   * Gets the value of a double-based attribute, given its OpenGL location. 
+   * Gets the value of a double-based attribute, given its OpenGL location in 
+   * the shader currently in use. 
    * If the vertex has no such attribute, a PwneeGLError is thrown.
    */
   public double[] getAttribd(int loc) {
-    double[] result = attribsd.get(loc);
-    if(result == null) {
-      throw new PwneeGLError("Vertex does not have user-defined attribute at location: " + loc);
-    }
-    else {
-      return result;
-    }
+    return store.getAttribd(index, getSlot(loc));
   }
   
   /** 
    * Gets the value of a double-based attribute, given its name. 
-   * If the vertex has no such attribute, an empty array is returned.
+   * If the vertex has no such attribute, a PwneeGLError is thrown.
    */
   public double[] getAttribd(String name) {
-    return getAttribd(ShaderLibrary.get().getAttribLocation(name));
+    return store.getAttribd(index, getSlot(name));
   }
   
   /** 
    * Returns an array of the double-based attributes for this vertex, 
    * in context to the shader currently in use. 
-   * Any attributes used by the shader that the vertex doesn't have are 
-   * returned as empty arrays.
+   * If the vertex doesn't have an attribute used by the shader, a 
+   * PwneeGLError is thrown.
    */
   public double[][] getAttribsd() {
     List<Attribute> attributes = ShaderLibrary.get().getUserAttribsd();
     double[][] result = new double[attributes.size()][];
     for(int i = 0; i < attributes.size(); i++) {
-      result[i] = getAttribd(attributes.get(i).getLocation());
+      result[i] = getAttribd(attributes.get(i).getName());
     }
     return result;
   }
   
   
+  // Slots
+  
+  /** Returns the slot of a user-defined attribute in the vertex's store. */
+  private int getSlot(String name) {
+    int slot = store.getSchema().getSlot(name);
+    if(slot < 0) {
+      throw new PwneeGLError("Vertex does not have user-defined attribute: " + name);
+    }
+    return slot;
+  }
+  
+  /** 
+   * Returns the slot of a user-defined attribute in the vertex's store, 
+   * given its location in the shader currently in use. 
+   */
+  private int getSlot(int loc) {
+    for(Attribute att : ShaderLibrary.get().getUserAttribs()) {
+      if(att.getLocation() == loc) {
+        return getSlot(att.getName());
+      }
+    }
+    throw new PwneeGLError("Vertex does not have user-defined attribute at location: " + loc);
+  }
+  
+  
   //////// Misc
   
   public String toString() {
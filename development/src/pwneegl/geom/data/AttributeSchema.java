@@ -0,0 +1,123 @@
+package pwneegl.geom.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+
+import pwneegl.PwneeGLError;
+
+/**
+ * The user-defined vertex attributes of a mesh. Each attribute is given a
+ * dense slot index the first time it is set, along with its unit type
+ * (GL_FLOAT, GL_INT, or GL_DOUBLE) and its number of components. A
+ * VertexStore keeps one primitive channel per slot.
+ *
+ * Attributes are identified by their names in the shader rather than their
+ * locations, so the same mesh can be rendered with any program that uses
+ * the attributes. The name is resolved to a slot once per element when the
+ * mesh is packed, instead of once per vertex.
+ */
+public class AttributeSchema {
+
+  /** The slots of the attributes, by name. */
+  private Map<String, Integer> slots = new HashMap<>();
+
+  /** The attribute names, by slot. */
+  private List<String> names = new ArrayList<>();
+
+  /** The unit types of the attributes, by slot. */
+  private int[] types = new int[4];
+
+  /** The numbers of components of the attributes, by slot. */
+  private int[] sizes = new int[4];
+
+
+  //////// Slots
+
+  /** Returns the number of attributes in the schema. */
+  public int getNumSlots() {
+    return names.size();
+  }
+
+  /** Returns the slot for an attribute, or -1 if the schema doesn't have it. */
+  public int getSlot(String name) {
+    Integer slot = slots.get(name);
+    if(slot == null) {
+      return -1;
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the slot for an attribute, adding it to the schema if it doesn't
+   * have it yet. A PwneeGLError is thrown if the attribute already exists
+   * with a different type or number of components. Slots are added through
+   * VertexStore.addAttribute, which also creates their channels.
+   * @param name      The name of the attribute in the shader.
+   * @param unitType  GL_FLOAT, GL_INT, or GL_DOUBLE.
+   * @param size      The number of components per vertex.
+   */
+  int addSlot(String name, int unitType, int size) {
+    unitType = storageType(unitType);
+    int slot = getSlot(name);
+    if(slot >= 0) {
+      if(types[slot] != unitType || sizes[slot] != size) {
+        throw new PwneeGLError("Vertex attribute " + name + " was already defined with " + sizes[slot]
+                              + " components of type " + types[slot] + ".");
+      }
+      return slot;
+    }
+
+    slot = names.size();
+    if(slot == types.length) {
+      types = Arrays.copyOf(types, slot*2);
+      sizes = Arrays.copyOf(sizes, slot*2);
+    }
+    names.add(name);
+    types[slot] = unitType;
+    sizes[slot] = size;
+    slots.put(name, slot);
+    return slot;
+  }
+
+
+  /** Returns the type an attribute of some unit type is stored as. (GL_FLOAT, GL_INT, or GL_DOUBLE) */
+  public static int storageType(int unitType) {
+    switch(unitType) {
+      case GL_INT :
+      case GL_UNSIGNED_INT :
+        return GL_INT;
+      case GL_DOUBLE :
+        return GL_DOUBLE;
+      default :
+        return GL_FLOAT;
+    }
+  }
+
+
+  //////// Properties
+
+  /** Returns the name of the attribute in some slot. */
+  public String getName(int slot) {
+    return names.get(slot);
+  }
+
+  /** Returns the type of the attribute in some slot. (GL_FLOAT, GL_INT, or GL_DOUBLE) */
+  public int getType(int slot) {
+    return types[slot];
+  }
+
+  /** Returns the number of components of the attribute in some slot. */
+  public int getSize(int slot) {
+    return sizes[slot];
+  }
+
+  public String toString() {
+    return "AttributeSchema:" + names;
+  }
+}
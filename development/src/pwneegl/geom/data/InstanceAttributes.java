@@ -0,0 +1,38 @@
+package pwneegl.geom.data;
+
+import javax.media.opengl.GL2;
+
+import pwneegl.shader.ShaderProgram;
+
+/**
+ * Supplies the per-instance attributes for an instanced draw of a polygon.
+ * VBOPipeline calls these while the polygon's vertex arrays are bound, so 
+ * that the instance attributes are added to the same vertex array state.
+ */
+public interface InstanceAttributes {
+
+  /** 
+   * Returns the number of instances to draw. 
+   */
+  int getNumInstances();
+
+  /**
+   * Points the program's per-instance attributes at the instance buffer and
+   * sets their divisors to 1. Used when instanced drawing is supported.
+   */
+  void enable(GL2 gl, ShaderProgram program);
+
+  /**
+   * Undoes enable, disabling the per-instance attribute arrays and 
+   * resetting their divisors to 0, so that the polygon's vertex arrays can 
+   * still be used for ordinary draws.
+   */
+  void disable(GL2 gl, ShaderProgram program);
+
+  /**
+   * Sets the current values of the program's per-instance attributes to 
+   * those of one instance. Used to draw the instances one at a time when 
+   * instanced drawing isn't supported.
+   */
+  void applyInstance(GL2 gl, ShaderProgram program, int index);
+}
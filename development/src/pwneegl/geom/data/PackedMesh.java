@@ -0,0 +1,73 @@
+package pwneegl.geom.data;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Vertex and index data for a Poly3f that is already packed in the form
+ * VBOPipeline uploads, such as data memory-mapped from a mesh cache file.
+ * If the layout matches the one the pipeline needs when the polygon is
+ * first rendered, the data is handed straight to glBufferData instead of
+ * being packed from the polygon's vertices.
+ */
+public class PackedMesh {
+
+  /** The layout of the vertex data. */
+  private VertexLayout layout;
+
+  /** The interleaved vertex data. */
+  private ByteBuffer vertexData;
+
+  /** The type of the indices in the index data. */
+  private int indexType;
+
+  /** The index data. */
+  private ByteBuffer indexData;
+
+
+  /**
+   * Creates the packed data for a mesh.
+   * @param layout      The layout of the vertex data.
+   * @param vertexData  The interleaved vertex data, in native byte order, from its position to its limit.
+   * @param indexType   GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT, or GL_UNSIGNED_INT.
+   * @param indexData   The index data, in native byte order, from its position to its limit.
+   */
+  public PackedMesh(VertexLayout layout, ByteBuffer vertexData, int indexType, ByteBuffer indexData) {
+    this.layout = layout;
+    this.vertexData = vertexData;
+    this.indexType = indexType;
+    this.indexData = indexData;
+  }
+
+
+  //////// Properties
+
+  /** Returns the layout of the vertex data. */
+  public VertexLayout getLayout() {
+    return layout;
+  }
+
+  /** Returns the interleaved vertex data. */
+  public ByteBuffer getVertexData() {
+    return vertexData;
+  }
+
+  /** Returns the type of the indices in the index data. */
+  public int getIndexType() {
+    return indexType;
+  }
+
+  /** Returns the index data. */
+  public ByteBuffer getIndexData() {
+    return indexData;
+  }
+
+  /** Returns the number of vertices in the vertex data. */
+  public int getNumVertices() {
+    return vertexData.remaining()/layout.getStride();
+  }
+
+  /** Returns the number of indices in the index data. */
+  public int getNumIndices() {
+    return indexData.remaining()/VertexElement.componentBytes(indexType);
+  }
+}
@@ -0,0 +1,141 @@
+package pwneegl.geom.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Singleton pool of native-order direct ByteBuffers used to stage vertex data
+ * before it is uploaded to graphics memory.
+ *
+ * Buffers are grouped into power-of-two size classes and are shared by every
+ * Poly3f, so uploading a mesh only needs a staging buffer for as long as the
+ * upload takes. Since the buffers are already direct, JOGL can hand them
+ * straight to the driver without copying them into a temporary buffer first.
+ */
+public class StagingArena {
+
+  /** The smallest size class, as a power of two. (1KB) */
+  public static final int MIN_SIZE_CLASS = 10;
+
+  /** The largest size class that is pooled, as a power of two. (64MB) */
+  public static final int MAX_SIZE_CLASS = 26;
+
+  /** The maximum number of free buffers kept for each size class. */
+  public static final int MAX_FREE_PER_CLASS = 2;
+
+
+  private static StagingArena instance = null;
+
+  /** The free lists of buffers, indexed by size class. (null below MIN_SIZE_CLASS) */
+  private List<Deque<ByteBuffer>> freeLists;
+
+
+  private StagingArena() {
+    freeLists = new ArrayList<>(MAX_SIZE_CLASS + 1);
+    for(int i = 0; i <= MAX_SIZE_CLASS; i++) {
+      if(i < MIN_SIZE_CLASS) {
+        freeLists.add(null);
+      }
+      else {
+        freeLists.add(new ArrayDeque<ByteBuffer>());
+      }
+    }
+  }
+
+
+  /** Obtains the singleton instance, creating it if necessary. */
+  private static synchronized StagingArena getInstance() {
+    if(instance == null) {
+      instance = new StagingArena();
+    }
+    return instance;
+  }
+
+
+  /** Returns the size class for a buffer of the given number of bytes. */
+  public static int sizeClass(int numBytes) {
+    int result = 32 - Integer.numberOfLeadingZeros(Math.max(numBytes - 1, 0));
+    return Math.max(result, MIN_SIZE_CLASS);
+  }
+
+
+  /**
+   * Obtains a native-order direct buffer with room for at least numBytes
+   * bytes. The returned buffer's position is 0 and its limit is numBytes.
+   * The buffer should be given back with release once it is no longer needed.
+   */
+  public static ByteBuffer acquire(int numBytes) {
+    int sizeClass = sizeClass(numBytes);
+    ByteBuffer result = null;
+
+    if(sizeClass <= MAX_SIZE_CLASS) {
+      StagingArena arena = getInstance();
+      synchronized(arena) {
+        result = arena.freeLists.get(sizeClass).pollFirst();
+      }
+      if(result == null) {
+        result = ByteBuffer.allocateDirect(1 << sizeClass);
+      }
+    }
+    else {
+      // Too big to pool. Just allocate exactly what was asked for.
+      result = ByteBuffer.allocateDirect(numBytes);
+    }
+
+    result.order(ByteOrder.nativeOrder());
+    result.clear();
+    result.limit(numBytes);
+    return result;
+  }
+
+
+  /**
+   * Returns a buffer obtained from acquire to the pool so that it can be
+   * reused. The buffer must not be used by the caller afterwards.
+   */
+  public static void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    int sizeClass = sizeClass(capacity);
+
+    // Only exact power-of-two buffers came from the pool.
+    if(sizeClass > MAX_SIZE_CLASS || capacity != (1 << sizeClass)) {
+      return;
+    }
+
+    StagingArena arena = getInstance();
+    synchronized(arena) {
+      Deque<ByteBuffer> freeList = arena.freeLists.get(sizeClass);
+      if(freeList.size() < MAX_FREE_PER_CLASS) {
+        freeList.addFirst(buffer);
+      }
+    }
+  }
+
+
+  /** Drops all the free buffers in the pool so that their memory can be reclaimed. */
+  public static void clear() {
+    StagingArena arena = getInstance();
+    synchronized(arena) {
+      for(int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+        arena.freeLists.get(i).clear();
+      }
+    }
+  }
+
+
+  /** Returns the total number of bytes held by free buffers in the pool. */
+  public static long getPooledBytes() {
+    long result = 0;
+    StagingArena arena = getInstance();
+    synchronized(arena) {
+      for(int i = MIN_SIZE_CLASS; i <= MAX_SIZE_CLASS; i++) {
+        result += (long) arena.freeLists.get(i).size() << i;
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,329 @@
+package pwneegl.geom.data;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL3ES3;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+import static javax.media.opengl.GL3ES3.*; // GL3ES3 constants
+
+import pwneegl.GLState;
+import pwneegl.PwneeGLError;
+
+/**
+ * A ring buffer in graphics memory for geometry that is regenerated every
+ * frame, such as particles, debug lines, and morph targets.
+ *
+ * The buffer is split into 3 regions, one for each frame in flight. Each
+ * frame, data is sub-allocated from the current region and written straight
+ * into graphics memory through an unsynchronized mapped range. When a frame
+ * ends, a fence is placed after its draw calls. Before a region is reused
+ * 3 frames later, its fence is waited on, which normally has long since
+ * signalled, so writing never stalls on draws that are still using the data.
+ *
+ * If a frame needs more room than its region has left, the whole buffer is
+ * orphaned and allocation starts over in fresh storage. If the context
+ * doesn't support fences, the buffer is orphaned each time the ring wraps
+ * around instead. Draws that were already issued keep using the old 
+ * storage, but offsets returned earlier that haven't been drawn from yet 
+ * then point into the new storage, whose contents are undefined. So 
+ * everything sub-allocated so far must be drawn before the next map or 
+ * upload that might not fit. In particular, don't batch the offsets from
+ * several uploads and draw them all afterwards unless they are known to 
+ * fit in one region together.
+ *
+ * Typical usage:
+ * <pre>
+ * stream.beginFrame(gl);
+ * ByteBuffer dst = stream.map(gl, numBytes);
+ * // ... write vertices into dst ...
+ * int offset = stream.unmap(gl);
+ * // ... set up pointers at offset into stream.getName() and draw ...
+ * stream.endFrame(gl);
+ * </pre>
+ */
+public class StreamBuffer {
+
+  /** The number of regions in the ring. (triple buffering) */
+  public static final int NUM_REGIONS = 3;
+
+  /** The byte alignment of every sub-allocation. */
+  public static final int ALIGNMENT = 16;
+
+  /** The maximum time in nanoseconds to wait for a region's fence. */
+  public static final long FENCE_TIMEOUT = 100000000L;
+
+
+  /** The buffer target the buffer is bound to. (e.g. GL_ARRAY_BUFFER) */
+  private int target;
+
+  /** The name of the buffer in the OpenGL state. */
+  private int name = 0;
+
+  /** The size in bytes of each region. */
+  private int regionSize;
+
+  /** The index of the region used by the current frame. */
+  private int region = NUM_REGIONS - 1;
+
+  /** The offset of the next sub-allocation, relative to the start of the current region. */
+  private int head = 0;
+
+  /** The fences placed after the last frame using each region, or 0 if there is none. */
+  private long[] fences = new long[NUM_REGIONS];
+
+  /** The absolute byte offset of the range that is currently mapped, or -1 if nothing is mapped. */
+  private int mappedOffset = -1;
+
+  /** Whether the OpenGL context supports fences. Checked on first use. */
+  private Boolean syncSupported = null;
+
+  /** The number of times the buffer has been orphaned. */
+  private int numOrphans = 0;
+
+
+  /**
+   * Creates a stream buffer for the given target, with room for regionSize
+   * bytes of data per frame. The buffer isn't created in graphics memory
+   * until the first frame begins.
+   */
+  public StreamBuffer(int target, int regionSize) {
+    if(regionSize <= 0) {
+      throw new PwneeGLError("StreamBuffer region size must be positive.");
+    }
+    this.target = target;
+    this.regionSize = align(regionSize);
+  }
+
+  /** Creates a stream buffer for vertex data, with room for regionSize bytes per frame. */
+  public StreamBuffer(int regionSize) {
+    this(GL_ARRAY_BUFFER, regionSize);
+  }
+
+
+  /** Removes the buffer and its fences from graphics memory. */
+  public void clean(GL2 gl) {
+    if(mappedOffset >= 0) {
+      unmap(gl);
+    }
+    deleteFences(gl);
+    if(name != 0) {
+      GLState.deleteBuffers(gl, new int[] {name});
+      name = 0;
+    }
+    region = NUM_REGIONS - 1;
+    head = 0;
+  }
+
+
+  //////// Properties
+
+  /** Returns the name of the buffer in the OpenGL state, or 0 if it hasn't been created yet. */
+  public int getName() {
+    return name;
+  }
+
+  /** Returns the buffer target the buffer is bound to. */
+  public int getTarget() {
+    return target;
+  }
+
+  /** Returns the number of bytes available to each frame. */
+  public int getRegionSize() {
+    return regionSize;
+  }
+
+  /** Returns the number of bytes still available to the current frame. */
+  public int getRemaining() {
+    return regionSize - head;
+  }
+
+  /** Returns the number of times the buffer has been orphaned. */
+  public int getNumOrphans() {
+    return numOrphans;
+  }
+
+
+  //////// Frames
+
+  /**
+   * Starts a new frame, moving on to the next region in the ring. If the GPU
+   * might still be reading the region from 3 frames ago, this waits for it.
+   */
+  public void beginFrame(GL2 gl) {
+    if(name == 0) {
+      int[] names = new int[1];
+      gl.glGenBuffers(1, names, 0);
+      name = names[0];
+      orphan(gl);
+    }
+
+    region = (region + 1) % NUM_REGIONS;
+    head = 0;
+
+    if(isSyncSupported(gl)) {
+      waitForFence(gl, region);
+    }
+    else if(region == 0) {
+      orphan(gl);
+    }
+  }
+
+
+  /**
+   * Ends the current frame. This must be called after the frame's draw calls
+   * using the buffer have been issued, so that the region isn't overwritten
+   * until they are finished.
+   */
+  public void endFrame(GL2 gl) {
+    if(mappedOffset >= 0) {
+      unmap(gl);
+    }
+    if(isSyncSupported(gl)) {
+      GL3ES3 gl3 = (GL3ES3) gl;
+      if(fences[region] != 0) {
+        gl3.glDeleteSync(fences[region]);
+      }
+      fences[region] = gl3.glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+  }
+
+
+  //////// Allocation
+
+  /**
+   * Sub-allocates numBytes bytes from the current frame's region and maps
+   * them for writing. The returned buffer is in native order with its
+   * position at 0. It must be unmapped before anything is drawn from it.
+   * Only one sub-allocation can be mapped at a time.
+   *
+   * If the region doesn't have numBytes left, the buffer is orphaned first,
+   * and the earlier sub-allocations in this frame are lost to any draw 
+   * that hasn't been issued yet. Draw from them before calling this.
+   */
+  public ByteBuffer map(GL2 gl, int numBytes) {
+    if(mappedOffset >= 0) {
+      throw new PwneeGLError("StreamBuffer already has a mapped range.");
+    }
+    if(numBytes > regionSize) {
+      throw new PwneeGLError("StreamBuffer allocation of " + numBytes + " bytes exceeds the region size of " + regionSize + " bytes.");
+    }
+
+    // Out of room this frame. Start over in fresh storage rather than
+    // overwriting data that may be in use.
+    if(head + numBytes > regionSize) {
+      orphan(gl);
+      region = 0;
+      head = 0;
+    }
+
+    mappedOffset = region*regionSize + head;
+    head += align(numBytes);
+
+    GLState.bindBuffer(gl, target, name);
+    ByteBuffer result = gl.glMapBufferRange(target, mappedOffset, numBytes,
+                    GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT | GL_MAP_INVALIDATE_RANGE_BIT);
+    if(result == null) {
+      GLState.bindBuffer(gl, target, 0);
+      mappedOffset = -1;
+      throw new PwneeGLError("Failed to map StreamBuffer range.");
+    }
+    result.order(ByteOrder.nativeOrder());
+    return result;
+  }
+
+
+  /**
+   * Unmaps the range obtained from map and returns its byte offset in the
+   * buffer, which can be passed to the gl*Pointer functions.
+   */
+  public int unmap(GL2 gl) {
+    if(mappedOffset < 0) {
+      throw new PwneeGLError("StreamBuffer has no mapped range.");
+    }
+    int result = mappedOffset;
+    mappedOffset = -1;
+
+    GLState.bindBuffer(gl, target, name);
+    gl.glUnmapBuffer(target);
+    GLState.bindBuffer(gl, target, 0);
+    return result;
+  }
+
+
+  /**
+   * Copies the remaining bytes of data into a sub-allocation of the current
+   * frame's region and returns its byte offset in the buffer. The position
+   * of data is not changed. Like map, this can orphan the buffer and lose 
+   * earlier sub-allocations that haven't been drawn from yet.
+   */
+  public int upload(GL2 gl, ByteBuffer data) {
+    ByteBuffer dst = map(gl, data.remaining());
+    dst.put(data.duplicate());
+    return unmap(gl);
+  }
+
+
+  //////// Synchronization
+
+  /** Returns true iff the OpenGL context supports fences. */
+  private boolean isSyncSupported(GL2 gl) {
+    if(syncSupported == null) {
+      syncSupported = (gl instanceof GL3ES3) && gl.isFunctionAvailable("glFenceSync")
+                      && gl.isFunctionAvailable("glClientWaitSync");
+    }
+    return syncSupported;
+  }
+
+
+  /** Waits for the GPU to finish with a region, then deletes its fence. */
+  private void waitForFence(GL2 gl, int index) {
+    long fence = fences[index];
+    if(fence == 0) {
+      return;
+    }
+
+    GL3ES3 gl3 = (GL3ES3) gl;
+    int status = gl3.glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+    gl3.glDeleteSync(fence);
+    fences[index] = 0;
+
+    // Don't risk overwriting data in use if the wait didn't succeed.
+    if(status == GL_TIMEOUT_EXPIRED || status == GL_WAIT_FAILED) {
+      orphan(gl);
+    }
+  }
+
+
+  /** Deletes all the fences. */
+  private void deleteFences(GL2 gl) {
+    for(int i = 0; i < NUM_REGIONS; i++) {
+      if(fences[i] != 0) {
+        ((GL3ES3) gl).glDeleteSync(fences[i]);
+        fences[i] = 0;
+      }
+    }
+  }
+
+
+  /**
+   * Gives the buffer fresh storage. The driver keeps the old storage alive
+   * until the GPU is done with it, so none of the regions need to be waited on.
+   */
+  private void orphan(GL2 gl) {
+    deleteFences(gl);
+    GLState.bindBuffer(gl, target, name);
+    gl.glBufferData(target, (long) regionSize*NUM_REGIONS, null, GL_STREAM_DRAW);
+    GLState.bindBuffer(gl, target, 0);
+    numOrphans++;
+  }
+
+
+  /** Rounds a number of bytes up to the sub-allocation alignment. */
+  private static int align(int numBytes) {
+    return (numBytes + ALIGNMENT - 1)/ALIGNMENT*ALIGNMENT;
+  }
+}
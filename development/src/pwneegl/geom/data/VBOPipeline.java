@@ -1,445 +1,761 @@
 package pwneegl.geom.data;
 
-import java.nio.DoubleBuffer;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
+import javax.media.opengl.GL3ES3;
 
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
-import com.jogamp.common.nio.Buffers;
-
-import pwneegl.GLNames;
-import pwneegl.PwneeGLError;
-import pwneegl.geom.Face3f;
+import pwneegl.GLState;
 import pwneegl.geom.Poly3f;
-import pwneegl.geom.Vertex3f;
 import pwneegl.shader.Attribute;
 import pwneegl.shader.ShaderLibrary;
+import pwneegl.shader.ShaderProgram;
 
-/** 
- * An object responsible for managing the flow of vertex attributes through the 
- * graphics pipeline for a Poly3f via Vertex Buffer Objects (VBOs). 
+/**
+ * An object responsible for managing the flow of vertex attributes through the
+ * graphics pipeline for a Poly3f via Vertex Buffer Objects (VBOs).
+ *
+ * All of a polygon's vertex attributes are interleaved into a vertex buffer,
+ * laid out by a VertexLayout computed from the shader program in use and the
+ * polygon's VertexFormat. Shader programs whose layouts are equal share the 
+ * same vertex buffer. A polygon rendered with programs that need different 
+ * layouts keeps one vertex buffer for each of them, so switching between 
+ * those programs doesn't require repacking its vertices. A single buffer 
+ * holds the vertex indices for the faces.
+ *
+ * When Vertex Array Objects (VAOs) are available, the attribute pointers are 
+ * set up once for each shader program the polygon is rendered with. After 
+ * that, rendering only needs to bind the cached VAO. A cached VAO is rebuilt
+ * if its program's attribute layout changes.
+ *
+ * Vertices that change after the buffers are filled are re-uploaded the next 
+ * time the polygon is rendered. Only the dirty range of vertices is sent 
+ * with glBufferSubData. The buffer's usage hint starts as GL_STATIC_DRAW, 
+ * becomes GL_DYNAMIC_DRAW once the polygon is edited, and becomes 
+ * GL_STREAM_DRAW if it is edited on many consecutive frames. A streamed 
+ * polygon is re-specified in full each frame so that the driver can orphan 
+ * the old storage instead of waiting for the GPU to finish with it. Edits
+ * are counted once per frame (see GLState.getFrame), no matter how many 
+ * times the polygon is drawn in that frame.
+ *
+ * A polygon can also be drawn many times in one call with renderInstanced, 
+ * taking its per-instance attributes from an InstanceAttributes.
  */
 public class VBOPipeline {
-  
-  /** The number of built-in float vertex attributes. */
-  public static final int NUM_BUILTIN_ATTRIBSF = 13;
-  
-  
-  /** The pointers to the VBOs. */
-  private int[] buffers = null;
-  
-  /** The buffer containing the float attributes for all the vertices. */
-  private FloatBuffer attribfBuffer = null;
-  
-  /** The buffer containing the int attributes for all the vertices. */
-  private IntBuffer attribiBuffer = null;
-  
-  /** The buffer containing the double attributes for all the vertices. */
-  private DoubleBuffer attribdBuffer = null;
-  
-  /** The buffer of vertex indices defining the faces. */
-  private IntBuffer elementBuffer = null;
-  
-  
+
+  /** The number of consecutive frames with edits after which a polygon is streamed. */
+  public static final int STREAM_THRESHOLD = 4;
+
+  /** The number of consecutive frames without edits after which a streamed polygon is no longer streamed. */
+  public static final int IDLE_THRESHOLD = 60;
+
   /** 
-   * Clears the vertex buffer data from graphics memory so that vertex 
-   * attributes can be recomputed. 
+   * The fraction of a polygon's vertices that can be dirty before it is 
+   * cheaper to re-upload all of them.
+   */
+  public static final float PARTIAL_UPDATE_RATIO = 0.5f;
+
+
+  /** The VBOs containing the interleaved vertex attributes, keyed by the layout they were packed with. */
+  private Map<VertexLayout, VertexStore> vertexStores = new HashMap<>();
+
+  /** The vertex buffer used by the shader program the polygon was last bound or uploaded for. */
+  private VertexStore current = null;
+
+  /** The vertex format the vertex buffers were packed for. */
+  private VertexFormat storesFormat = null;
+
+  /** The pointer to the VBO containing the vertex indices. */
+  private int elementBuffer = 0;
+
+  /** The number of vertex indices in the element buffer. */
+  private int numIndices = 0;
+
+  /** The type of the vertex indices in the element buffer. */
+  private int indexType = GL_UNSIGNED_INT;
+
+  /** The vertex layouts computed for this polygon, keyed by shader program. */
+  private Map<ShaderProgram, ProgramLayout> layouts = new HashMap<>();
+
+  /** The vertex array objects built for this polygon, keyed by shader program. */
+  private Map<ShaderProgram, VertexArray> vertexArrays = new HashMap<>();
+
+  /** The usage hint the vertex buffers should be specified with. */
+  private int usage = GL_STATIC_DRAW;
+
+  /** The number of consecutive frames before the current one in which the polygon was edited. */
+  private int updateStreak = 0;
+
+  /** The number of consecutive frames before the current one in which the polygon was not edited. */
+  private int idleStreak = 0;
+
+  /** The frame the polygon was last uploaded in, or -1 if it hasn't been yet. */
+  private long frame = -1;
+
+  /** Whether the polygon has been edited in that frame. */
+  private boolean editedThisFrame = false;
+
+  /** Whether the OpenGL context supports vertex array objects. Checked on first use. */
+  private static Boolean vaoSupported = null;
+
+  /** Whether the OpenGL context supports instanced drawing. Checked on first use. */
+  private static Boolean instancingSupported = null;
+
+  /** Scratch space for narrowing vertex indices to shorts. Only used on the GL thread. */
+  private static short[] shortIndices = new short[0];
+
+
+  /**
+   * Clears the vertex buffer data from graphics memory so that vertex
+   * attributes can be recomputed.
    */
   public void clean(GL2 gl) {
-    if(buffers != null) {
-      gl.glDeleteBuffers(buffers.length, buffers, 0);
-      buffers = null;
+    cleanVertexArrays(gl);
+
+    int[] buffers = new int[vertexStores.size() + 1];
+    int i = 0;
+    for(VertexStore store : vertexStores.values()) {
+      buffers[i] = store.buffer;
+      i++;
     }
+    buffers[i] = elementBuffer;
+    if(elementBuffer != 0 || i > 0) {
+      GLState.deleteBuffers(gl, buffers);
+    }
+    vertexStores.clear();
+    current = null;
+    storesFormat = null;
+    elementBuffer = 0;
+    usage = GL_STATIC_DRAW;
+    updateStreak = 0;
+    idleStreak = 0;
+    frame = -1;
+    editedThisFrame = false;
   }
-  
-  
-  
-  
+
+
+
+
   /////// Pipeline metrics
-  
-  /** Returns the number of bytes built-in attributes contribute to the pipeline's stride. */
-  public static int strideBuiltInf() {
-    return NUM_BUILTIN_ATTRIBSF * GLNames.glSizeBytes(GL_FLOAT);
-  }
-  
-  
-  
-  /** Returns the total byte stride of the vertex float attribute pipeline. */
-  public static int stridef() {
-    return strideBuiltInf() + ShaderLibrary.get().getPipelineStridef();
-  }
-  
-  /** Returns the total byte stride of the vertex int attribute pipeline. */
-  public static int stridei() {
-    return ShaderLibrary.get().getPipelineStridei();
-  }
-  
-  /** Returns the total byte stride of the vertex double attribute pipeline. */
-  public static int strided() {
-    return ShaderLibrary.get().getPipelineStrided();
-  }
-  
-  
-  /** Returns the number of built-in float attributes contributing to the pipeline's stride. */
-  public static int numFloatsBuiltIn() {
-    return 13;
-  }
-  
-  /** Returns the number of user-defined float attributes contributing to the pipeline's stride. */
-  public static int numFloatsUserDefined() {
-    int result = 0;
-    for(Attribute att : ShaderLibrary.get().getUserAttribs()) {
-      if(att.getUnitType() == GL_FLOAT) {
-        result += att.getSizeUnits();
+
+  /**
+   * Returns the layout of the vertex attributes for the shader program
+   * currently in use and the given vertex format.
+   */
+  public VertexLayout getLayout(VertexFormat format) {
+    return getLayout(ShaderLibrary.get(), format);
+  }
+
+  /**
+   * Returns the layout of the vertex attributes for the given shader program
+   * and vertex format.
+   */
+  private VertexLayout getLayout(ShaderProgram program, VertexFormat format) {
+    int version = attribsVersion(program);
+    ProgramLayout entry = layouts.get(program);
+    if(entry == null) {
+      entry = new ProgramLayout();
+      layouts.put(program, entry);
+    }
+    if(entry.layout == null || version != entry.version || !format.equals(entry.format)) {
+      entry.format = format;
+      entry.version = version;
+      entry.layout = new VertexLayout(program, format);
+    }
+    return entry.layout;
+  }
+
+  /** Returns the attribute layout version of a program, or 0 if there is no program. */
+  private static int attribsVersion(ShaderProgram program) {
+    if(program == null) {
+      return 0;
+    }
+    return program.getAttribsVersion();
+  }
+
+  /** The vertex layout computed for some shader program. */
+  private static class ProgramLayout {
+
+    /** The layout of the vertex attributes. */
+    VertexLayout layout;
+
+    /** The vertex format the layout was computed for. */
+    VertexFormat format;
+
+    /** The attribute layout version of the program when the layout was computed. */
+    int version;
+  }
+
+  /** Returns the total byte stride of the vertex attribute pipeline for the given vertex format. */
+  public int stride(VertexFormat format) {
+    return getLayout(format).getStride();
+  }
+
+
+  // Buffer population
+
+  /** 
+   * Generates and fills the VBOs for the given shader program, or updates 
+   * them if the polygon has changed. 
+   */
+  private void genBuffers(GL2 gl, Poly3f poly, ShaderProgram program) {
+    VertexFormat format = poly.getVertexFormat();
+    VertexLayout layout = getLayout(program, format);
+
+    // A new vertex format means none of the existing vertex data is any use.
+    if(storesFormat != null && !format.equals(storesFormat)) {
+      clean(gl);
+    }
+    storesFormat = format;
+
+    current = vertexStores.get(layout);
+    if(current != null) {
+      updateBuffers(gl, poly, null);
+      return;
+    }
+
+    // This is the first time the polygon is used with this layout.
+    current = new VertexStore(layout);
+    int[] buffers = new int[1];
+    gl.glGenBuffers(1, buffers, 0);
+    current.buffer = buffers[0];
+    vertexStores.put(layout, current);
+
+    if(elementBuffer == 0) {
+      gl.glGenBuffers(1, buffers, 0);
+      elementBuffer = buffers[0];
+
+      // Fill the buffers, using pre-packed data if it is still valid.
+      PackedMesh packed = poly.getPackedMesh();
+      poly.setPackedMesh(null);
+      if(packed != null && !poly.isDirty() && !poly.isFacesDirty() && isUsable(packed, poly)) {
+        uploadPacked(gl, packed);
       }
+      else {
+        fillVertexBuffer(gl, poly, current);
+        fillElementBuffer(gl, poly);
+      }
+      poly.clearDirty();
+      return;
     }
-    return result;
+
+    // Fill the new vertex buffer, and bring the others up to date with it.
+    fillVertexBuffer(gl, poly, current);
+    updateBuffers(gl, poly, current);
   }
-  
-  /** Returns the number of float attributes contributing to the pipeline's stride. */
-  public static int numFloats() {
-    return numFloatsBuiltIn() + numFloatsUserDefined();
-  }
-  
-  /** Returns the number of user-defined int attributes contributing to the pipeline's stride. */
-  public static int numInts() {
-    int result = 0;
-    for(Attribute att : ShaderLibrary.get().getUserAttribs()) {
-      if(att.getUnitType() == GL_INT || att.getUnitType() == GL_UNSIGNED_INT) {
-        result += att.getSizeUnits();
+
+
+  /** 
+   * Uploads whatever has changed in the polygon since its last upload to all
+   * of its buffers, except for a vertex buffer that was just filled. 
+   * (skip may be null)
+   */
+  private void updateBuffers(GL2 gl, Poly3f poly, VertexStore skip) {
+    countFrames();
+
+    if(poly.isDirty()) {
+      editedThisFrame = true;
+      usage = chooseUsage();
+      int start = Math.max(poly.getDirtyStart(), 0);
+      int end = Math.min(poly.getDirtyEnd(), poly.getNumVertices());
+
+      for(VertexStore store : vertexStores.values()) {
+        if(store == skip) {
+          continue;
+        }
+        if(store.usage != usage || usage == GL_STREAM_DRAW 
+            || poly.getNumVertices() != store.numVertices
+            || end - start > store.numVertices*PARTIAL_UPDATE_RATIO) {
+          fillVertexBuffer(gl, poly, store);
+        }
+        else if(end > start) {
+          updateVertexBuffer(gl, poly, store, start, end);
+        }
       }
     }
-    return result;
+
+    // Adding vertices can also outgrow the current index type.
+    if(poly.isFacesDirty() || indexType(poly.getNumVertices()) != indexType) {
+      fillElementBuffer(gl, poly);
+    }
+    poly.clearDirty();
   }
-  
-  /** Returns the number of user-defined int attributes contributing to the pipeline's stride. */
-  public static int numDoubles() {
-    int result = 0;
-    for(Attribute att : ShaderLibrary.get().getUserAttribs()) {
-      if(att.getUnitType() == GL_DOUBLE) {
-        result += att.getSizeUnits();
+
+
+  /**
+   * Adds the last frame the polygon was uploaded in to the edit and idle 
+   * streaks once a new frame has started. A shared polygon drawn many times 
+   * in a frame is only counted once for that frame.
+   */
+  private void countFrames() {
+    long now = GLState.getFrame();
+    if(now == frame) {
+      return;
+    }
+
+    if(frame >= 0) {
+      if(editedThisFrame) {
+        updateStreak++;
+        idleStreak = 0;
+      }
+      else {
+        idleStreak++;
+        updateStreak = 0;
       }
     }
-    return result;
+    frame = now;
+    editedThisFrame = false;
   }
-  
-  
-  // Buffer population
-  
-  /** Generates and fills the VBOs. */
-  private void genBuffers(GL2 gl, List<Face3f> faces, List<Vertex3f> vertices) {
-    if(buffers == null) {
-      buffers = new int[4];
-      gl.glGenBuffers(buffers.length, buffers, 0);
-      
-      // Fill the buffers.
-      fillAttribfBuffer(gl, buffers[0], vertices);
-      fillAttribiBuffer(gl, buffers[1], vertices);
-      fillAttribdBuffer(gl, buffers[2], vertices);
-      fillElementBuffer(gl, buffers[3], faces);
-      
-    }
-  }
-  
-  //////// float attribute buffer
-  
-  /** Fills the buffer containing the float vertex attributes. */
-  private void fillAttribfBuffer(GL2 gl, int glLoc, List<Vertex3f> vertices) {
-    int numAttribfs = vertices.size() * numFloats();
-    
-    // Fill the buffer.
-    attribfBuffer = FloatBuffer.allocate(numAttribfs);
-    for(Vertex3f vertex : vertices) {
-      fillAttribfBufferBuiltIn(vertex);
-      fillAttribfBufferUserDefined(vertex);
+
+
+  /**
+   * Decides the usage hint for the vertex buffer when the polygon has been
+   * edited in the current frame, based on how often it was edited in 
+   * recent frames. The result is the same for every edit in a frame.
+   */
+  private int chooseUsage() {
+    int result = usage;
+    if(usage == GL_STATIC_DRAW) {
+      result = GL_DYNAMIC_DRAW;
     }
-    attribfBuffer.flip();
-    
-    // Load the buffer data into graphics memory.
-    gl.glBindBuffer(GL_ARRAY_BUFFER, glLoc);
-    gl.glBufferData(GL_ARRAY_BUFFER, 
-                    attribfBuffer.capacity()*Buffers.SIZEOF_FLOAT,
-                    attribfBuffer,
-                    GL_STATIC_DRAW);
+    else if(usage == GL_STREAM_DRAW && idleStreak >= IDLE_THRESHOLD) {
+      result = GL_DYNAMIC_DRAW;
+      updateStreak = 0;
+    }
+    else if(updateStreak + 1 >= STREAM_THRESHOLD) {
+      result = GL_STREAM_DRAW;
+    }
+    return result;
   }
-  
-  
-  /** Fills the buffer containing the float vertex attributes with the built-in attributes. */
-  private void fillAttribfBufferBuiltIn(Vertex3f vertex) {
-    attribfBuffer.put(vertex.getCoords());
-    attribfBuffer.put(vertex.getColor());
-    attribfBuffer.put(vertex.getNormal());
-    attribfBuffer.put(vertex.getTexCoords());
-  }
-  
-  
-  /** Fills the buffer containing the float vertex attributes with the user-defined attributes. */
-  private void fillAttribfBufferUserDefined(Vertex3f vertex) {
-    int num = 0;
-    for(float[] attrib : vertex.getAttribsf()) {
-      attribfBuffer.put(attrib);
-      num += attrib.length;
-    }
-    if(num != numFloatsUserDefined()) {
-      throw new PwneeGLError("Misaligned user-defined attributes. Number of expected bytes doesn't match!");
-    }
-  }
-  
-  
-  //////// int attribute buffer
-  
-  /** Fills the buffer containing the int vertex attributes. */
-  private void fillAttribiBuffer(GL2 gl, int glLoc, List<Vertex3f> vertices) {
-    int numAttribis = vertices.size() * numInts();
-    
-    // Fill the buffer.
-    attribiBuffer = IntBuffer.allocate(numAttribis);
-    for(Vertex3f vertex : vertices) {
-      fillAttribiBufferUserDefined(vertex);
+
+
+  /** Returns true iff pre-packed data matches the polygon and the layout the pipeline needs. */
+  private boolean isUsable(PackedMesh packed, Poly3f poly) {
+    return (packed.getLayout().equals(current.layout)
+            && packed.getNumVertices() == poly.getNumVertices()
+            && packed.getNumIndices() == poly.getNumIndices()
+            && packed.getIndexType() == indexType(poly.getNumVertices()));
+  }
+
+
+  /** Fills the buffers directly from pre-packed data. */
+  private void uploadPacked(GL2 gl, PackedMesh packed) {
+    ByteBuffer vertexData = packed.getVertexData();
+    current.numVertices = packed.getNumVertices();
+    current.usage = usage;
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, current.buffer);
+    gl.glBufferData(GL_ARRAY_BUFFER, vertexData.remaining(), vertexData, usage);
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, 0);
+
+    ByteBuffer indexData = packed.getIndexData();
+    numIndices = packed.getNumIndices();
+    indexType = packed.getIndexType();
+    GLState.bindBuffer(gl, GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
+    gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, indexData.remaining(), indexData, GL_STATIC_DRAW);
+    GLState.bindBuffer(gl, GL_ELEMENT_ARRAY_BUFFER, 0);
+  }
+
+
+  //////// vertex buffer
+
+  /** A vertex buffer packed with some layout. */
+  private static class VertexStore {
+
+    /** The layout the buffer was packed with. */
+    final VertexLayout layout;
+
+    /** The pointer to the VBO. */
+    int buffer;
+
+    /** The number of vertices in the buffer. */
+    int numVertices;
+
+    /** The usage hint the buffer was last specified with. */
+    int usage = GL_STATIC_DRAW;
+
+    VertexStore(VertexLayout layout) {
+      this.layout = layout;
     }
-    attribiBuffer.flip();
-    
-    // Load the buffer data into graphics memory.
-    gl.glBindBuffer(GL_ARRAY_BUFFER, glLoc);
-    gl.glBufferData(GL_ARRAY_BUFFER, 
-                    attribiBuffer.capacity()*GLNames.glSizeBytes(GL_INT),
-                    attribiBuffer,
-                    GL_STATIC_DRAW);
   }
-  
-  
-  /** Fills the buffer containing the int vertex attributes with the user-defined attributes. */
-  private void fillAttribiBufferUserDefined(Vertex3f vertex) {
-    int num = 0;
-    for(int[] attrib : vertex.getAttribsi()) {
-      attribiBuffer.put(attrib);
-      num += attrib.length;
-    }
-    if(num != numInts()) {
-      throw new PwneeGLError("Misaligned user-defined attributes. Number of expected bytes doesn't match!");
-    }
-  }
-  
-  
-  
-  
-  //////// double attribute buffer
-  
-  /** Fills the buffer containing the double vertex attributes. */
-  private void fillAttribdBuffer(GL2 gl, int glLoc, List<Vertex3f> vertices) {
-    int numAttribis = vertices.size() * numDoubles();
-    
+
+
+  /** Fills a buffer containing the interleaved vertex attributes. */
+  private void fillVertexBuffer(GL2 gl, Poly3f poly, VertexStore store) {
+    int numVertices = poly.getNumVertices();
+    store.numVertices = numVertices;
+    store.usage = usage;
+    ByteBuffer staging = StagingArena.acquire(numVertices * store.layout.getStride());
+
     // Fill the buffer.
-    attribdBuffer = DoubleBuffer.allocate(numAttribis);
-    for(Vertex3f vertex : vertices) {
-      fillAttribdBufferUserDefined(vertex);
-    }
-    attribdBuffer.flip();
-    
+    store.layout.writeVertices(staging, poly, 0, numVertices);
+
     // Load the buffer data into graphics memory.
-    gl.glBindBuffer(GL_ARRAY_BUFFER, glLoc);
-    gl.glBufferData(GL_ARRAY_BUFFER, 
-                    attribdBuffer.capacity()*GLNames.glSizeBytes(GL_DOUBLE),
-                    attribdBuffer,
-                    GL_STATIC_DRAW);
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, store.buffer);
+    gl.glBufferData(GL_ARRAY_BUFFER,
+                    staging.limit(),
+                    staging,
+                    usage);
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, 0);
+    StagingArena.release(staging);
   }
-  
-  
-  /** Fills the buffer containing the double vertex attributes with the user-defined attributes. */
-  private void fillAttribdBufferUserDefined(Vertex3f vertex) {
-    int num = 0;
-    for(double[] attrib : vertex.getAttribsd()) {
-      attribdBuffer.put(attrib);
-      num += attrib.length;
-    }
-    if(num != numDoubles()) {
-      throw new PwneeGLError("Misaligned user-defined attributes. Number of expected bytes doesn't match!");
-    }
+
+
+  /** Re-uploads the vertices in the range [start, end) of a vertex buffer. */
+  private void updateVertexBuffer(GL2 gl, Poly3f poly, VertexStore store, int start, int end) {
+    int stride = store.layout.getStride();
+    ByteBuffer staging = StagingArena.acquire((end - start) * stride);
+
+    store.layout.writeVertices(staging, poly, start, end);
+
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, store.buffer);
+    gl.glBufferSubData(GL_ARRAY_BUFFER,
+                       (long) start * stride,
+                       staging.limit(),
+                       staging);
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, 0);
+    StagingArena.release(staging);
   }
-  
-  
-  
-  
-  
+
+
   //////// element buffer
-  
-  /** Fills the element buffer with the vertex indices specified by the polygon's faces. */
-  private void fillElementBuffer(GL2 gl, int glLoc, List<Face3f> faces) {
-    int numIndices = faces.size()*3;
-    
+
+  /** 
+   * Returns the smallest index type that can address the given number of 
+   * vertices. (GL_UNSIGNED_SHORT or GL_UNSIGNED_INT) GL_UNSIGNED_BYTE isn't
+   * used, because many desktop drivers don't support it natively and 
+   * convert the indices on the CPU at draw time.
+   */
+  public static int indexType(int numVertices) {
+    if(numVertices <= 0x10000) {
+      return GL_UNSIGNED_SHORT;
+    }
+    return GL_UNSIGNED_INT;
+  }
+
+
+  /** 
+   * Fills the element buffer with the vertex indices specified by the 
+   * polygon's faces, using the smallest index type that can address all of
+   * its vertices.
+   */
+  private void fillElementBuffer(GL2 gl, Poly3f poly) {
+    int[] src = poly.getIndexArray();
+    numIndices = poly.getNumIndices();
+    indexType = indexType(poly.getNumVertices());
+
     // Fill the buffer
-    elementBuffer = IntBuffer.allocate(numIndices);
-    for(Face3f face : faces) {
-      elementBuffer.put(new int[] {face.getIndex1(), face.getIndex2(), face.getIndex3()});
+    ByteBuffer staging = StagingArena.acquire(numIndices*VertexElement.componentBytes(indexType));
+    if(indexType == GL_UNSIGNED_SHORT) {
+      if(shortIndices.length < numIndices) {
+        shortIndices = new short[numIndices];
+      }
+      for(int i = 0; i < numIndices; i++) {
+        shortIndices[i] = (short) src[i];
+      }
+      staging.asShortBuffer().put(shortIndices, 0, numIndices);
+    }
+    else {
+      staging.asIntBuffer().put(src, 0, numIndices);
     }
-    elementBuffer.flip();
-    
+
     // Load the buffer data into graphics memory.
-    gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, glLoc);
-    gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER, 
-                    elementBuffer.capacity()*Buffers.SIZEOF_INT,
-                    elementBuffer,
+    GLState.bindBuffer(gl, GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
+    gl.glBufferData(GL_ELEMENT_ARRAY_BUFFER,
+                    staging.limit(),
+                    staging,
                     GL_STATIC_DRAW);
+    GLState.bindBuffer(gl, GL_ELEMENT_ARRAY_BUFFER, 0);
+    StagingArena.release(staging);
   }
-  
-  
-  //////// Built-in pipeline
-  
-  /** Adds all built-in shader attributes to the pipeline. */
-  private void addGLPipeline(GL2 gl) {
-    gl.glBindBuffer(GL_ARRAY_BUFFER, buffers[0]);
-    
-    // Add built-in attributes to the pipeline.
-    gl.glEnableClientState(GL_VERTEX_ARRAY);
-    gl.glVertexPointer(4, GL_FLOAT, stridef(), 0);
-    
-    gl.glEnableClientState(GL_COLOR_ARRAY);
-    gl.glColorPointer(4, GL_FLOAT, stridef(), 4*Buffers.SIZEOF_FLOAT);
-    
-    gl.glEnableClientState(GL_NORMAL_ARRAY);
-    gl.glNormalPointer(GL_FLOAT, stridef(), 8*Buffers.SIZEOF_FLOAT);
-    
-    gl.glEnableClientState(GL_TEXTURE_COORD_ARRAY);
-    gl.glTexCoordPointer(2, GL_FLOAT, stridef(), 11*Buffers.SIZEOF_FLOAT);
-  }
-  
-  
-  //////// User-defined pipeline
-  
-  /** 
-   * Adds a user-defined float-based vertex attribute to the pipeline. 
-   * Returns the number of bytes added to the pipeline by the attribute. 
+
+
+  //////// Pipeline
+
+  /** Adds all the vertex attributes in the current layout to the pipeline. */
+  private void addPipeline(GL2 gl) {
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, current.buffer);
+
+    int stride = current.layout.getStride();
+    for(VertexElement e : current.layout.getElements()) {
+      if(e.isBuiltIn()) {
+        addBuiltInToPipeline(gl, e, stride);
+      }
+      else {
+        addUserToPipeline(gl, e, stride);
+      }
+    }
+  }
+
+
+  /** Adds a built-in vertex attribute to the pipeline. */
+  private void addBuiltInToPipeline(GL2 gl, VertexElement e, int stride) {
+    switch(e.getSource()) {
+      case VertexElement.POSITION :
+        gl.glEnableClientState(GL_VERTEX_ARRAY);
+        gl.glVertexPointer(e.getNumComponents(), e.getGLType(), stride, e.getOffset());
+        break;
+      case VertexElement.COLOR :
+        gl.glEnableClientState(GL_COLOR_ARRAY);
+        gl.glColorPointer(e.getNumComponents(), e.getGLType(), stride, e.getOffset());
+        break;
+      case VertexElement.NORMAL :
+        gl.glEnableClientState(GL_NORMAL_ARRAY);
+        gl.glNormalPointer(e.getGLType(), stride, e.getOffset());
+        break;
+      case VertexElement.TEXCOORDS :
+        gl.glEnableClientState(GL_TEXTURE_COORD_ARRAY);
+        gl.glTexCoordPointer(e.getNumComponents(), e.getGLType(), stride, e.getOffset());
+        break;
+    }
+  }
+
+
+  /**
+   * Adds a user-defined vertex attribute to the pipeline. Integer and double
+   * attributes are passed to the shader without conversion unless they are
+   * stored as normalized values.
    */
-  private int addToPipelinef(GL2 gl, Attribute att, int strideOffset) {
-    gl.glVertexAttribPointer( att.getLocation(), 
-                              att.getSizeUnits(), 
-                              att.getUnitType(), 
-                              false, // Vector attributes are expected to already be normalized if they need to be.
-                              stridef(), 
-                              strideOffset);
+  private void addUserToPipeline(GL2 gl, VertexElement e, int stride) {
+    Attribute att = e.getAttribute();
+    int type = e.getGLType();
+    int unitType = att.getUnitType();
+    boolean isIntAttrib = (unitType == GL_INT || unitType == GL_UNSIGNED_INT);
+
+    if(unitType == GL_DOUBLE && type == GL_DOUBLE) {
+      gl.getGL4().glVertexAttribLPointer( att.getLocation(),
+                                e.getNumComponents(),
+                                type,
+                                stride,
+                                e.getOffset());
+    }
+    else if(isIntAttrib && type != GL_FLOAT && !e.isNormalized()) {
+      gl.glVertexAttribIPointer( att.getLocation(),
+                                e.getNumComponents(),
+                                type,
+                                stride,
+                                e.getOffset());
+    }
+    else {
+      gl.glVertexAttribPointer( att.getLocation(),
+                                e.getNumComponents(),
+                                type,
+                                e.isNormalized(),
+                                stride,
+                                e.getOffset());
+    }
     gl.glEnableVertexAttribArray(att.getLocation());
-    
-  //  System.out.println(att.getLocation() + ", " + att.getSizeUnits() + ", " + GLNames.glName(att.getUnitType()) + ", " + strideOffset + "/" + stridef());
-    
-    return att.getSizeBytes();
   }
-  
-  
-  /** 
-   * Adds a user-defined int-based vertex attribute to the pipeline. 
-   * Returns the number of bytes added to the pipeline by the attribute. 
+
+
+  /** Disables all the vertex attribute arrays enabled by addPipeline. */
+  private void removePipeline(GL2 gl) {
+    for(VertexElement e : current.layout.getElements()) {
+      if(!e.isBuiltIn()) {
+        gl.glDisableVertexAttribArray(e.getAttribute().getLocation());
+      }
+    }
+    gl.glDisableClientState( GL_VERTEX_ARRAY );
+    gl.glDisableClientState( GL_COLOR_ARRAY );
+    gl.glDisableClientState( GL_NORMAL_ARRAY );
+    gl.glDisableClientState( GL_TEXTURE_COORD_ARRAY );
+  }
+
+
+  //////// Vertex array objects
+
+  /** A vertex array object built for some shader program. */
+  private static class VertexArray {
+
+    /** The name of the VAO in the OpenGL state. */
+    int name;
+
+    /** The attribute layout version of the program when the VAO was built. */
+    int version;
+
+    /** The vertex buffer the VAO's attribute pointers point into. */
+    VertexStore store;
+  }
+
+
+  /** Returns true iff the OpenGL context supports vertex array objects. */
+  private static boolean isVAOSupported(GL2 gl) {
+    if(vaoSupported == null) {
+      vaoSupported = gl.isFunctionAvailable("glGenVertexArrays") && gl.isFunctionAvailable("glBindVertexArray");
+    }
+    return vaoSupported;
+  }
+
+
+  /**
+   * Binds the VAO for the shader program currently in use, building it
+   * first if it doesn't exist yet or if it is out of date.
    */
-  private int addToPipelinei(GL2 gl, Attribute att, int strideOffset) {
-    gl.glVertexAttribIPointer( att.getLocation(), 
-                              att.getSizeUnits(), 
-                              att.getUnitType(), 
-                              stridei(), 
-                              strideOffset);
-    gl.glEnableVertexAttribArray(att.getLocation());
-    
-  //  System.out.println(att.getLocation() + ", " + att.getSizeUnits() + ", " + GLNames.glName(att.getUnitType()) + ", " + strideOffset + "/" + stridei());
-    
-    return att.getSizeBytes();
+  private void bindVertexArray(GL2 gl) {
+    ShaderProgram program = ShaderLibrary.get();
+    int version = attribsVersion(program);
+    VertexArray vao = vertexArrays.get(program);
+
+    if(vao != null && vao.version == version && vao.store == current) {
+      GLState.bindVertexArray(gl, vao.name);
+      return;
+    }
+
+    // Build a new VAO, replacing the out of date one if there is one.
+    if(vao == null) {
+      vao = new VertexArray();
+      int[] names = new int[1];
+      gl.glGenVertexArrays(1, names, 0);
+      vao.name = names[0];
+      vertexArrays.put(program, vao);
+    }
+    vao.version = version;
+    vao.store = current;
+
+    GLState.bindVertexArray(gl, vao.name);
+    addPipeline(gl);
+    GLState.bindBuffer(gl, GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, 0);
   }
-  
-  /** 
-   * Adds a user-defined double-based vertex attribute to the pipeline. 
-   * Returns the number of bytes added to the pipeline by the attribute. 
+
+
+  /** Deletes all the VAOs built for this polygon. */
+  private void cleanVertexArrays(GL2 gl) {
+    if(vertexArrays.isEmpty()) {
+      return;
+    }
+
+    int[] names = new int[vertexArrays.size()];
+    int i = 0;
+    for(VertexArray vao : vertexArrays.values()) {
+      names[i] = vao.name;
+      i++;
+    }
+    GLState.deleteVertexArrays(gl, names);
+    vertexArrays.clear();
+  }
+
+
+  //////// Render!
+
+  /**
+   * Uploads a polygon's vertex data to graphics memory ahead of rendering it,
+   * laid out for the given shader program. (null for the fixed-function
+   * pipeline) If the polygon is later rendered with a program that needs a
+   * different layout, it is uploaded again then.
    */
-  private int addToPipelined(GL2 gl, Attribute att, int strideOffset) {
-    gl.getGL4().glVertexAttribLPointer( att.getLocation(), 
-                              att.getSizeUnits(), 
-                              att.getUnitType(), 
-                              strided(), 
-                              strideOffset);
-    gl.glEnableVertexAttribArray(att.getLocation());
-    
-  //  System.out.println(att.getLocation() + ", " + att.getSizeUnits() + ", " + GLNames.glName(att.getUnitType()) + ", " + strideOffset + "/" + strided());
-    
-    return att.getSizeBytes();
+  public void upload(GL2 gl, Poly3f poly, ShaderProgram program) {
+    genBuffers(gl, poly, program);
   }
-  
-  
+
+
   /** 
-   * Adds all user-defined shader attributes to the pipeline. 
+   * Renders a polygon using VBO. Any changes made to the polygon's vertices 
+   * since it was last rendered are uploaded first.
    */
-  private void addUserPipeline(GL2 gl) {
-    gl.glBindBuffer(GL_ARRAY_BUFFER, buffers[0]);
-    addUserAttribsfToPipeline(gl);
-    
-    gl.glBindBuffer(GL_ARRAY_BUFFER, buffers[1]);
-    addUserAttribsiToPipeline(gl);
-    
-    gl.glBindBuffer(GL_ARRAY_BUFFER, buffers[2]);
-    addUserAttribsdToPipeline(gl);
-  }
-  
-  
-  /** 
-   * Adds the user-defined float shader attributes to the pipeline. 
+  public void render(GL2 gl, Poly3f poly) {
+    bind(gl, poly);
+    draw(gl);
+    unbind(gl);
+  }
+
+
+  /**
+   * Binds a polygon's vertex arrays for the shader program currently in use,
+   * uploading any changes to its vertices first. The polygon can then be 
+   * drawn any number of times with draw, as long as the program doesn't 
+   * change, followed by a call to unbind.
    */
-  private void addUserAttribsfToPipeline(GL2 gl) {
-    int strideOffset = strideBuiltInf(); 
-    
-    for(Attribute att : ShaderLibrary.get().getUserAttribsf()) {
-      strideOffset += addToPipelinef(gl, att, strideOffset);
+  public void bind(GL2 gl, Poly3f poly) {
+    // Generate and fill the buffers if needed.
+    genBuffers(gl, poly, ShaderLibrary.get());
+
+    if(isVAOSupported(gl)) {
+      // Everything the draw needs is captured by the VAO.
+      bindVertexArray(gl);
+    }
+    else {
+      // Add vertex attributes to the pipeline.
+      addPipeline(gl);
+      GLState.bindBuffer(gl, GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
     }
   }
-  
-  
-  /** 
-   * Adds the user-defined int shader attributes to the pipeline. 
-   */
-  private void addUserAttribsiToPipeline(GL2 gl) {
-    int strideOffset = 0;
-    
-    for(Attribute att : ShaderLibrary.get().getUserAttribsi()) {
-      strideOffset += addToPipelinei(gl, att, strideOffset);
+
+
+  /** Draws the polygon whose vertex arrays are currently bound by bind. */
+  public void draw(GL2 gl) {
+    gl.glDrawElements( GL_TRIANGLES, numIndices, indexType, 0);
+  }
+
+
+  /** Unbinds the polygon's vertex arrays after drawing it. */
+  public void unbind(GL2 gl) {
+    if(isVAOSupported(gl)) {
+      GLState.bindVertexArray(gl, 0);
+    }
+    else {
+      // disable arrays once we're done
+      GLState.bindBuffer(gl, GL.GL_ARRAY_BUFFER, 0 );
+      GLState.bindBuffer(gl, GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
+      removePipeline(gl);
     }
   }
-  
-  
+
+
+  /** Returns true iff the OpenGL context supports instanced drawing with attribute divisors. */
+  public static boolean isInstancingSupported(GL2 gl) {
+    if(instancingSupported == null) {
+      instancingSupported = (gl instanceof GL3ES3) 
+          && gl.isFunctionAvailable("glDrawElementsInstanced") && gl.isFunctionAvailable("glVertexAttribDivisor");
+    }
+    return instancingSupported;
+  }
+
+
   /** 
-   * Adds the user-defined double shader attributes to the pipeline. 
+   * Sets how many instances pass between updates of a vertex attribute array.
+   * A divisor of 0 makes it a regular per-vertex attribute again. This is only
+   * valid if isInstancingSupported is true.
    */
-  private void addUserAttribsdToPipeline(GL2 gl) {
-    int strideOffset = 0;
-    
-    for(Attribute att : ShaderLibrary.get().getUserAttribsd()) {
-      strideOffset += addToPipelined(gl, att, strideOffset);
+  public static void setAttribDivisor(GL2 gl, int location, int divisor) {
+    // JOGL only declares glVertexAttribDivisor for GL3ES3, but the desktop 
+    // GL2 implementation is also a GL3ES3.
+    ((GL3ES3) gl).glVertexAttribDivisor(location, divisor);
+  }
+
+
+  /**
+   * Renders many instances of a polygon, taking their per-instance attributes
+   * from instances. If instanced drawing is supported, this is a single 
+   * glDrawElementsInstanced call. Otherwise, the polygon's vertex arrays are
+   * bound once and each instance is drawn with its own glDrawElements call.
+   */
+  public void renderInstanced(GL2 gl, Poly3f poly, InstanceAttributes instances) {
+    int numInstances = instances.getNumInstances();
+    if(numInstances == 0) {
+      return;
+    }
+
+    ShaderProgram program = ShaderLibrary.get();
+    bind(gl, poly);
+
+    if(isInstancingSupported(gl)) {
+      instances.enable(gl, program);
+      gl.glDrawElementsInstanced(GL_TRIANGLES, numIndices, indexType, 0, numInstances);
+      instances.disable(gl, program);
+    }
+    else {
+      for(int i = 0; i < numInstances; i++) {
+        instances.applyInstance(gl, program, i);
+        draw(gl);
+      }
     }
+
+    unbind(gl);
   }
-  
-  
-  //////// Render!
-  
-  /** Renders a polygon using VBO, given its faces and its vertices. */
-  public void render(GL2 gl, List<Face3f> faces, List<Vertex3f> vertices) {
-    // Generate and fill the buffers if needed.
-    genBuffers(gl, faces, vertices);
-    
-    // Add vertex attributes to the pipeline.
-    addGLPipeline(gl);
-    addUserPipeline(gl);
-    
-    // draw!
-    gl.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, buffers[3]);
-    gl.glDrawElements( GL_TRIANGLES, elementBuffer.capacity(), GL_UNSIGNED_INT, 0);
-    
-    // disable arrays once we're done
-    gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
-    gl.glBindBuffer( GL.GL_ELEMENT_ARRAY_BUFFER, 0 );
-    gl.glDisableClientState( GL_VERTEX_ARRAY );
-    gl.glDisableClientState( GL_COLOR_ARRAY );
-    gl.glDisableClientState( GL_NORMAL_ARRAY );
-    gl.glDisableClientState( GL_TEXTURE_COORD_ARRAY );
-  } 
-}
\ No newline at end of file
+}
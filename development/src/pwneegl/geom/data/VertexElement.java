@@ -0,0 +1,188 @@
+package pwneegl.geom.data;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+import static javax.media.opengl.GL3.*; // GL3 constants
+
+import pwneegl.shader.Attribute;
+
+/**
+ * Describes one vertex attribute within an interleaved vertex buffer: where
+ * its data comes from, how it is stored, and its byte offset within a vertex.
+ */
+public class VertexElement {
+
+  /** Source for the built-in vertex coordinates. (gl_Vertex) */
+  public static final int POSITION = 0;
+
+  /** Source for the built-in vertex color. (gl_Color) */
+  public static final int COLOR = 1;
+
+  /** Source for the built-in vertex normal. (gl_Normal) */
+  public static final int NORMAL = 2;
+
+  /** Source for the built-in texture coordinates. (gl_MultiTexCoord0) */
+  public static final int TEXCOORDS = 3;
+
+  /** Source for a user-defined vertex attribute. */
+  public static final int USER = 4;
+
+
+  /** Where the element's data comes from. */
+  private int source;
+
+  /** The user-defined attribute this element feeds, or null for built-ins. */
+  private Attribute attribute;
+
+  /** The number of components stored for the element. */
+  private int numComponents;
+
+  /** The OpenGL type each component is stored as. */
+  private int glType;
+
+  /** Whether integer components are normalized to [0,1] or [-1,1] when read. */
+  private boolean normalized;
+
+  /** The byte offset of the element within a vertex. */
+  private int offset;
+
+
+  /** Creates an element for a built-in attribute. */
+  public VertexElement(int source, int numComponents, int glType, boolean normalized) {
+    this(source, null, numComponents, glType, normalized);
+  }
+
+  /** Creates an element for a user-defined attribute. */
+  public VertexElement(Attribute attribute, int numComponents, int glType, boolean normalized) {
+    this(USER, attribute, numComponents, glType, normalized);
+  }
+
+  private VertexElement(int source, Attribute attribute, int numComponents, int glType, boolean normalized) {
+    this.source = source;
+    this.attribute = attribute;
+    this.numComponents = numComponents;
+    this.glType = glType;
+    this.normalized = normalized;
+    this.offset = 0;
+  }
+
+
+  //////// Properties
+
+  /** Returns where the element's data comes from. (POSITION, COLOR, NORMAL, TEXCOORDS, or USER) */
+  public int getSource() {
+    return source;
+  }
+
+  /** Returns true iff this element feeds a built-in attribute. */
+  public boolean isBuiltIn() {
+    return (source != USER);
+  }
+
+  /** Returns the user-defined attribute this element feeds, or null for built-in elements. */
+  public Attribute getAttribute() {
+    return attribute;
+  }
+
+  /** Returns the number of components stored for the element. */
+  public int getNumComponents() {
+    return numComponents;
+  }
+
+  /** Returns the OpenGL type each component is stored as. */
+  public int getGLType() {
+    return glType;
+  }
+
+  /** Returns true iff integer components are normalized when they are read by the shader. */
+  public boolean isNormalized() {
+    return normalized;
+  }
+
+  /** Returns the byte offset of the element within a vertex. */
+  public int getOffset() {
+    return offset;
+  }
+
+  /** Sets the byte offset of the element within a vertex. This is done by VertexLayout. */
+  void setOffset(int offset) {
+    this.offset = offset;
+  }
+
+
+  //////// Metrics
+
+  /** Returns the size in bytes of a single component of the given OpenGL type. */
+  public static int componentBytes(int glType) {
+    switch(glType) {
+      case GL_BYTE :
+      case GL_UNSIGNED_BYTE :
+        return 1;
+      case GL_SHORT :
+      case GL_UNSIGNED_SHORT :
+      case GL_HALF_FLOAT :
+        return 2;
+      case GL_DOUBLE :
+        return 8;
+      default :
+        return 4;
+    }
+  }
+
+  /** Returns true iff all of the element's components are packed into a single int. */
+  public boolean isPacked() {
+    return (glType == GL_INT_2_10_10_10_REV || glType == GL_UNSIGNED_INT_2_10_10_10_REV);
+  }
+
+  /** Returns the number of bytes the element contributes to a vertex. */
+  public int getSizeBytes() {
+    if(isPacked()) {
+      return 4;
+    }
+    return numComponents*componentBytes(glType);
+  }
+
+  /** Returns the byte alignment the element needs within a vertex. */
+  public int getAlignment() {
+    return Math.max(4, componentBytes(glType));
+  }
+
+
+  //////// Misc
+
+  @Override
+  public boolean equals(Object o) {
+    if(!(o instanceof VertexElement)) {
+      return false;
+    }
+    VertexElement other = (VertexElement) o;
+    return (source == other.source && sameAttribute(other)
+            && numComponents == other.numComponents && glType == other.glType
+            && normalized == other.normalized && offset == other.offset);
+  }
+
+  /** Returns true iff both elements feed the same user-defined attribute, or both feed none. */
+  private boolean sameAttribute(VertexElement other) {
+    if(attribute == null || other.attribute == null) {
+      return (attribute == other.attribute);
+    }
+    return (attribute.getLocation() == other.attribute.getLocation() 
+            && attribute.getName().equals(other.attribute.getName()));
+  }
+
+  @Override
+  public int hashCode() {
+    int loc = (attribute == null) ? -1 : attribute.getLocation();
+    int result = source;
+    result = 31*result + loc;
+    result = 31*result + numComponents;
+    result = 31*result + glType;
+    result = 31*result + offset;
+    return result;
+  }
+
+  public String toString() {
+    String name = (attribute == null) ? "builtin " + source : attribute.getName();
+    return "VertexElement:(" + name + ", " + numComponents + "x" + glType + ", offset " + offset + ")";
+  }
+}
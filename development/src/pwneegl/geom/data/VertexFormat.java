@@ -0,0 +1,170 @@
+package pwneegl.geom.data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+import static javax.media.opengl.GL3.*; // GL3 constants
+
+import pwneegl.PwneeGLError;
+
+/**
+ * Declares how a Poly3f's vertex attributes are stored in graphics memory.
+ * Compact formats trade a little precision for much smaller vertices:
+ * <ul>
+ * <li>Positions can be stored as 3 floats instead of 4, since w is always 1.</li>
+ * <li>Colors can be stored as 4 normalized unsigned bytes (RGBA8).</li>
+ * <li>Normals can be stored as a single GL_INT_2_10_10_10_REV int.</li>
+ * <li>Texture coordinates can be stored as half-floats.</li>
+ * <li>User-defined vector attributes, such as tangents, can also be stored
+ *     as GL_INT_2_10_10_10_REV ints.</li>
+ * </ul>
+ * VertexFormats are immutable, so the same format can be shared by any number
+ * of polygons.
+ */
+public class VertexFormat {
+
+  /** The format used by default: 52 bytes of built-in attributes per vertex. */
+  public static final VertexFormat STANDARD = new VertexFormat(4, GL_FLOAT, GL_FLOAT, GL_FLOAT);
+
+  /**
+   * A compact format using 24 bytes of built-in attributes per vertex. The
+   * "tangental" attribute, if the shader uses it, is packed like the normals.
+   */
+  public static final VertexFormat COMPACT = new VertexFormat(3, GL_UNSIGNED_BYTE, GL_INT_2_10_10_10_REV, GL_HALF_FLOAT, "tangental");
+
+
+  /** The number of components stored for vertex positions. (3 or 4) */
+  private int positionSize;
+
+  /** The type colors are stored as. (GL_FLOAT or GL_UNSIGNED_BYTE) */
+  private int colorType;
+
+  /** The type normals are stored as. (GL_FLOAT or GL_INT_2_10_10_10_REV) */
+  private int normalType;
+
+  /** The type texture coordinates are stored as. (GL_FLOAT or GL_HALF_FLOAT) */
+  private int texCoordType;
+
+  /** The names of user-defined vector attributes stored as GL_INT_2_10_10_10_REV. */
+  private Set<String> packedAttribs;
+
+
+  /**
+   * Creates a vertex format.
+   * @param positionSize  The number of components stored for positions. (3 or 4)
+   * @param colorType     GL_FLOAT or GL_UNSIGNED_BYTE.
+   * @param normalType    GL_FLOAT or GL_INT_2_10_10_10_REV.
+   * @param texCoordType  GL_FLOAT or GL_HALF_FLOAT.
+   * @param packedAttribs Names of user-defined vec3/vec4 attributes whose
+   *                      components are in [-1, 1] and which should be stored
+   *                      as GL_INT_2_10_10_10_REV.
+   * A PwneeGLError is thrown if any of the types aren't supported.
+   */
+  public VertexFormat(int positionSize, int colorType, int normalType, int texCoordType, String... packedAttribs) {
+    if(positionSize != 3 && positionSize != 4) {
+      throw new PwneeGLError("Vertex positions must have 3 or 4 components.");
+    }
+    if(colorType != GL_FLOAT && colorType != GL_UNSIGNED_BYTE) {
+      throw new PwneeGLError("Vertex colors must be GL_FLOAT or GL_UNSIGNED_BYTE.");
+    }
+    if(normalType != GL_FLOAT && normalType != GL_INT_2_10_10_10_REV) {
+      throw new PwneeGLError("Vertex normals must be GL_FLOAT or GL_INT_2_10_10_10_REV.");
+    }
+    if(texCoordType != GL_FLOAT && texCoordType != GL_HALF_FLOAT) {
+      throw new PwneeGLError("Texture coordinates must be GL_FLOAT or GL_HALF_FLOAT.");
+    }
+
+    this.positionSize = positionSize;
+    this.colorType = colorType;
+    this.normalType = normalType;
+    this.texCoordType = texCoordType;
+    this.packedAttribs = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(packedAttribs)));
+  }
+
+
+  //////// Properties
+
+  /** Returns the number of components stored for vertex positions. */
+  public int getPositionSize() {
+    return positionSize;
+  }
+
+  /** Returns the type vertex colors are stored as. */
+  public int getColorType() {
+    return colorType;
+  }
+
+  /** Returns the type vertex normals are stored as. */
+  public int getNormalType() {
+    return normalType;
+  }
+
+  /** Returns the type texture coordinates are stored as. */
+  public int getTexCoordType() {
+    return texCoordType;
+  }
+
+  /** Returns true iff the user-defined attribute with the given name is stored as GL_INT_2_10_10_10_REV. */
+  public boolean isPacked(String attribName) {
+    return packedAttribs.contains(attribName);
+  }
+
+  /** Returns the names of the user-defined attributes stored as GL_INT_2_10_10_10_REV. */
+  public Set<String> getPackedAttribs() {
+    return packedAttribs;
+  }
+
+
+  //////// Elements
+
+  /** Creates the layout element for the built-in vertex positions. */
+  public VertexElement positionElement() {
+    return new VertexElement(VertexElement.POSITION, positionSize, GL_FLOAT, false);
+  }
+
+  /** Creates the layout element for the built-in vertex colors. */
+  public VertexElement colorElement() {
+    return new VertexElement(VertexElement.COLOR, 4, colorType, colorType != GL_FLOAT);
+  }
+
+  /** Creates the layout element for the built-in vertex normals. */
+  public VertexElement normalElement() {
+    if(normalType == GL_INT_2_10_10_10_REV) {
+      return new VertexElement(VertexElement.NORMAL, 4, normalType, true);
+    }
+    return new VertexElement(VertexElement.NORMAL, 3, normalType, false);
+  }
+
+  /** Creates the layout element for the built-in texture coordinates. */
+  public VertexElement texCoordElement() {
+    return new VertexElement(VertexElement.TEXCOORDS, 2, texCoordType, false);
+  }
+
+
+  //////// Misc
+
+  @Override
+  public boolean equals(Object o) {
+    if(!(o instanceof VertexFormat)) {
+      return false;
+    }
+    VertexFormat other = (VertexFormat) o;
+    return (positionSize == other.positionSize && colorType == other.colorType
+            && normalType == other.normalType && texCoordType == other.texCoordType
+            && packedAttribs.equals(other.packedAttribs));
+  }
+
+  @Override
+  public int hashCode() {
+    int result = positionSize;
+    result = 31*result + colorType;
+    result = 31*result + normalType;
+    result = 31*result + texCoordType;
+    result = 31*result + packedAttribs.hashCode();
+    return result;
+  }
+}
@@ -0,0 +1,361 @@
+package pwneegl.geom.data;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+import static javax.media.opengl.GL3.*; // GL3 constants
+
+import pwneegl.PwneeGLError;
+import pwneegl.geom.Poly3f;
+import pwneegl.geom.Vertex3f;
+import pwneegl.math.PwneeMath;
+import pwneegl.shader.Attribute;
+import pwneegl.shader.ShaderProgram;
+
+/**
+ * Computes how the attributes of a vertex are interleaved into a single
+ * vertex buffer for some shader program, and packs vertices into that layout.
+ *
+ * The built-in attributes always come first, stored as declared by the 
+ * polygon's VertexFormat, followed by the shader's user-defined attributes in 
+ * order of their locations. Per-instance attributes aren't part of the 
+ * vertex layout. Each element is aligned to its component size 
+ * (at least 4 bytes), so float, half-float, int, double, packed, and 
+ * normalized byte attributes can all share the same buffer.
+ */
+public class VertexLayout {
+
+  /** The elements making up a vertex, in order of their offsets. */
+  private List<VertexElement> elements;
+
+  /** The number of bytes between consecutive vertices. */
+  private int stride;
+
+
+  /**
+   * Computes the layout for the given shader program using the standard 
+   * vertex format. If program is null, the layout only contains the built-in 
+   * attributes.
+   */
+  public VertexLayout(ShaderProgram program) {
+    this(program, VertexFormat.STANDARD);
+  }
+
+  /**
+   * Computes the layout for the given shader program and vertex format. If 
+   * program is null, the layout only contains the built-in attributes.
+   */
+  public VertexLayout(ShaderProgram program, VertexFormat format) {
+    elements = new ArrayList<>();
+
+    // Built-in attributes.
+    elements.add(format.positionElement());
+    elements.add(format.colorElement());
+    elements.add(format.normalElement());
+    elements.add(format.texCoordElement());
+
+    // User-defined attributes, ordered by location so that the layout doesn't
+    // depend on the order of the shader's attribute map.
+    if(program != null) {
+      List<Attribute> userAttribs = program.getUserAttribs();
+      Collections.sort(userAttribs, new Comparator<Attribute>() {
+        public int compare(Attribute a, Attribute b) {
+          return Integer.compare(a.getLocation(), b.getLocation());
+        }
+      });
+
+      for(Attribute att : userAttribs) {
+        if(att.isPerInstance()) {
+          continue;
+        }
+        else if(format.isPacked(att.getName()) && att.getUnitType() == GL_FLOAT && att.getSizeUnits() <= 4) {
+          elements.add(new VertexElement(att, 4, GL_INT_2_10_10_10_REV, true));
+        }
+        else {
+          elements.add(new VertexElement(att, att.getSizeUnits(), att.getUnitType(), false));
+        }
+      }
+    }
+
+    computeOffsets();
+  }
+
+
+  /** Assigns the byte offset of each element and computes the stride. */
+  private void computeOffsets() {
+    int offset = 0;
+    int maxAlignment = 4;
+    for(VertexElement e : elements) {
+      int alignment = e.getAlignment();
+      offset = align(offset, alignment);
+      e.setOffset(offset);
+      offset += e.getSizeBytes();
+      maxAlignment = Math.max(maxAlignment, alignment);
+    }
+    stride = align(offset, maxAlignment);
+  }
+
+
+  /** Rounds value up to the nearest multiple of alignment. */
+  private static int align(int value, int alignment) {
+    return (value + alignment - 1)/alignment*alignment;
+  }
+
+
+  //////// Metrics
+
+  /** Returns the number of bytes between consecutive vertices. */
+  public int getStride() {
+    return stride;
+  }
+
+  /** Returns the elements making up a vertex, in order of their offsets. */
+  public List<VertexElement> getElements() {
+    return Collections.unmodifiableList(elements);
+  }
+
+  /** Returns the element for a built-in attribute source, or null if the layout doesn't have one. */
+  public VertexElement getBuiltIn(int source) {
+    for(VertexElement e : elements) {
+      if(e.getSource() == source) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+
+  //////// Packing
+
+  /**
+   * Writes the vertices in the range [start, end) of a polygon into a buffer,
+   * with vertex start at the beginning of the buffer. The buffer's position
+   * is not changed. The attributes are read straight from the polygon's
+   * VertexStore, one element at a time for the whole range, without creating
+   * any Vertex3f views or other garbage.
+   */
+  public void writeVertices(ByteBuffer dst, Poly3f poly, int start, int end) {
+    writeRange(dst, 0, poly.getVertexStore(), start, end);
+  }
+
+
+  /**
+   * Writes a vertex into a buffer at the position of the vertex with the
+   * given index. The buffer's position is not changed.
+   */
+  public void writeVertex(ByteBuffer dst, int index, Vertex3f vertex) {
+    int i = vertex.getStoreIndex();
+    writeRange(dst, index*stride, vertex.getStore(), i, i + 1);
+  }
+
+
+  /** 
+   * Writes the vertices in the range [start, end) of a store into a buffer,
+   * with vertex start at byte position base. 
+   */
+  private void writeRange(ByteBuffer dst, int base, VertexStore store, int start, int end) {
+    for(VertexElement e : elements) {
+      if(e.isBuiltIn()) {
+        writeChannel(dst, base + e.getOffset(), e, store, start, end);
+      }
+      else {
+        writeUserChannel(dst, base + e.getOffset(), e, store, start, end);
+      }
+    }
+  }
+
+
+  /** 
+   * Writes a built-in element for the vertices in the range [start, end) from
+   * its channel in a store, with vertex start at the given position.
+   */
+  private void writeChannel(ByteBuffer dst, int pos, VertexElement e, VertexStore store, int start, int end) {
+    float[] channel = store.getChannel(e.getSource());
+    int n = VertexStore.channelSize(e.getSource());
+
+    if(e.getGLType() == GL_FLOAT && !e.isPacked()) {
+      // Positions are read as homogeneous coordinates, with w = 1.
+      boolean hasW = (e.getSource() == VertexElement.POSITION);
+      int numComponents = e.getNumComponents();
+
+      for(int i = start; i < end; i++) {
+        int src = i*n;
+        for(int c = 0; c < numComponents; c++) {
+          float value;
+          if(c < n) {
+            value = channel[src + c];
+          }
+          else {
+            value = (hasW && c == n) ? 1f : 0f;
+          }
+          dst.putFloat(pos + c*4, value);
+        }
+        pos += stride;
+      }
+    }
+    else {
+      for(int i = start; i < end; i++) {
+        writeFloats(dst, pos, e, channel, i*n, n);
+        pos += stride;
+      }
+    }
+  }
+
+
+  /**
+   * Writes a user-defined element for the vertices in the range [start, end)
+   * from its channel in a store, with vertex start at the given position.
+   * The attribute's slot is looked up once for the whole range.
+   */
+  private void writeUserChannel(ByteBuffer dst, int pos, VertexElement e, VertexStore store, int start, int end) {
+    Attribute att = e.getAttribute();
+    AttributeSchema schema = store.getSchema();
+    int slot = schema.getSlot(att.getName());
+    if(slot < 0) {
+      throw new PwneeGLError("Vertex does not have user-defined attribute: " + att.getName());
+    }
+
+    int n = schema.getSize(slot);
+    if(n != att.getSizeUnits()) {
+      throw new PwneeGLError("Misaligned user-defined attribute " + att.getName() + ". Number of expected values doesn't match!");
+    }
+
+    int type = schema.getType(slot);
+    for(int i = start; i < end; i++) {
+      if(type == GL_INT) {
+        writeInts(dst, pos, e, store.getAttribChanneli(slot), i*n, n);
+      }
+      else if(type == GL_DOUBLE) {
+        writeDoubles(dst, pos, e, store.getAttribChanneld(slot), i*n, n);
+      }
+      else {
+        writeFloats(dst, pos, e, store.getAttribChannelf(slot), i*n, n);
+      }
+      pos += stride;
+    }
+  }
+
+
+  /**
+   * Writes count float values starting at values[off] for an element, 
+   * converting them to the element's type. Missing components are written 
+   * as 0.
+   */
+  static void writeFloats(ByteBuffer dst, int pos, VertexElement e, float[] values, int off, int count) {
+    int type = e.getGLType();
+    int size = VertexElement.componentBytes(type);
+
+    if(e.isPacked()) {
+      float x = (count > 0) ? values[off] : 0f;
+      float y = (count > 1) ? values[off + 1] : 0f;
+      float z = (count > 2) ? values[off + 2] : 0f;
+      float w = (count > 3) ? values[off + 3] : 0f;
+      dst.putInt(pos, PwneeMath.packSnorm1010102(x, y, z, w));
+      return;
+    }
+
+    for(int i = 0; i < e.getNumComponents(); i++) {
+      float value = (i < count) ? values[off + i] : 0f;
+      int p = pos + i*size;
+
+      switch(type) {
+        case GL_UNSIGNED_BYTE :
+          dst.put(p, (byte) (e.isNormalized() ? Math.round(PwneeMath.clamp(value, 0f, 1f)*255) : (int) value));
+          break;
+        case GL_BYTE :
+          dst.put(p, (byte) (e.isNormalized() ? Math.round(PwneeMath.clamp(value, -1f, 1f)*127) : (int) value));
+          break;
+        case GL_INT :
+        case GL_UNSIGNED_INT :
+          dst.putInt(p, (int) value);
+          break;
+        case GL_DOUBLE :
+          dst.putDouble(p, value);
+          break;
+        case GL_HALF_FLOAT :
+          dst.putShort(p, PwneeMath.toHalfFloat(value));
+          break;
+        default :
+          dst.putFloat(p, value);
+      }
+    }
+  }
+
+
+  /** 
+   * Writes count int values starting at values[off] for an element, 
+   * converting them to the element's type. 
+   */
+  static void writeInts(ByteBuffer dst, int pos, VertexElement e, int[] values, int off, int count) {
+    int type = e.getGLType();
+    int size = VertexElement.componentBytes(type);
+
+    for(int i = 0; i < e.getNumComponents(); i++) {
+      int value = (i < count) ? values[off + i] : 0;
+      int p = pos + i*size;
+
+      switch(type) {
+        case GL_UNSIGNED_BYTE :
+        case GL_BYTE :
+          dst.put(p, (byte) value);
+          break;
+        case GL_FLOAT :
+          dst.putFloat(p, value);
+          break;
+        case GL_DOUBLE :
+          dst.putDouble(p, value);
+          break;
+        default :
+          dst.putInt(p, value);
+      }
+    }
+  }
+
+
+  /** 
+   * Writes count double values starting at values[off] for an element, 
+   * converting them to the element's type. 
+   */
+  static void writeDoubles(ByteBuffer dst, int pos, VertexElement e, double[] values, int off, int count) {
+    int type = e.getGLType();
+    int size = VertexElement.componentBytes(type);
+
+    for(int i = 0; i < e.getNumComponents(); i++) {
+      double value = (i < count) ? values[off + i] : 0.0;
+      int p = pos + i*size;
+
+      if(type == GL_FLOAT) {
+        dst.putFloat(p, (float) value);
+      }
+      else {
+        dst.putDouble(p, value);
+      }
+    }
+  }
+
+
+  //////// Misc
+
+  @Override
+  public boolean equals(Object o) {
+    if(!(o instanceof VertexLayout)) {
+      return false;
+    }
+    VertexLayout other = (VertexLayout) o;
+    return (stride == other.stride && elements.equals(other.elements));
+  }
+
+  @Override
+  public int hashCode() {
+    return 31*stride + elements.hashCode();
+  }
+
+  public String toString() {
+    return "VertexLayout:(stride " + stride + ", " + elements + ")";
+  }
+}
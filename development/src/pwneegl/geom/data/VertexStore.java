@@ -0,0 +1,562 @@
+package pwneegl.geom.data;
+
+import java.util.Arrays;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+
+import pwneegl.PwneeGLError;
+import pwneegl.math.BatchMath;
+
+/**
+ * The vertex data of a polygon stored as structure-of-arrays: one primitive
+ * float array per built-in attribute, with each vertex's components stored
+ * consecutively. Compared to a list of Vertex3f objects, this takes a
+ * fraction of the heap and no per-vertex objects. It also lets VertexLayout
+ * pack each attribute for a whole range of vertices in one pass.
+ *
+ * Vertex3f objects belonging to a polygon are views onto the polygon's store.
+ * Bulk code such as loaders and normal generators can work on the arrays
+ * directly instead.
+ *
+ * User-defined attributes are kept the same way. The store's AttributeSchema
+ * gives each one a dense slot, and each slot has one primitive channel of
+ * the attribute's type.
+ */
+public class VertexStore {
+
+  /** The number of components stored per vertex for positions. (xyz) */
+  public static final int POSITION_SIZE = 3;
+
+  /** The number of components stored per vertex for colors. (rgba) */
+  public static final int COLOR_SIZE = 4;
+
+  /** The number of components stored per vertex for texture coordinates. (st) */
+  public static final int TEXCOORD_SIZE = 2;
+
+  /** The number of components stored per vertex for normals. (xyz) */
+  public static final int NORMAL_SIZE = 3;
+
+  /** The number of components stored per vertex for tangental vectors. (xyz) */
+  public static final int TANGENT_SIZE = 3;
+
+
+  /** The number of vertices in the store. */
+  private int size = 0;
+
+  /** The vertex positions. */
+  private float[] positions;
+
+  /** The vertex colors. */
+  private float[] colors;
+
+  /** The vertex texture coordinates. */
+  private float[] texCoords;
+
+  /** The unit vertex normals. */
+  private float[] normals;
+
+  /** The tangental vectors of the vertices. */
+  private float[] tangents;
+
+  /** The schema of stores without user-defined attributes, shared to keep small stores small. */
+  private static final AttributeSchema NO_ATTRIBUTES = new AttributeSchema();
+  private static final float[][] NO_FLOAT_CHANNELS = new float[0][];
+  private static final int[][] NO_INT_CHANNELS = new int[0][];
+  private static final double[][] NO_DOUBLE_CHANNELS = new double[0][];
+
+  /** The user-defined attributes of the vertices. */
+  private AttributeSchema schema = NO_ATTRIBUTES;
+
+  /** The channels of the float-based user-defined attributes, by slot. */
+  private float[][] floatChannels = NO_FLOAT_CHANNELS;
+
+  /** The channels of the int-based user-defined attributes, by slot. */
+  private int[][] intChannels = NO_INT_CHANNELS;
+
+  /** The channels of the double-based user-defined attributes, by slot. */
+  private double[][] doubleChannels = NO_DOUBLE_CHANNELS;
+
+
+  /** Creates an empty store with room for some number of vertices. */
+  public VertexStore(int capacity) {
+    capacity = Math.max(capacity, 1);
+    positions = new float[capacity*POSITION_SIZE];
+    colors = new float[capacity*COLOR_SIZE];
+    texCoords = new float[capacity*TEXCOORD_SIZE];
+    normals = new float[capacity*NORMAL_SIZE];
+    tangents = new float[capacity*TANGENT_SIZE];
+  }
+
+  /** Creates an empty store. */
+  public VertexStore() {
+    this(16);
+  }
+
+
+  //////// Size
+
+  /** Returns the number of vertices in the store. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of vertices the store can hold before it needs to grow. */
+  public int capacity() {
+    return positions.length/POSITION_SIZE;
+  }
+
+  /** Grows the store, if needed, so that it can hold at least some number of vertices. */
+  public void ensureCapacity(int capacity) {
+    if(capacity <= capacity()) {
+      return;
+    }
+    capacity = Math.max(capacity, capacity()*2);
+    positions = Arrays.copyOf(positions, capacity*POSITION_SIZE);
+    colors = Arrays.copyOf(colors, capacity*COLOR_SIZE);
+    texCoords = Arrays.copyOf(texCoords, capacity*TEXCOORD_SIZE);
+    normals = Arrays.copyOf(normals, capacity*NORMAL_SIZE);
+    tangents = Arrays.copyOf(tangents, capacity*TANGENT_SIZE);
+
+    for(int slot = 0; slot < schema.getNumSlots(); slot++) {
+      int n = schema.getSize(slot);
+      if(floatChannels[slot] != null) {
+        floatChannels[slot] = Arrays.copyOf(floatChannels[slot], capacity*n);
+      }
+      else if(intChannels[slot] != null) {
+        intChannels[slot] = Arrays.copyOf(intChannels[slot], capacity*n);
+      }
+      else {
+        doubleChannels[slot] = Arrays.copyOf(doubleChannels[slot], capacity*n);
+      }
+    }
+  }
+
+
+  /**
+   * Adds a vertex at the given position and returns its index. Like a new
+   * Vertex3f, its color is transparent black, its texture coordinates are
+   * (0,0), and its normal and tangental vector are [1,0,0].
+   */
+  public int add(float x, float y, float z) {
+    ensureCapacity(size + 1);
+    int i = size;
+    size++;
+
+    setPosition(i, x, y, z);
+    setColor(i, 0f, 0f, 0f, 0f);
+    setTexCoords(i, 0f, 0f);
+    normals[i*3] = 1f;
+    normals[i*3 + 1] = 0f;
+    normals[i*3 + 2] = 0f;
+    setTangent(i, 1f, 0f, 0f);
+    return i;
+  }
+
+
+  /**
+   * Copies all the attributes of a vertex in another store to a vertex in
+   * this one. User-defined attributes missing from this store's schema are
+   * added to it.
+   */
+  public void copyVertex(VertexStore src, int srcIndex, int dstIndex) {
+    System.arraycopy(src.positions, srcIndex*POSITION_SIZE, positions, dstIndex*POSITION_SIZE, POSITION_SIZE);
+    System.arraycopy(src.colors, srcIndex*COLOR_SIZE, colors, dstIndex*COLOR_SIZE, COLOR_SIZE);
+    System.arraycopy(src.texCoords, srcIndex*TEXCOORD_SIZE, texCoords, dstIndex*TEXCOORD_SIZE, TEXCOORD_SIZE);
+    System.arraycopy(src.normals, srcIndex*NORMAL_SIZE, normals, dstIndex*NORMAL_SIZE, NORMAL_SIZE);
+    System.arraycopy(src.tangents, srcIndex*TANGENT_SIZE, tangents, dstIndex*TANGENT_SIZE, TANGENT_SIZE);
+
+    AttributeSchema srcSchema = src.schema;
+    for(int srcSlot = 0; srcSlot < srcSchema.getNumSlots(); srcSlot++) {
+      int n = srcSchema.getSize(srcSlot);
+      int slot = addAttribute(srcSchema.getName(srcSlot), srcSchema.getType(srcSlot), n);
+      if(floatChannels[slot] != null) {
+        System.arraycopy(src.floatChannels[srcSlot], srcIndex*n, floatChannels[slot], dstIndex*n, n);
+      }
+      else if(intChannels[slot] != null) {
+        System.arraycopy(src.intChannels[srcSlot], srcIndex*n, intChannels[slot], dstIndex*n, n);
+      }
+      else {
+        System.arraycopy(src.doubleChannels[srcSlot], srcIndex*n, doubleChannels[slot], dstIndex*n, n);
+      }
+    }
+  }
+
+
+  //////// Positions
+
+  public float getX(int i) {
+    return positions[i*3];
+  }
+
+  public float getY(int i) {
+    return positions[i*3 + 1];
+  }
+
+  public float getZ(int i) {
+    return positions[i*3 + 2];
+  }
+
+  public void setPosition(int i, float x, float y, float z) {
+    positions[i*3] = x;
+    positions[i*3 + 1] = y;
+    positions[i*3 + 2] = z;
+  }
+
+
+  //////// Colors
+
+  /** Returns a component (0-3 for rgba) of a vertex's color. */
+  public float getColor(int i, int component) {
+    return colors[i*4 + component];
+  }
+
+  public void setColor(int i, float r, float g, float b, float a) {
+    colors[i*4] = r;
+    colors[i*4 + 1] = g;
+    colors[i*4 + 2] = b;
+    colors[i*4 + 3] = a;
+  }
+
+
+  //////// Texture coordinates
+
+  public float getTexS(int i) {
+    return texCoords[i*2];
+  }
+
+  public float getTexT(int i) {
+    return texCoords[i*2 + 1];
+  }
+
+  public void setTexCoords(int i, float s, float t) {
+    texCoords[i*2] = s;
+    texCoords[i*2 + 1] = t;
+  }
+
+
+  //////// Normals
+
+  /** Returns a component (0-2 for xyz) of a vertex's normal. */
+  public float getNormal(int i, int component) {
+    return normals[i*3 + component];
+  }
+
+  /** Sets a vertex's normal. The normal is stored with unit length, as in Vertex3f. */
+  public void setNormal(int i, float nx, float ny, float nz) {
+    float length = (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
+    normals[i*3] = nx/length;
+    normals[i*3 + 1] = ny/length;
+    normals[i*3 + 2] = nz/length;
+  }
+
+
+  //////// Tangental vectors
+
+  /** Returns a component (0-2 for xyz) of a vertex's tangental vector. */
+  public float getTangent(int i, int component) {
+    return tangents[i*3 + component];
+  }
+
+  public void setTangent(int i, float tx, float ty, float tz) {
+    tangents[i*3] = tx;
+    tangents[i*3 + 1] = ty;
+    tangents[i*3 + 2] = tz;
+  }
+
+  /**
+   * Computes the tangental vector for vertex i, given two other vertices
+   * with which it forms a face. This is the same computation as
+   * Vertex3f.computeTangentalVector.
+   */
+  public void computeTangent(int i, int j, int k) {
+    float ux = positions[j*3] - positions[i*3];
+    float uy = positions[j*3 + 1] - positions[i*3 + 1];
+    float uz = positions[j*3 + 2] - positions[i*3 + 2];
+    float vx = positions[k*3] - positions[i*3];
+    float vy = positions[k*3 + 1] - positions[i*3 + 1];
+    float vz = positions[k*3 + 2] - positions[i*3 + 2];
+
+    float su = texCoords[j*2] - texCoords[i*2];
+    float sv = texCoords[k*2] - texCoords[i*2];
+    float tu = texCoords[j*2 + 1] - texCoords[i*2 + 1];
+    float tv = texCoords[k*2 + 1] - texCoords[i*2 + 1];
+    float dst = tv*su - tu*sv;
+
+    if(dst == 0) {
+      setTangent(i, 1f, 0f, 0f);
+    }
+    else {
+      float scale = 1/dst;
+      setTangent(i, (ux*tv - vx*tu)*scale, (uy*tv - vy*tu)*scale, (uz*tv - vz*tu)*scale);
+    }
+  }
+
+  /**
+   * Computes the tangental vectors for the vertices of numFaces faces, given
+   * 3 vertex indices per face starting at indices[indexOff]. The tangents 
+   * are computed for all the faces in one batch with BatchMath. A face's 
+   * tangent is the same at each of its vertices, so it is computed once and 
+   * given to all 3. Vertices shared by several faces get the tangent of the 
+   * last one.
+   */
+  public void computeTangents(int[] indices, int indexOff, int numFaces) {
+    float[] faceTangents = new float[numFaces*3];
+    BatchMath.getKernels().faceTangents(positions, texCoords, indices, indexOff, faceTangents, 0, numFaces);
+
+    for(int f = 0; f < numFaces; f++) {
+      float tx = faceTangents[f*3];
+      float ty = faceTangents[f*3 + 1];
+      float tz = faceTangents[f*3 + 2];
+      for(int c = 0; c < 3; c++) {
+        setTangent(indices[indexOff + f*3 + c], tx, ty, tz);
+      }
+    }
+  }
+
+
+  //////// User-defined attributes
+
+  /** Returns the schema of the user-defined attributes in the store. */
+  public AttributeSchema getSchema() {
+    return schema;
+  }
+
+  /**
+   * Returns the slot for a user-defined attribute, adding it and its channel
+   * to the store if it doesn't have it yet. Vertices start out with all of 
+   * the attribute's components set to 0.
+   * @param name      The name of the attribute in the shader.
+   * @param unitType  GL_FLOAT, GL_INT, or GL_DOUBLE.
+   * @param size      The number of components per vertex.
+   */
+  public int addAttribute(String name, int unitType, int size) {
+    if(schema == NO_ATTRIBUTES) {
+      schema = new AttributeSchema();
+    }
+    int slot = schema.addSlot(name, unitType, size);
+    if(slot < floatChannels.length) {
+      return slot;
+    }
+
+    int numSlots = schema.getNumSlots();
+    floatChannels = Arrays.copyOf(floatChannels, numSlots);
+    intChannels = Arrays.copyOf(intChannels, numSlots);
+    doubleChannels = Arrays.copyOf(doubleChannels, numSlots);
+
+    int length = capacity()*size;
+    switch(schema.getType(slot)) {
+      case GL_INT :
+        intChannels[slot] = new int[length];
+        break;
+      case GL_DOUBLE :
+        doubleChannels[slot] = new double[length];
+        break;
+      default :
+        floatChannels[slot] = new float[length];
+    }
+    return slot;
+  }
+
+
+  /** Sets the values of a float-based attribute for a vertex. */
+  public void setAttribf(int i, int slot, float[] values) {
+    int n = checkSize(slot, values.length);
+    System.arraycopy(values, 0, getAttribChannelf(slot), i*n, n);
+  }
+
+  /** Sets the values of an int-based attribute for a vertex. */
+  public void setAttribi(int i, int slot, int[] values) {
+    int n = checkSize(slot, values.length);
+    System.arraycopy(values, 0, getAttribChanneli(slot), i*n, n);
+  }
+
+  /** Sets the values of a double-based attribute for a vertex. */
+  public void setAttribd(int i, int slot, double[] values) {
+    int n = checkSize(slot, values.length);
+    System.arraycopy(values, 0, getAttribChanneld(slot), i*n, n);
+  }
+
+  /** Throws a PwneeGLError if a number of values doesn't match an attribute's size. */
+  private int checkSize(int slot, int numValues) {
+    int n = schema.getSize(slot);
+    if(numValues != n) {
+      throw new PwneeGLError("Vertex attribute " + schema.getName(slot) + " has " + n + " components, not " + numValues + ".");
+    }
+    return n;
+  }
+
+
+  /** Returns a copy of the values of a float-based attribute for a vertex. */
+  public float[] getAttribf(int i, int slot) {
+    int n = schema.getSize(slot);
+    return Arrays.copyOfRange(getAttribChannelf(slot), i*n, i*n + n);
+  }
+
+  /** 
+   * Copies the values of a float-based attribute for a vertex into dst, 
+   * starting at index off, and returns dst. 
+   */
+  public float[] getAttribf(int i, int slot, float[] dst, int off) {
+    int n = schema.getSize(slot);
+    System.arraycopy(getAttribChannelf(slot), i*n, dst, off, n);
+    return dst;
+  }
+
+  /** Returns a copy of the values of an int-based attribute for a vertex. */
+  public int[] getAttribi(int i, int slot) {
+    int n = schema.getSize(slot);
+    return Arrays.copyOfRange(getAttribChanneli(slot), i*n, i*n + n);
+  }
+
+  /** Returns a copy of the values of a double-based attribute for a vertex. */
+  public double[] getAttribd(int i, int slot) {
+    int n = schema.getSize(slot);
+    return Arrays.copyOfRange(getAttribChanneld(slot), i*n, i*n + n);
+  }
+
+
+  /** 
+   * Returns the store's own channel for a float-based attribute, with 
+   * getSchema().getSize(slot) floats per vertex. A PwneeGLError is thrown if
+   * the attribute isn't float-based.
+   */
+  public float[] getAttribChannelf(int slot) {
+    float[] result = floatChannels[slot];
+    if(result == null) {
+      throw new PwneeGLError("Vertex attribute " + schema.getName(slot) + " is not float-based.");
+    }
+    return result;
+  }
+
+  /** Returns the store's own channel for an int-based attribute. */
+  public int[] getAttribChanneli(int slot) {
+    int[] result = intChannels[slot];
+    if(result == null) {
+      throw new PwneeGLError("Vertex attribute " + schema.getName(slot) + " is not int-based.");
+    }
+    return result;
+  }
+
+  /** Returns the store's own channel for a double-based attribute. */
+  public double[] getAttribChanneld(int slot) {
+    double[] result = doubleChannels[slot];
+    if(result == null) {
+      throw new PwneeGLError("Vertex attribute " + schema.getName(slot) + " is not double-based.");
+    }
+    return result;
+  }
+
+
+  //////// Bulk access
+
+  /**
+   * Returns the store's own array of positions, 3 floats per vertex. Only
+   * the first size()*3 elements are meaningful. The array is replaced when
+   * the store grows.
+   */
+  public float[] getPositions() {
+    return positions;
+  }
+
+  /** Returns the store's own array of colors, 4 floats per vertex. */
+  public float[] getColors() {
+    return colors;
+  }
+
+  /** Returns the store's own array of texture coordinates, 2 floats per vertex. */
+  public float[] getTexCoords() {
+    return texCoords;
+  }
+
+  /** Returns the store's own array of unit normals, 3 floats per vertex. */
+  public float[] getNormals() {
+    return normals;
+  }
+
+  /** Returns the store's own array of tangental vectors, 3 floats per vertex. */
+  public float[] getTangents() {
+    return tangents;
+  }
+
+  /**
+   * Returns the store's own array for a built-in attribute source from
+   * VertexElement. (POSITION, COLOR, NORMAL, or TEXCOORDS)
+   */
+  public float[] getChannel(int source) {
+    switch(source) {
+      case VertexElement.POSITION :
+        return positions;
+      case VertexElement.COLOR :
+        return colors;
+      case VertexElement.NORMAL :
+        return normals;
+      case VertexElement.TEXCOORDS :
+        return texCoords;
+      default :
+        throw new PwneeGLError("Vertex stores have no channel for vertex element source: " + source);
+    }
+  }
+
+  /** Returns the number of floats stored per vertex for a built-in attribute source from VertexElement. */
+  public static int channelSize(int source) {
+    switch(source) {
+      case VertexElement.POSITION :
+        return POSITION_SIZE;
+      case VertexElement.COLOR :
+        return COLOR_SIZE;
+      case VertexElement.NORMAL :
+        return NORMAL_SIZE;
+      case VertexElement.TEXCOORDS :
+        return TEXCOORD_SIZE;
+      default :
+        throw new PwneeGLError("Vertex stores have no channel for vertex element source: " + source);
+    }
+  }
+
+
+  //////// Reordering
+
+  /**
+   * Moves each vertex i to index remap[i]. remap must be a permutation of
+   * [0, size()).
+   */
+  public void permute(int[] remap) {
+    positions = permute(positions, POSITION_SIZE, remap);
+    colors = permute(colors, COLOR_SIZE, remap);
+    texCoords = permute(texCoords, TEXCOORD_SIZE, remap);
+    normals = permute(normals, NORMAL_SIZE, remap);
+    tangents = permute(tangents, TANGENT_SIZE, remap);
+
+    for(int slot = 0; slot < schema.getNumSlots(); slot++) {
+      int n = schema.getSize(slot);
+      if(floatChannels[slot] != null) {
+        floatChannels[slot] = permute(floatChannels[slot], n, remap);
+      }
+      else if(intChannels[slot] != null) {
+        int[] src = intChannels[slot];
+        int[] result = new int[src.length];
+        for(int i = 0; i < size; i++) {
+          System.arraycopy(src, i*n, result, remap[i]*n, n);
+        }
+        intChannels[slot] = result;
+      }
+      else {
+        double[] src = doubleChannels[slot];
+        double[] result = new double[src.length];
+        for(int i = 0; i < size; i++) {
+          System.arraycopy(src, i*n, result, remap[i]*n, n);
+        }
+        doubleChannels[slot] = result;
+      }
+    }
+  }
+
+  private float[] permute(float[] src, int n, int[] remap) {
+    float[] result = new float[src.length];
+    for(int i = 0; i < size; i++) {
+      System.arraycopy(src, i*n, result, remap[i]*n, n);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,438 @@
+package pwneegl.geom.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static javax.media.opengl.GL.*;  // GL constants
+
+import pwneegl.PwneeGLError;
+import pwneegl.geom.Poly3f;
+import pwneegl.geom.data.PackedMesh;
+import pwneegl.geom.data.StagingArena;
+import pwneegl.geom.data.VBOPipeline;
+import pwneegl.geom.data.VertexElement;
+import pwneegl.geom.data.VertexFormat;
+import pwneegl.geom.data.VertexLayout;
+import pwneegl.geom.data.VertexStore;
+
+/**
+ * Reads and writes PwneeGL mesh (.pgm) files, a binary cache format for
+ * Poly3f objects converted from slower formats such as Wavefront OBJ.
+ *
+ * A .pgm file contains a header identifying the source file it was converted
+ * from, a descriptor of the vertex layout, a block of interleaved vertex
+ * data in the layout VBOPipeline uses for VertexFormat.STANDARD, and a block
+ * of indices in the smallest type that fits. Everything is stored in the
+ * native byte order of the machine that wrote it. Loading a .pgm only
+ * memory-maps it, and the mapped blocks are given to the polygon as a
+ * PackedMesh, so they can be uploaded with glBufferData without any parsing
+ * or packing.
+ *
+ * A cache file is valid for a source file if it records the same size and
+ * modification time. If only the modification time differs, the source's
+ * CRC32 is compared instead, so touching or copying a file doesn't
+ * invalidate its cache.
+ */
+public class MeshCache {
+
+  /** The magic number at the start of every .pgm file. ("PGM1") */
+  public static final int MAGIC = 0x50474D31;
+
+  /** The version of the format written by this class. */
+  public static final int VERSION = 1;
+
+  /** The extension of .pgm files. */
+  public static final String EXTENSION = ".pgm";
+
+  /** A value used to detect whether the file's byte order is the native one. */
+  private static final int BYTE_ORDER_MARK = 0x01020304;
+
+  /** Header flag for meshes whose duplicate vertices were welded. */
+  private static final int FLAG_WELDED = 1;
+
+  /** The size of the fixed part of the header, in bytes. */
+  private static final int HEADER_SIZE = 60;
+
+  /** The size of each element descriptor, in bytes. */
+  private static final int ELEMENT_SIZE = 20;
+
+  /** Whether WavefrontIO uses cache files. */
+  private static boolean enabled = true;
+
+
+  //////// Settings
+
+  /** Returns true iff WavefrontIO reads and writes cache files for the OBJ files it loads. */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Sets whether WavefrontIO reads and writes cache files for the OBJ files it loads. */
+  public static void setEnabled(boolean enabled) {
+    MeshCache.enabled = enabled;
+  }
+
+
+  /** Returns the path of the cache file for a source file. */
+  public static String cachePath(String sourcePath, boolean weld) {
+    return sourcePath + (weld ? ".welded" : "") + EXTENSION;
+  }
+
+
+  //////// Wavefront OBJ
+
+  /**
+   * Reads a Wavefront OBJ file, using its cache file if it is valid.
+   * Otherwise the OBJ file is parsed and a new cache file is written next to
+   * it. Failing to write the cache file isn't an error.
+   */
+  static Poly3f readObj(String path, boolean weld, boolean parallel) {
+    if(!enabled) {
+      return parseObj(path, weld, parallel);
+    }
+
+    File source = new File(path);
+    File cache = new File(cachePath(path, weld));
+    if(cache.isFile()) {
+      Poly3f result = read(cache.getPath(), source, weld);
+      if(result != null) {
+        return result;
+      }
+    }
+
+    Poly3f result = parseObj(path, weld, parallel);
+    try {
+      write(result, cache.getPath(), source, weld);
+    }
+    catch (PwneeGLError e) {
+      // The cache is only an optimization. The source can be parsed again next time.
+      cache.delete();
+    }
+    return result;
+  }
+
+
+  /** Parses a Wavefront OBJ file. */
+  private static Poly3f parseObj(String path, boolean weld, boolean parallel) {
+    if(parallel) {
+      return ObjParser.readFromFileParallel(path, weld);
+    }
+    return ObjParser.readFromFile(path, weld);
+  }
+
+
+  //////// Writing
+
+  /**
+   * Writes a polygon to a .pgm file.
+   * @param poly    The polygon.
+   * @param path    The path of the .pgm file.
+   * @param source  The file the polygon was read from, or null.
+   * @param weld    Whether the polygon's duplicate vertices were welded.
+   */
+  public static void write(Poly3f poly, String path, File source, boolean weld) {
+    VertexLayout layout = new VertexLayout(null, VertexFormat.STANDARD);
+    List<VertexElement> elements = layout.getElements();
+    int numVertices = poly.getNumVertices();
+    int numIndices = poly.getNumIndices();
+    int indexType = VBOPipeline.indexType(numVertices);
+
+    int vertexOffset = align(HEADER_SIZE + elements.size()*ELEMENT_SIZE);
+    int indexOffset = align(vertexOffset + numVertices*layout.getStride());
+    int size = indexOffset + numIndices*VertexElement.componentBytes(indexType);
+
+    ByteBuffer buf = StagingArena.acquire(size);
+    try {
+      // Header
+      buf.putInt(0, MAGIC);
+      buf.putInt(4, VERSION);
+      buf.putInt(8, BYTE_ORDER_MARK);
+      buf.putInt(12, weld ? FLAG_WELDED : 0);
+      buf.putLong(16, (source == null) ? 0 : source.length());
+      buf.putLong(24, (source == null) ? 0 : source.lastModified());
+      buf.putLong(32, (source == null) ? 0 : checksum(source));
+      buf.putInt(40, numVertices);
+      buf.putInt(44, numIndices);
+      buf.putInt(48, indexType);
+      buf.putInt(52, layout.getStride());
+      buf.putInt(56, elements.size());
+
+      // Layout descriptor
+      int pos = HEADER_SIZE;
+      for(VertexElement e : elements) {
+        buf.putInt(pos, e.getSource());
+        buf.putInt(pos + 4, e.getNumComponents());
+        buf.putInt(pos + 8, e.getGLType());
+        buf.putInt(pos + 12, e.isNormalized() ? 1 : 0);
+        buf.putInt(pos + 16, e.getOffset());
+        pos += ELEMENT_SIZE;
+      }
+
+      // Vertex block
+      ByteBuffer vertexBlock = slice(buf, vertexOffset, numVertices*layout.getStride());
+      layout.writeVertices(vertexBlock, poly, 0, numVertices);
+
+      // Index block
+      int[] indices = poly.getIndexArray();
+      for(int i = 0; i < numIndices; i++) {
+        if(indexType == GL_UNSIGNED_BYTE) {
+          buf.put(indexOffset + i, (byte) indices[i]);
+        }
+        else if(indexType == GL_UNSIGNED_SHORT) {
+          buf.putShort(indexOffset + i*2, (short) indices[i]);
+        }
+        else {
+          buf.putInt(indexOffset + i*4, indices[i]);
+        }
+      }
+
+      // Write to a temporary file and move it over the old one, so that the
+      // old file is never truncated while it may be memory-mapped by read, 
+      // and a failed write never leaves a partial file behind.
+      Path target = Paths.get(path).toAbsolutePath();
+      Path temp = null;
+      try {
+        temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try(FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+          buf.position(0);
+          buf.limit(size);
+          while(buf.hasRemaining()) {
+            channel.write(buf);
+          }
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        temp = null;
+      }
+      catch (IOException e) {
+        throw new PwneeGLError("Could not write mesh file: " + path, e);
+      }
+      finally {
+        deleteQuietly(temp);
+      }
+    }
+    finally {
+      StagingArena.release(buf);
+    }
+  }
+
+
+  /** Deletes a leftover temporary file, if there is one. */
+  private static void deleteQuietly(Path temp) {
+    if(temp == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(temp);
+    }
+    catch (IOException e) {
+      // The write already failed; a stray temporary file is harmless.
+    }
+  }
+
+
+  //////// Reading
+
+  /** Reads a polygon from a .pgm file without checking what source it was converted from. */
+  public static Poly3f read(String path) {
+    Poly3f result = read(path, null, false);
+    if(result == null) {
+      throw new PwneeGLError("Invalid mesh file: " + path);
+    }
+    return result;
+  }
+
+
+  /**
+   * Reads a polygon from a .pgm file by memory-mapping it. If source isn't
+   * null, null is returned if the file isn't a valid cache of the source
+   * with the given welding. Null is also returned if the file is corrupt or
+   * was written with a different byte order.
+   */
+  public static Poly3f read(String path, File source, boolean weld) {
+    ByteBuffer buf;
+    try(RandomAccessFile file = new RandomAccessFile(path, "r");
+        FileChannel channel = file.getChannel()) {
+      if(channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    catch (IOException e) {
+      return null;
+    }
+    buf.order(ByteOrder.nativeOrder());
+
+    if(buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION || buf.getInt(8) != BYTE_ORDER_MARK) {
+      return null;
+    }
+    if(source != null && !isValidFor(path, buf, source, weld)) {
+      return null;
+    }
+
+    int numVertices = buf.getInt(40);
+    int numIndices = buf.getInt(44);
+    int indexType = buf.getInt(48);
+    int stride = buf.getInt(52);
+    int numElements = buf.getInt(56);
+
+    // The layout must be the one this version of PwneeGL packs.
+    VertexLayout layout = new VertexLayout(null, VertexFormat.STANDARD);
+    if(!matchesLayout(buf, layout, stride, numElements)) {
+      return null;
+    }
+
+    int vertexOffset = align(HEADER_SIZE + numElements*ELEMENT_SIZE);
+    int indexOffset = align(vertexOffset + numVertices*stride);
+    int indexSize = VertexElement.componentBytes(indexType);
+    if(indexType != VBOPipeline.indexType(numVertices) || (long) indexOffset + (long) numIndices*indexSize > buf.capacity()) {
+      return null;
+    }
+
+    ByteBuffer vertexBlock = slice(buf, vertexOffset, numVertices*stride);
+    ByteBuffer indexBlock = slice(buf, indexOffset, numIndices*indexSize);
+
+    // Unpack the vertices.
+    VertexStore store = new VertexStore(numVertices);
+    int colorOffset = layout.getBuiltIn(VertexElement.COLOR).getOffset();
+    int normalOffset = layout.getBuiltIn(VertexElement.NORMAL).getOffset();
+    int texOffset = layout.getBuiltIn(VertexElement.TEXCOORDS).getOffset();
+    for(int i = 0; i < numVertices; i++) {
+      int base = i*stride;
+      int v = store.add(vertexBlock.getFloat(base), vertexBlock.getFloat(base + 4), vertexBlock.getFloat(base + 8));
+      store.setColor(v, vertexBlock.getFloat(base + colorOffset), vertexBlock.getFloat(base + colorOffset + 4),
+                     vertexBlock.getFloat(base + colorOffset + 8), vertexBlock.getFloat(base + colorOffset + 12));
+      store.setNormal(v, vertexBlock.getFloat(base + normalOffset), vertexBlock.getFloat(base + normalOffset + 4),
+                      vertexBlock.getFloat(base + normalOffset + 8));
+      store.setTexCoords(v, vertexBlock.getFloat(base + texOffset), vertexBlock.getFloat(base + texOffset + 4));
+    }
+
+    // Unpack the faces.
+    int numFaces = numIndices/3;
+    int[] faceIndices = new int[numFaces*3];
+    for(int i = 0; i < faceIndices.length; i++) {
+      faceIndices[i] = readIndex(indexBlock, indexType, i);
+      if(faceIndices[i] >= numVertices) {
+        return null;
+      }
+    }
+    Poly3f result = new Poly3f(store);
+    result.addFaces(faceIndices, 0, numFaces);
+
+    result.clearDirty();
+    result.setPackedMesh(new PackedMesh(layout, vertexBlock, indexType, indexBlock));
+    return result;
+  }
+
+
+  /**
+   * Returns true iff a cache file's header matches its source file. If only
+   * the modification time differs but the contents are the same, the header
+   * is updated with the new time.
+   */
+  private static boolean isValidFor(String path, ByteBuffer buf, File source, boolean weld) {
+    if(((buf.getInt(12) & FLAG_WELDED) != 0) != weld) {
+      return false;
+    }
+    if(buf.getLong(16) != source.length()) {
+      return false;
+    }
+    if(buf.getLong(24) == source.lastModified()) {
+      return true;
+    }
+    if(buf.getLong(32) != checksum(source)) {
+      return false;
+    }
+
+    // Same contents. Remember the new time so that the checksum isn't needed next time.
+    try(RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+      ByteBuffer time = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+      time.putLong(0, source.lastModified());
+      file.getChannel().write(time, 24);
+    }
+    catch (IOException e) {
+      // Not worth failing over. The checksum will be compared again next time.
+    }
+    return true;
+  }
+
+
+  /** Returns true iff the layout descriptor in a file matches a layout. */
+  private static boolean matchesLayout(ByteBuffer buf, VertexLayout layout, int stride, int numElements) {
+    List<VertexElement> elements = layout.getElements();
+    if(stride != layout.getStride() || numElements != elements.size()
+        || buf.capacity() < HEADER_SIZE + numElements*ELEMENT_SIZE) {
+      return false;
+    }
+
+    int pos = HEADER_SIZE;
+    for(VertexElement e : elements) {
+      if(buf.getInt(pos) != e.getSource() || buf.getInt(pos + 4) != e.getNumComponents()
+          || buf.getInt(pos + 8) != e.getGLType() || buf.getInt(pos + 12) != (e.isNormalized() ? 1 : 0)
+          || buf.getInt(pos + 16) != e.getOffset()) {
+        return false;
+      }
+      pos += ELEMENT_SIZE;
+    }
+    return true;
+  }
+
+
+  private static int readIndex(ByteBuffer indexBlock, int indexType, int i) {
+    if(indexType == GL_UNSIGNED_BYTE) {
+      return indexBlock.get(i) & 0xFF;
+    }
+    else if(indexType == GL_UNSIGNED_SHORT) {
+      return indexBlock.getShort(i*2) & 0xFFFF;
+    }
+    return indexBlock.getInt(i*4);
+  }
+
+
+  //////// Misc
+
+  /** Returns the CRC32 checksum of a file's contents. */
+  public static long checksum(File file) {
+    try(RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      CRC32 crc = new CRC32();
+      long size = channel.size();
+      long pos = 0;
+      while(pos < size) {
+        long length = Math.min(size - pos, Integer.MAX_VALUE);
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, length));
+        pos += length;
+      }
+      return crc.getValue();
+    }
+    catch (IOException e) {
+      throw new PwneeGLError("Could not read file: " + file, e);
+    }
+  }
+
+
+  /** Returns a native-order view of length bytes of a buffer, starting at offset. */
+  private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+    ByteBuffer dup = buf.duplicate();
+    dup.clear();
+    dup.position(offset);
+    dup.limit(offset + length);
+    return dup.slice().order(ByteOrder.nativeOrder());
+  }
+
+
+  /** Rounds an offset up to a multiple of 16 bytes. */
+  private static int align(int offset) {
+    return (offset + 15)/16*16;
+  }
+}
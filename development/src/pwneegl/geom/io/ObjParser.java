@@ -0,0 +1,749 @@
+package pwneegl.geom.io;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import pwneegl.PwneeGLError;
+import pwneegl.geom.Poly3f;
+import pwneegl.geom.data.VertexStore;
+
+/**
+ * A byte-level parser for Wavefront OBJ geometry, meant for large models.
+ *
+ * The parser reads a memory-mapped file (or any ByteBuffer) in place. It
+ * parses numbers directly from the bytes into growable primitive arrays, so
+ * it doesn't create Strings or boxed values for the tokens. Positions ("v"),
+ * texture coordinates ("vt"), normals ("vn"), and faces ("f") of any number
+ * of corners are supported. Faces with more than 3 corners are triangulated
+ * as fans, and negative (relative) indices are resolved. Other statements,
+ * such as groups and materials, are ignored.
+ *
+ * Large files can also be parsed in parallel. The file is split into chunks
+ * at line boundaries, each chunk is parsed by its own ObjParser on a
+ * fork-join pool, and the chunks are merged in order, resolving relative
+ * indices against the elements of the chunks before them.
+ */
+public class ObjParser {
+
+  /** Powers of ten which are exactly representable as doubles. */
+  private static final double[] POW10 = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  /** The maximum number of significant digits accumulated for a number. */
+  private static final int MAX_DIGITS = 18;
+
+  /** Flags for relative position, texture coordinate, and normal indices. */
+  private static final byte REL_XYZ = 1, REL_ST = 2, REL_N = 4;
+
+  /** The smallest number of bytes worth giving to a parallel parsing task. */
+  public static final int MIN_CHUNK_SIZE = 1 << 20;
+
+  /** The pool running parallel parsing tasks. Created on first use. */
+  private static ForkJoinPool pool = null;
+
+
+  /** Vertex positions, 3 floats each. */
+  private float[] xyz = new float[3*1024];
+  private int numXYZ = 0;
+
+  /** Texture coordinates, 2 floats each. */
+  private float[] st = new float[2*1024];
+  private int numST = 0;
+
+  /** Normals, 3 floats each. */
+  private float[] n = new float[3*1024];
+  private int numN = 0;
+
+  /**
+   * The corners of the triangles, 3 ints each: the 0-based position,
+   * texture coordinate, and normal indices, or -1 for missing indices.
+   */
+  private int[] corners = new int[3*3*1024];
+  private int numCorners = 0;
+
+  /**
+   * For each corner, bit flags marking which of its indices are relative to
+   * the elements parsed in this parser's own chunk of the file. These are
+   * resolved when chunks are merged.
+   */
+  private byte[] relative = new byte[3*1024];
+
+  /** The corners of the face currently being parsed, and their relative index flags. */
+  private int[] faceCorners = new int[3*8];
+  private byte[] faceRelative = new byte[8];
+
+
+  /** The buffer being parsed. */
+  private ByteBuffer buf;
+
+  /** The current read position in the buffer. */
+  private int pos;
+
+  /** The end of the range being parsed. */
+  private int limit;
+
+  /** Whether the last index parsed was relative. */
+  private boolean lastIndexRelative;
+
+
+  //////// Reading
+
+  /** Reads a Wavefront OBJ file by memory-mapping it. */
+  public static Poly3f readFromFile(String path, boolean weld) {
+    ObjParser parser = new ObjParser();
+    parser.parse(mapFile(path));
+    return parser.toPoly(weld);
+  }
+
+  /**
+   * Reads a Wavefront OBJ file by memory-mapping it and parsing chunks of it
+   * in parallel. The result is the same as readFromFile's.
+   */
+  public static Poly3f readFromFileParallel(String path, boolean weld) {
+    return parseParallel(mapFile(path)).toPoly(weld);
+  }
+
+  /** Reads Wavefront OBJ text from the remaining bytes of a buffer. */
+  public static Poly3f readFromBuffer(ByteBuffer data, boolean weld) {
+    ObjParser parser = new ObjParser();
+    parser.parse(data);
+    return parser.toPoly(weld);
+  }
+
+
+  /** Maps a file into memory for reading. */
+  static MappedByteBuffer mapFile(String path) {
+    try(RandomAccessFile file = new RandomAccessFile(path, "r");
+        FileChannel channel = file.getChannel()) {
+      long size = channel.size();
+      if(size > Integer.MAX_VALUE) {
+        throw new PwneeGLError("Wavefront OBJ file is too large to map: " + path);
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+    catch (FileNotFoundException e) {
+      throw new PwneeGLError("Could not load Wavefront OBJ file: " + path, e);
+    }
+    catch (IOException e) {
+      throw new PwneeGLError("Error reading Wavefront object", e);
+    }
+  }
+
+
+  //////// Parallel parsing
+
+  /** Returns the pool used for parallel parsing. */
+  private static synchronized ForkJoinPool getPool() {
+    if(pool == null) {
+      pool = new ForkJoinPool();
+    }
+    return pool;
+  }
+
+
+  /**
+   * Splits the remaining bytes of a buffer into chunks at line boundaries,
+   * parses the chunks in parallel, and merges the results in order.
+   */
+  public static ObjParser parseParallel(final ByteBuffer data) {
+    ForkJoinPool pool = getPool();
+    int start = data.position();
+    int end = data.limit();
+    int numChunks = Math.max(1, Math.min(pool.getParallelism()*4, (end - start)/MIN_CHUNK_SIZE));
+
+    // Split at line boundaries.
+    int[] bounds = new int[numChunks + 1];
+    bounds[0] = start;
+    for(int i = 1; i < numChunks; i++) {
+      int split = Math.max(start + (int) ((long) (end - start)*i/numChunks), bounds[i-1]);
+      while(split < end && data.get(split - 1) != '\n') {
+        split++;
+      }
+      bounds[i] = split;
+    }
+    bounds[numChunks] = end;
+
+    List<Callable<ObjParser>> tasks = new ArrayList<>();
+    for(int i = 0; i < numChunks; i++) {
+      final int chunkStart = bounds[i];
+      final int chunkEnd = bounds[i+1];
+      tasks.add(new Callable<ObjParser>() {
+        public ObjParser call() {
+          ObjParser chunk = new ObjParser();
+          chunk.parse(data, chunkStart, chunkEnd);
+          return chunk;
+        }
+      });
+    }
+
+    List<ObjParser> chunks = new ArrayList<>();
+    try {
+      for(Future<ObjParser> future : pool.invokeAll(tasks)) {
+        chunks.add(future.get());
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PwneeGLError("Interrupted while parsing Wavefront object", e);
+    }
+    catch (ExecutionException e) {
+      if(e.getCause() instanceof PwneeGLError) {
+        throw (PwneeGLError) e.getCause();
+      }
+      throw new PwneeGLError("Error parsing Wavefront object", e.getCause());
+    }
+
+    return merge(chunks);
+  }
+
+
+  /**
+   * Concatenates the elements parsed from consecutive chunks of a file,
+   * resolving each chunk's relative indices against the elements parsed
+   * before it.
+   */
+  static ObjParser merge(List<ObjParser> chunks) {
+    if(chunks.size() == 1) {
+      return chunks.get(0);
+    }
+
+    ObjParser result = new ObjParser();
+    int totalXYZ = 0, totalST = 0, totalN = 0, totalCorners = 0;
+    for(ObjParser chunk : chunks) {
+      totalXYZ += chunk.numXYZ;
+      totalST += chunk.numST;
+      totalN += chunk.numN;
+      totalCorners += chunk.numCorners;
+    }
+    result.xyz = new float[totalXYZ*3];
+    result.st = new float[totalST*2];
+    result.n = new float[totalN*3];
+    result.corners = new int[totalCorners*3];
+    result.relative = new byte[totalCorners];
+
+    for(ObjParser chunk : chunks) {
+      int baseXYZ = result.numXYZ;
+      int baseST = result.numST;
+      int baseN = result.numN;
+
+      System.arraycopy(chunk.xyz, 0, result.xyz, baseXYZ*3, chunk.numXYZ*3);
+      System.arraycopy(chunk.st, 0, result.st, baseST*2, chunk.numST*2);
+      System.arraycopy(chunk.n, 0, result.n, baseN*3, chunk.numN*3);
+      result.numXYZ += chunk.numXYZ;
+      result.numST += chunk.numST;
+      result.numN += chunk.numN;
+
+      int dst = result.numCorners*3;
+      System.arraycopy(chunk.corners, 0, result.corners, dst, chunk.numCorners*3);
+      for(int i = 0; i < chunk.numCorners; i++) {
+        byte flags = chunk.relative[i];
+        if(flags != 0) {
+          int k = dst + i*3;
+          if((flags & REL_XYZ) != 0) {
+            result.corners[k] += baseXYZ;
+          }
+          if((flags & REL_ST) != 0) {
+            result.corners[k + 1] += baseST;
+          }
+          if((flags & REL_N) != 0) {
+            result.corners[k + 2] += baseN;
+          }
+        }
+      }
+      result.numCorners += chunk.numCorners;
+    }
+
+    return result;
+  }
+
+
+  //////// Parsing
+
+  /** Parses the remaining bytes of a buffer. The buffer's position is not changed. */
+  public void parse(ByteBuffer data) {
+    parse(data, data.position(), data.limit());
+  }
+
+
+  /**
+   * Parses the lines in the byte range [start, end) of a buffer. start
+   * should be the beginning of a line.
+   */
+  public void parse(ByteBuffer data, int start, int end) {
+    buf = data;
+    pos = start;
+    limit = end;
+
+    while(pos < limit) {
+      skipSpaces();
+      if(pos >= limit) {
+        break;
+      }
+
+      byte c = buf.get(pos);
+      byte next = (pos + 1 < limit) ? buf.get(pos + 1) : (byte) '\n';
+
+      if(c == 'v') {
+        if(isSpace(next)) {
+          pos++;
+          parsePosition();
+        }
+        else if(next == 't') {
+          pos += 2;
+          parseTexCoords();
+        }
+        else if(next == 'n') {
+          pos += 2;
+          parseNormal();
+        }
+      }
+      else if(c == 'f' && isSpace(next)) {
+        pos++;
+        parseFace();
+      }
+
+      skipLine();
+    }
+
+    buf = null;
+  }
+
+
+  /** Parses the coordinates of a "v" statement. Any w or color components are ignored. */
+  private void parsePosition() {
+    xyz = ensure(xyz, numXYZ*3 + 3);
+    xyz[numXYZ*3] = parseFloat();
+    xyz[numXYZ*3 + 1] = parseFloat();
+    xyz[numXYZ*3 + 2] = parseFloat();
+    numXYZ++;
+  }
+
+
+  /** Parses the coordinates of a "vt" statement. A missing t coordinate is 0. */
+  private void parseTexCoords() {
+    st = ensure(st, numST*2 + 2);
+    st[numST*2] = parseFloat();
+    skipSpaces();
+    st[numST*2 + 1] = isLineEnd() ? 0f : parseFloat();
+    numST++;
+  }
+
+
+  /** Parses the components of a "vn" statement. */
+  private void parseNormal() {
+    n = ensure(n, numN*3 + 3);
+    n[numN*3] = parseFloat();
+    n[numN*3 + 1] = parseFloat();
+    n[numN*3 + 2] = parseFloat();
+    numN++;
+  }
+
+
+  /** Parses the corners of an "f" statement and triangulates it as a fan. */
+  private void parseFace() {
+    int count = 0;
+
+    while(true) {
+      skipSpaces();
+      if(isLineEnd()) {
+        break;
+      }
+
+      faceCorners = ensure(faceCorners, count*3 + 3);
+      faceRelative = ensure(faceRelative, count + 1);
+      int k = count*3;
+      byte flags = 0;
+
+      faceCorners[k] = parseIndex(numXYZ);
+      faceCorners[k + 1] = -1;
+      faceCorners[k + 2] = -1;
+      if(lastIndexRelative) {
+        flags |= REL_XYZ;
+      }
+
+      if(pos < limit && buf.get(pos) == '/') {
+        pos++;
+        if(isIndexStart()) {
+          faceCorners[k + 1] = parseIndex(numST);
+          if(lastIndexRelative) {
+            flags |= REL_ST;
+          }
+        }
+        if(pos < limit && buf.get(pos) == '/') {
+          pos++;
+          if(isIndexStart()) {
+            faceCorners[k + 2] = parseIndex(numN);
+            if(lastIndexRelative) {
+              flags |= REL_N;
+            }
+          }
+        }
+      }
+      faceRelative[count] = flags;
+      count++;
+    }
+
+    for(int i = 2; i < count; i++) {
+      corners = ensure(corners, numCorners*3 + 9);
+      relative = ensure(relative, numCorners + 3);
+      addCorner(0);
+      addCorner(i-1);
+      addCorner(i);
+    }
+  }
+
+
+  /** Appends a corner of the current face to the list of triangle corners. */
+  private void addCorner(int index) {
+    System.arraycopy(faceCorners, index*3, corners, numCorners*3, 3);
+    relative[numCorners] = faceRelative[index];
+    numCorners++;
+  }
+
+
+  /**
+   * Parses a 1-based or negative relative index and returns it as a 0-based
+   * index, given the number of elements defined so far in this parser's
+   * chunk. Relative indices may turn out negative if they refer to elements
+   * from earlier chunks. These are fixed when the chunks are merged.
+   */
+  private int parseIndex(int count) {
+    int index = parseInt();
+    lastIndexRelative = (index < 0);
+    if(index > 0) {
+      return index - 1;
+    }
+    else if(index < 0) {
+      return count + index;
+    }
+    throw new PwneeGLError("Invalid index 0 in Wavefront OBJ face.");
+  }
+
+
+  /** Parses a decimal integer at the current position. */
+  private int parseInt() {
+    boolean negative = false;
+    if(pos < limit && buf.get(pos) == '-') {
+      negative = true;
+      pos++;
+    }
+
+    int result = 0;
+    int start = pos;
+    while(pos < limit) {
+      int digit = buf.get(pos) - '0';
+      if(digit < 0 || digit > 9) {
+        break;
+      }
+      result = result*10 + digit;
+      pos++;
+    }
+
+    if(pos == start) {
+      throw new PwneeGLError("Expected an index in Wavefront OBJ face.");
+    }
+    return negative ? -result : result;
+  }
+
+
+  /** Parses a decimal floating point number, skipping any whitespace before it. */
+  private float parseFloat() {
+    skipSpaces();
+    int start = pos;
+
+    boolean negative = false;
+    if(pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+      negative = (buf.get(pos) == '-');
+      pos++;
+    }
+
+    long mantissa = 0;
+    int numDigits = 0;
+    int exponent = 0;
+    boolean hasDigits = false;
+
+    // Integer part
+    while(pos < limit) {
+      int digit = buf.get(pos) - '0';
+      if(digit < 0 || digit > 9) {
+        break;
+      }
+      hasDigits = true;
+      if(numDigits < MAX_DIGITS) {
+        mantissa = mantissa*10 + digit;
+        if(mantissa != 0) {
+          numDigits++;
+        }
+      }
+      else {
+        exponent++;
+      }
+      pos++;
+    }
+
+    // Fractional part
+    if(pos < limit && buf.get(pos) == '.') {
+      pos++;
+      while(pos < limit) {
+        int digit = buf.get(pos) - '0';
+        if(digit < 0 || digit > 9) {
+          break;
+        }
+        hasDigits = true;
+        if(numDigits < MAX_DIGITS) {
+          mantissa = mantissa*10 + digit;
+          if(mantissa != 0) {
+            numDigits++;
+          }
+          exponent--;
+        }
+        pos++;
+      }
+    }
+
+    // Exponent
+    if(hasDigits && pos < limit && (buf.get(pos) == 'e' || buf.get(pos) == 'E')) {
+      pos++;
+      boolean negativeExp = false;
+      if(pos < limit && (buf.get(pos) == '-' || buf.get(pos) == '+')) {
+        negativeExp = (buf.get(pos) == '-');
+        pos++;
+      }
+      int exp = 0;
+      while(pos < limit) {
+        int digit = buf.get(pos) - '0';
+        if(digit < 0 || digit > 9) {
+          break;
+        }
+        exp = Math.min(exp*10 + digit, 10000);
+        pos++;
+      }
+      exponent += negativeExp ? -exp : exp;
+    }
+
+    if(!hasDigits) {
+      pos = start;
+      return parseFloatSlow();
+    }
+
+    double value = mantissa;
+    if(exponent < 0) {
+      value = (-exponent < POW10.length) ? value/POW10[-exponent] : value/Math.pow(10, -exponent);
+    }
+    else if(exponent > 0) {
+      value = (exponent < POW10.length) ? value*POW10[exponent] : value*Math.pow(10, exponent);
+    }
+    return negative ? (float) -value : (float) value;
+  }
+
+
+  /** Parses unusual numbers, such as NaN and Infinity, with Float.parseFloat. */
+  private float parseFloatSlow() {
+    int start = pos;
+    while(pos < limit && !isSpace(buf.get(pos)) && !isLineEndByte(buf.get(pos))) {
+      pos++;
+    }
+    byte[] bytes = new byte[pos - start];
+    for(int i = 0; i < bytes.length; i++) {
+      bytes[i] = buf.get(start + i);
+    }
+    String token = new String(bytes);
+    try {
+      return Float.parseFloat(token);
+    }
+    catch (NumberFormatException e) {
+      throw new PwneeGLError("Invalid number in Wavefront OBJ file: " + token, e);
+    }
+  }
+
+
+  //////// Scanning
+
+  private static boolean isSpace(byte c) {
+    return (c == ' ' || c == '\t');
+  }
+
+  private static boolean isLineEndByte(byte c) {
+    return (c == '\n' || c == '\r');
+  }
+
+  /** Returns true iff the current position is at the end of a line or the range. */
+  private boolean isLineEnd() {
+    return (pos >= limit || isLineEndByte(buf.get(pos)) || buf.get(pos) == '#');
+  }
+
+  /** Returns true iff an index starts at the current position. */
+  private boolean isIndexStart() {
+    if(pos >= limit) {
+      return false;
+    }
+    byte c = buf.get(pos);
+    return (c == '-' || (c >= '0' && c <= '9'));
+  }
+
+  /** Skips spaces and tabs. */
+  private void skipSpaces() {
+    while(pos < limit && isSpace(buf.get(pos))) {
+      pos++;
+    }
+  }
+
+  /** Skips to the start of the next line. */
+  private void skipLine() {
+    while(pos < limit && buf.get(pos) != '\n') {
+      pos++;
+    }
+    pos++;
+  }
+
+
+  /** Returns arr, or a larger copy of it if it has fewer than size elements. */
+  private static float[] ensure(float[] arr, int size) {
+    if(size > arr.length) {
+      return Arrays.copyOf(arr, Math.max(size, arr.length*2));
+    }
+    return arr;
+  }
+
+  /** Returns arr, or a larger copy of it if it has fewer than size elements. */
+  private static byte[] ensure(byte[] arr, int size) {
+    if(size > arr.length) {
+      return Arrays.copyOf(arr, Math.max(size, arr.length*2));
+    }
+    return arr;
+  }
+
+  /** Returns arr, or a larger copy of it if it has fewer than size elements. */
+  private static int[] ensure(int[] arr, int size) {
+    if(size > arr.length) {
+      return Arrays.copyOf(arr, Math.max(size, arr.length*2));
+    }
+    return arr;
+  }
+
+
+  //////// Polygon construction
+
+  /** Returns the number of positions parsed so far. */
+  public int getNumPositions() {
+    return numXYZ;
+  }
+
+  /** Returns the number of triangles parsed so far. */
+  public int getNumTriangles() {
+    return numCorners/3;
+  }
+
+
+  /**
+   * Builds a polygon from everything parsed so far. If weld is true,
+   * triangle corners with the same position, texture coordinates, and normal
+   * share a single vertex. Otherwise every corner gets its own vertex.
+   */
+  public Poly3f toPoly(boolean weld) {
+    boolean stPerPosition = (numST == numXYZ);
+    boolean nPerPosition = (numN == numXYZ);
+
+    VertexStore store = new VertexStore(weld ? Math.max(numXYZ, 16) : Math.max(numCorners, 16));
+    int[] vertexKeys = new int[weld ? numCorners*3 : 0];
+    int[] cornerVertex = new int[numCorners];
+
+    // Open-addressing table from corner keys to vertex indices, at most half full.
+    int tableSize = Integer.highestOneBit(Math.max(numCorners, 1)*2) << 1;
+    int[] table = new int[weld ? tableSize : 0];
+    Arrays.fill(table, -1);
+
+    for(int i = 0; i < numCorners; i++) {
+      int v = corners[i*3];
+      int vt = corners[i*3 + 1];
+      int vn = corners[i*3 + 2];
+
+      // Missing indices default to the position's index, as in WavefrontIO.
+      if(vt < 0 && stPerPosition) {
+        vt = v;
+      }
+      if(vn < 0 && nPerPosition) {
+        vn = v;
+      }
+      checkIndex(v, numXYZ);
+      if(vt >= 0) {
+        checkIndex(vt, numST);
+      }
+      if(vn >= 0) {
+        checkIndex(vn, numN);
+      }
+
+      if(weld) {
+        int slot = hash(v, vt, vn) & (tableSize - 1);
+        int found = -1;
+        while(table[slot] >= 0) {
+          int k = table[slot]*3;
+          if(vertexKeys[k] == v && vertexKeys[k + 1] == vt && vertexKeys[k + 2] == vn) {
+            found = table[slot];
+            break;
+          }
+          slot = (slot + 1) & (tableSize - 1);
+        }
+
+        if(found >= 0) {
+          cornerVertex[i] = found;
+          continue;
+        }
+
+        int index = store.size();
+        table[slot] = index;
+        vertexKeys[index*3] = v;
+        vertexKeys[index*3 + 1] = vt;
+        vertexKeys[index*3 + 2] = vn;
+      }
+
+      cornerVertex[i] = addVertex(store, v, vt, vn);
+    }
+
+    Poly3f result = new Poly3f(store);
+    result.addFaces(cornerVertex, 0, numCorners/3);
+    return result;
+  }
+
+
+  /** Adds a vertex to a store from its position, texture coordinate, and normal indices. */
+  private int addVertex(VertexStore store, int v, int vt, int vn) {
+    int result = store.add(xyz[v*3], xyz[v*3 + 1], xyz[v*3 + 2]);
+    if(vt >= 0) {
+      store.setTexCoords(result, st[vt*2], st[vt*2 + 1]);
+    }
+    if(vn >= 0) {
+      store.setNormal(result, n[vn*3], n[vn*3 + 1], n[vn*3 + 2]);
+    }
+    return result;
+  }
+
+
+  private static void checkIndex(int index, int count) {
+    if(index < 0 || index >= count) {
+      throw new PwneeGLError("Wavefront OBJ face index out of range: " + (index + 1));
+    }
+  }
+
+
+  /** Hashes a corner's indices. */
+  private static int hash(int v, int vt, int vn) {
+    int h = v*0x9E3779B1;
+    h ^= (vt + 1)*0x85EBCA77;
+    h ^= (vn + 1)*0xC2B2AE3D;
+    return h ^ (h >>> 16);
+  }
+}
@@ -1,14 +1,14 @@
 package pwneegl.geom.io;
 
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import pwneegl.PwneeGLError;
 import pwneegl.geom.Face3f;
@@ -23,24 +23,57 @@ public class WavefrontIO {
   
   /** Reads the object from a file path. */
   public static Poly3f readFromFile(String path) {
-    FileReader fr;
-    try {
-      fr = new FileReader(path);
-    }
-    catch (FileNotFoundException e) {
-      throw new PwneeGLError("Could not load Wavefront OBJ file: " + path, e);
-    }
-    return readFromReader(fr);
+    return readFromFile(path, false);
+  }
+  
+  /** 
+   * Reads the object from a file path. If weld is true, face corners with 
+   * the same position, texture coordinates, and normal share a single vertex.
+   * The file is memory-mapped and parsed by ObjParser. A binary copy of the 
+   * result is cached next to the file, and later reads load that instead 
+   * while the file is unchanged. (See MeshCache)
+   */
+  public static Poly3f readFromFile(String path, boolean weld) {
+    return MeshCache.readObj(path, weld, false);
+  }
+  
+  /** 
+   * Reads the object from a file path, parsing chunks of the file in 
+   * parallel. The result is the same as readFromFile's. This is worthwhile 
+   * for files of several megabytes or more. Like readFromFile, the result 
+   * is cached.
+   */
+  public static Poly3f readFromFileParallel(String path, boolean weld) {
+    return MeshCache.readObj(path, weld, true);
   }
   
   /** Reads the object from a resource path. */
   public static Poly3f readFromResource(String path) {
+    return readFromResource(path, false);
+  }
+  
+  /** 
+   * Reads the object from a resource path. If weld is true, face corners with 
+   * the same position, texture coordinates, and normal share a single vertex.
+   */
+  public static Poly3f readFromResource(String path, boolean weld) {
     InputStream is = new WavefrontIO().getClass().getClassLoader().getResourceAsStream(path);
-    return readFromReader(new InputStreamReader(is));
+    return readFromReader(new InputStreamReader(is), weld);
   }
   
   /** Reads the object from a Reader. */
   public static Poly3f readFromReader(Reader r) {
+    return readFromReader(r, false);
+  }
+  
+  /** 
+   * Reads the object from a Reader. 
+   * If weld is true, face corners with the same position, texture 
+   * coordinates, and normal share a single vertex, producing an indexed mesh 
+   * with about a third as many vertices. Otherwise, every face corner gets 
+   * its own vertex.
+   */
+  public static Poly3f readFromReader(Reader r, boolean weld) {
     BufferedReader br = new BufferedReader(r);
     
     List<float[]> xyz = new ArrayList<>();
@@ -49,6 +82,7 @@ public class WavefrontIO {
     
     List<Vertex3f> vertices = new ArrayList<>();
     List<Face3f> faces = new ArrayList<>();
+    Map<VertexKey, Integer> welded = new HashMap<>();
     
     try {
       String line = br.readLine().replace("  ", " ");
@@ -81,26 +115,25 @@ public class WavefrontIO {
         
         // Specify a face
         else if(line.startsWith("f ")) {
-          int index = vertices.size();
           
           // tri poly
           if(tokens.length == 4) {
-            vertices.add(createVertex(xyz, st, n, tokens[1]));
-            vertices.add(createVertex(xyz, st, n, tokens[2]));
-            vertices.add(createVertex(xyz, st, n, tokens[3]));
+            int i1 = addVertex(xyz, st, n, tokens[1], vertices, welded, weld);
+            int i2 = addVertex(xyz, st, n, tokens[2], vertices, welded, weld);
+            int i3 = addVertex(xyz, st, n, tokens[3], vertices, welded, weld);
             
-            faces.add(new Face3f(index, index+1, index+2));
+            faces.add(new Face3f(i1, i2, i3));
           }
           
           // quad poly
           if(tokens.length == 5) {
-            vertices.add(createVertex(xyz, st, n, tokens[1]));
-            vertices.add(createVertex(xyz, st, n, tokens[2]));
-            vertices.add(createVertex(xyz, st, n, tokens[3]));
-            vertices.add(createVertex(xyz, st, n, tokens[4]));
+            int i1 = addVertex(xyz, st, n, tokens[1], vertices, welded, weld);
+            int i2 = addVertex(xyz, st, n, tokens[2], vertices, welded, weld);
+            int i3 = addVertex(xyz, st, n, tokens[3], vertices, welded, weld);
+            int i4 = addVertex(xyz, st, n, tokens[4], vertices, welded, weld);
             
-            faces.add(new Face3f(index, index+1, index+2));
-            faces.add(new Face3f(index, index+2, index+3));
+            faces.add(new Face3f(i1, i2, i3));
+            faces.add(new Face3f(i1, i3, i4));
           }
           
         }
@@ -116,31 +149,102 @@ public class WavefrontIO {
   }
   
   
-  private static Vertex3f createVertex(List<float[]> xyz, List<float[]> st, List<float[]> n, String token) {
+  /** 
+   * Returns the index of the vertex for a face corner token, adding a new 
+   * vertex to the list unless welding is on and an identical one already 
+   * exists. 
+   */
+  private static int addVertex(List<float[]> xyz, List<float[]> st, List<float[]> n, String token, 
+                                List<Vertex3f> vertices, Map<VertexKey, Integer> welded, boolean weld) {
+    VertexKey key = parseVertexKey(xyz, st, n, token);
+    
+    if(weld) {
+      Integer existing = welded.get(key);
+      if(existing != null) {
+        return existing;
+      }
+      welded.put(key, vertices.size());
+    }
+    
+    vertices.add(createVertex(xyz, st, n, key));
+    return vertices.size() - 1;
+  }
+  
+  
+  /** 
+   * Resolves the position, texture coordinate, and normal indices of a face 
+   * corner token. Missing indices fall back to the position index when there 
+   * are as many texture coordinates or normals as positions, and are -1 
+   * otherwise.
+   */
+  private static VertexKey parseVertexKey(List<float[]> xyz, List<float[]> st, List<float[]> n, String token) {
     String[] v = token.split("/");
     
     int xyzIndex = Integer.parseInt(v[0]) - 1;
-    Vertex3f result = new Vertex3f(xyz.get(xyzIndex));
+    int stIndex = -1;
+    int nIndex = -1;
     
     if(v.length >= 2 && !"".equals(v[1])) {
-      int stIndex = Integer.parseInt(v[1]) - 1;
-      result.setTexCoords(st.get(stIndex));
+      stIndex = Integer.parseInt(v[1]) - 1;
     }
     else if(st.size() == xyz.size()) {
-      result.setTexCoords(st.get(xyzIndex));
+      stIndex = xyzIndex;
     }
     
     if(v.length >= 3 && !"".equals(v[2])) {
-      int nIndex = Integer.parseInt(v[2]) - 1;
-      result.setNormal(n.get(nIndex));
+      nIndex = Integer.parseInt(v[2]) - 1;
     }
     else if(n.size() == xyz.size()) {
-      result.setNormal(n.get(xyzIndex));
+      nIndex = xyzIndex;
     }
     
+    return new VertexKey(xyzIndex, stIndex, nIndex);
+  }
+  
+  
+  private static Vertex3f createVertex(List<float[]> xyz, List<float[]> st, List<float[]> n, VertexKey key) {
+    Vertex3f result = new Vertex3f(xyz.get(key.xyzIndex));
+    
+    if(key.stIndex >= 0) {
+      result.setTexCoords(st.get(key.stIndex));
+    }
+    
+    if(key.nIndex >= 0) {
+      result.setNormal(n.get(key.nIndex));
+    }
     
     return result;
   }
   
   
+  /** The position, texture coordinate, and normal indices identifying a face corner. */
+  private static class VertexKey {
+    
+    int xyzIndex, stIndex, nIndex;
+    
+    VertexKey(int xyzIndex, int stIndex, int nIndex) {
+      this.xyzIndex = xyzIndex;
+      this.stIndex = stIndex;
+      this.nIndex = nIndex;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if(!(o instanceof VertexKey)) {
+        return false;
+      }
+      VertexKey other = (VertexKey) o;
+      return (xyzIndex == other.xyzIndex && stIndex == other.stIndex && nIndex == other.nIndex);
+    }
+    
+    @Override
+    public int hashCode() {
+      int result = xyzIndex;
+      result = 31*result + stIndex;
+      result = 31*result + nIndex;
+      return result;
+    }
+  }
+  
+  
 }
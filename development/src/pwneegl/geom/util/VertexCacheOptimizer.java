@@ -0,0 +1,373 @@
+package pwneegl.geom.util;
+
+import java.util.Arrays;
+
+import pwneegl.geom.Poly3f;
+
+
+/**
+ * Reorders the faces and vertices of a Poly3f so that the GPU can render it
+ * more efficiently.
+ *
+ * Faces are first reordered for post-transform vertex cache locality using
+ * Tom Forsyth's linear-speed greedy algorithm, so that consecutive triangles
+ * reuse recently transformed vertices. Vertices are then renumbered in the
+ * order the reordered faces first use them, so that vertex fetches read
+ * memory mostly sequentially.
+ *
+ * The quality of an ordering is measured by the average cache miss ratio
+ * (ACMR, transformed vertices per triangle, ideally around 0.5-0.7) and the
+ * average transform to vertex ratio (ATVR, transformed vertices per unique
+ * vertex, ideally 1.0), simulated for a FIFO cache.
+ *
+ * This is meant to be run once on a polygon after it is loaded, before it
+ * is first rendered.
+ */
+public class VertexCacheOptimizer {
+
+  /** The size of the vertex cache modelled by the optimizer. */
+  public static final int CACHE_SIZE = 32;
+
+  /** The size of the FIFO cache used to compute the statistics. */
+  public static final int FIFO_SIZE = 16;
+
+  /** The score given to the vertices of the most recently added triangle. */
+  private static final float LAST_TRI_SCORE = 0.75f;
+
+  /** How quickly the score of a vertex falls off with its position in the cache. */
+  private static final float CACHE_DECAY_POWER = 1.5f;
+
+  /** How strongly vertices with few remaining triangles are preferred. */
+  private static final float VALENCE_BOOST_SCALE = 2.0f;
+
+  /** How quickly the valence boost falls off with the number of remaining triangles. */
+  private static final float VALENCE_BOOST_POWER = 0.5f;
+
+
+  //////// Optimization
+
+  /**
+   * Reorders a polygon's faces and vertices in place for vertex cache and
+   * vertex fetch locality. Returns statistics comparing the polygon's
+   * orderings before and after.
+   */
+  public static CacheStatistics optimize(Poly3f poly) {
+    int[] indices = poly.getIndexArray();
+    int numIndices = poly.getNumIndices();
+    int numVertices = poly.getNumVertices();
+
+    float acmrBefore = acmr(indices, numIndices, numVertices, FIFO_SIZE);
+    float atvrBefore = atvr(indices, numIndices, numVertices, FIFO_SIZE);
+
+    int[] faceOrder = optimizeFaces(indices, numIndices, numVertices);
+    int[] reordered = new int[numIndices];
+    for(int i = 0; i < faceOrder.length; i++) {
+      System.arraycopy(indices, faceOrder[i]*3, reordered, i*3, 3);
+    }
+
+    // Meshes exported by modelling tools are sometimes already well ordered.
+    // Keep their triangle order if the new one doesn't improve it.
+    if(acmr(reordered, numIndices, numVertices, FIFO_SIZE) >= acmrBefore) {
+      for(int i = 0; i < faceOrder.length; i++) {
+        faceOrder[i] = i;
+      }
+    }
+
+    int[] vertexRemap = optimizeVertexFetch(indices, faceOrder, numVertices);
+    poly.reorder(faceOrder, vertexRemap);
+
+    indices = poly.getIndexArray();
+    float acmrAfter = acmr(indices, numIndices, numVertices, FIFO_SIZE);
+    float atvrAfter = atvr(indices, numIndices, numVertices, FIFO_SIZE);
+
+    return new CacheStatistics(acmrBefore, atvrBefore, acmrAfter, atvrAfter);
+  }
+
+
+  /**
+   * Computes an order of triangles with good vertex cache locality.
+   * @param indices       The vertex indices of the triangles, 3 per triangle.
+   * @param numIndices    The number of indices to use from indices.
+   * @param numVertices   The number of vertices the indices refer to.
+   * @return  The old indices of the triangles, in their new order.
+   */
+  public static int[] optimizeFaces(int[] indices, int numIndices, int numVertices) {
+    int numFaces = numIndices/3;
+    int[] result = new int[numFaces];
+
+    // Build the lists of triangles using each vertex. The triangles which
+    // haven't been added yet are kept at the front of each vertex's list.
+    int[] numActive = new int[numVertices];
+    for(int i = 0; i < numIndices; i++) {
+      numActive[indices[i]]++;
+    }
+
+    int[] offsets = new int[numVertices + 1];
+    for(int v = 0; v < numVertices; v++) {
+      offsets[v + 1] = offsets[v] + numActive[v];
+    }
+
+    int[] adjacency = new int[numIndices];
+    int[] fill = new int[numVertices];
+    for(int i = 0; i < numIndices; i++) {
+      int v = indices[i];
+      adjacency[offsets[v] + fill[v]] = i/3;
+      fill[v]++;
+    }
+
+    // Initial scores.
+    int[] cachePos = new int[numVertices];
+    Arrays.fill(cachePos, -1);
+
+    float[] vertexScores = new float[numVertices];
+    for(int v = 0; v < numVertices; v++) {
+      vertexScores[v] = vertexScore(-1, numActive[v]);
+    }
+
+    float[] faceScores = new float[numFaces];
+    boolean[] added = new boolean[numFaces];
+    int bestFace = -1;
+    float bestScore = Float.NEGATIVE_INFINITY;
+    for(int f = 0; f < numFaces; f++) {
+      faceScores[f] = vertexScores[indices[f*3]] + vertexScores[indices[f*3 + 1]] + vertexScores[indices[f*3 + 2]];
+      if(faceScores[f] > bestScore) {
+        bestScore = faceScores[f];
+        bestFace = f;
+      }
+    }
+
+    int[] cache = new int[CACHE_SIZE + 3];
+    int[] newCache = new int[CACHE_SIZE + 3];
+    int cacheCount = 0;
+    int cursor = 0;
+
+    for(int n = 0; n < numFaces; n++) {
+
+      // No triangles touch the cache. Start over from the next unadded one.
+      if(bestFace < 0) {
+        while(added[cursor]) {
+          cursor++;
+        }
+        bestFace = cursor;
+      }
+
+      result[n] = bestFace;
+      added[bestFace] = true;
+
+      // Remove the triangle from its vertices' lists and put its vertices at
+      // the front of the cache.
+      int newCount = 0;
+      for(int k = 0; k < 3; k++) {
+        int v = indices[bestFace*3 + k];
+
+        int start = offsets[v];
+        int end = start + numActive[v];
+        for(int j = start; j < end; j++) {
+          if(adjacency[j] == bestFace) {
+            adjacency[j] = adjacency[end - 1];
+            adjacency[end - 1] = bestFace;
+            break;
+          }
+        }
+        numActive[v]--;
+
+        if(indexOf(newCache, newCount, v) < 0) {
+          newCache[newCount] = v;
+          newCount++;
+        }
+      }
+      int numNew = newCount;
+      for(int i = 0; i < cacheCount; i++) {
+        int v = cache[i];
+        if(indexOf(newCache, numNew, v) < 0) {
+          newCache[newCount] = v;
+          newCount++;
+        }
+      }
+
+      // Update the scores of the vertices that moved in or out of the cache
+      // and find the best triangle among their remaining triangles.
+      bestFace = -1;
+      bestScore = Float.NEGATIVE_INFINITY;
+      for(int i = 0; i < newCount; i++) {
+        int v = newCache[i];
+        cachePos[v] = (i < CACHE_SIZE) ? i : -1;
+
+        float score = vertexScore(cachePos[v], numActive[v]);
+        float diff = score - vertexScores[v];
+        vertexScores[v] = score;
+
+        int start = offsets[v];
+        int end = start + numActive[v];
+        for(int j = start; j < end; j++) {
+          int f = adjacency[j];
+          faceScores[f] += diff;
+          if(faceScores[f] > bestScore) {
+            bestScore = faceScores[f];
+            bestFace = f;
+          }
+        }
+      }
+
+      int[] temp = cache;
+      cache = newCache;
+      newCache = temp;
+      cacheCount = Math.min(newCount, CACHE_SIZE);
+    }
+
+    return result;
+  }
+
+
+  /**
+   * Computes the score of a vertex, given its position in the cache (-1 if
+   * it isn't in the cache) and its number of triangles that haven't been
+   * added yet.
+   */
+  private static float vertexScore(int cachePos, int numActive) {
+    if(numActive == 0) {
+      return -1f;
+    }
+
+    float score = 0f;
+    if(cachePos >= 0) {
+      if(cachePos < 3) {
+        score = LAST_TRI_SCORE;
+      }
+      else {
+        float scaler = 1f/(CACHE_SIZE - 3);
+        score = (float) Math.pow(1f - (cachePos - 3)*scaler, CACHE_DECAY_POWER);
+      }
+    }
+
+    score += VALENCE_BOOST_SCALE*(float) Math.pow(numActive, -VALENCE_BOOST_POWER);
+    return score;
+  }
+
+
+  /** Returns the index of value among the first count elements of arr, or -1. */
+  private static int indexOf(int[] arr, int count, int value) {
+    for(int i = 0; i < count; i++) {
+      if(arr[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+
+  /**
+   * Computes a renumbering of the vertices in the order that they are first
+   * used by the triangles, once they are in the given order. Vertices which
+   * aren't used by any triangle are moved to the end.
+   * @return  The new index for each old vertex index.
+   */
+  public static int[] optimizeVertexFetch(int[] indices, int[] faceOrder, int numVertices) {
+    int[] result = new int[numVertices];
+    Arrays.fill(result, -1);
+    int next = 0;
+
+    for(int f : faceOrder) {
+      for(int k = 0; k < 3; k++) {
+        int v = indices[f*3 + k];
+        if(result[v] < 0) {
+          result[v] = next;
+          next++;
+        }
+      }
+    }
+
+    for(int v = 0; v < numVertices; v++) {
+      if(result[v] < 0) {
+        result[v] = next;
+        next++;
+      }
+    }
+
+    return result;
+  }
+
+
+  //////// Statistics
+
+  /** Returns the number of vertex transforms needed to render the triangles with a FIFO cache of the given size. */
+  public static int countTransforms(int[] indices, int numIndices, int numVertices, int cacheSize) {
+    int[] insertedAt = new int[numVertices];
+    Arrays.fill(insertedAt, Integer.MIN_VALUE/2);
+    int misses = 0;
+
+    for(int i = 0; i < numIndices; i++) {
+      int v = indices[i];
+      if(misses - insertedAt[v] > cacheSize) {
+        insertedAt[v] = misses;
+        misses++;
+      }
+    }
+    return misses;
+  }
+
+
+  /** Returns the average number of vertex transforms per triangle with a FIFO cache of the given size. */
+  public static float acmr(int[] indices, int numIndices, int numVertices, int cacheSize) {
+    int numFaces = numIndices/3;
+    if(numFaces == 0) {
+      return 0f;
+    }
+    return (float) countTransforms(indices, numIndices, numVertices, cacheSize)/numFaces;
+  }
+
+
+  /** Returns the average number of transforms per used vertex with a FIFO cache of the given size. */
+  public static float atvr(int[] indices, int numIndices, int numVertices, int cacheSize) {
+    boolean[] used = new boolean[numVertices];
+    int numUsed = 0;
+    for(int i = 0; i < numIndices; i++) {
+      if(!used[indices[i]]) {
+        used[indices[i]] = true;
+        numUsed++;
+      }
+    }
+    if(numUsed == 0) {
+      return 0f;
+    }
+    return (float) countTransforms(indices, numIndices, numVertices, cacheSize)/numUsed;
+  }
+
+
+  /** The vertex cache statistics of a polygon before and after it was optimized. */
+  public static class CacheStatistics {
+
+    private float acmrBefore, atvrBefore, acmrAfter, atvrAfter;
+
+    public CacheStatistics(float acmrBefore, float atvrBefore, float acmrAfter, float atvrAfter) {
+      this.acmrBefore = acmrBefore;
+      this.atvrBefore = atvrBefore;
+      this.acmrAfter = acmrAfter;
+      this.atvrAfter = atvrAfter;
+    }
+
+    /** Returns the average cache miss ratio before optimization. */
+    public float getACMRBefore() {
+      return acmrBefore;
+    }
+
+    /** Returns the average transform to vertex ratio before optimization. */
+    public float getATVRBefore() {
+      return atvrBefore;
+    }
+
+    /** Returns the average cache miss ratio after optimization. */
+    public float getACMRAfter() {
+      return acmrAfter;
+    }
+
+    /** Returns the average transform to vertex ratio after optimization. */
+    public float getATVRAfter() {
+      return atvrAfter;
+    }
+
+    public String toString() {
+      return String.format("ACMR %.3f -> %.3f, ATVR %.3f -> %.3f", acmrBefore, acmrAfter, atvrBefore, atvrAfter);
+    }
+  }
+}
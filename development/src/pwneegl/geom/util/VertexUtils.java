@@ -1,9 +1,9 @@
 package pwneegl.geom.util;
 
-import java.util.List;
-
 import pwneegl.geom.Poly3f;
 import pwneegl.geom.Vertex3f;
+import pwneegl.geom.data.VertexStore;
+import pwneegl.math.BatchMath;
 import pwneegl.math.Point3f;
 import pwneegl.math.PwneeMath;
 import pwneegl.math.Vector3f;
@@ -14,19 +14,26 @@ public class VertexUtils {
   
   /** 
    * Generates and sets the vertex normals for a Poly3f, using spherical 
-   * coordinates. 
+   * coordinates. This works directly on the arrays of the polygon's 
+   * VertexStore, normalizing all the vectors in one batch with BatchMath.
    */
   public static void genNormalsSphere(Poly3f shape) {
     Point3f center = getCenter(shape);
+    float cx = center.getX();
+    float cy = center.getY();
+    float cz = center.getZ();
     
-    for(Vertex3f v : shape.getVertices()) {
-      Vector3f vec = new Vector3f(  v.getX() - center.getX(), 
-                                    v.getY() - center.getY(), 
-                                    v.getZ() - center.getZ());
-      vec = vec.normalize();
-      
-      v.setNormal(vec.getCoords());
+    VertexStore store = shape.getVertexStore();
+    float[] positions = store.getPositions();
+    float[] normals = store.getNormals();
+    int n = store.size()*3;
+    for(int i = 0; i < n; i += 3) {
+      normals[i] = positions[i] - cx;
+      normals[i + 1] = positions[i + 1] - cy;
+      normals[i + 2] = positions[i + 2] - cz;
     }
+    BatchMath.normalize(normals, store.size());
+    shape.markDirty();
   }
   
   
@@ -53,20 +60,21 @@ public class VertexUtils {
   
   /** Returns the central point of a shape. This is the average point among all the vertices in the shape. */
   public static Point3f getCenter(Poly3f shape) {
-    List<Vertex3f> vertices = shape.getVertices();
+    VertexStore store = shape.getVertexStore();
+    float[] positions = store.getPositions();
     
     // find the center of the shape by averaging its vertices.
     float avgX = 0;
     float avgY = 0;
     float avgZ = 0;
-    for(Vertex3f v : vertices) {
-      avgX += v.getX();
-      avgY += v.getY();
-      avgZ += v.getZ();
+    for(int i = 0; i < store.size(); i++) {
+      avgX += positions[i*3];
+      avgY += positions[i*3 + 1];
+      avgZ += positions[i*3 + 2];
     }
-    avgX /= vertices.size();
-    avgY /= vertices.size();
-    avgZ /= vertices.size();
+    avgX /= store.size();
+    avgY /= store.size();
+    avgZ /= store.size();
     
     return new Point3f(avgX, avgY, avgZ);
   }
@@ -34,6 +34,7 @@ import javax.media.opengl.GL2;
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
+import pwneegl.GLState;
 import pwneegl.math.PwneeMath;
 
 /** Defines a fog effect. */
@@ -118,18 +119,28 @@ public class Fog {
     this.mode = mode;
   }
   
+  /** Returns the depth-cueing mode of the fog. (GL_LINEAR, GL_EXP, or GL_EXP2) */
+  public float getMode() {
+    return mode;
+  }
+  
   //////// Density
   
   public void setDensity(float density) {
     this.density = density;
   }
   
+  /** Returns the density of the fog. */
+  public float getDensity() {
+    return density;
+  }
+  
   //////// Rendering
   
   /** Applies this material to the OpenGL state. */
   public void glFog(GL2 gl) {
     
-    gl.glEnable(GL_FOG);
+    GLState.enable(gl, GL_FOG);
     gl.glFogf(GL_FOG_MODE, mode);
     gl.glFogf(GL_FOG_DENSITY, density);
     gl.glFogfv(GL_FOG_COLOR, color, 0);
@@ -0,0 +1,66 @@
+package pwneegl.light;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import pwneegl.shader.UniformBlock;
+
+/** 
+ * The fog uniform block. Shaders declare it as:
+ * 
+ *    layout(std140) uniform Fog {
+ *      vec4 fogColor;
+ *      int fogMode;       // GL_LINEAR, GL_EXP, or GL_EXP2
+ *      float fogDensity;
+ *    };
+ */
+public class FogBlock extends UniformBlock {
+  
+  /** The name of the block in the shaders. */
+  public static final String NAME = "Fog";
+  
+  private static final int COLOR = 0;
+  private static final int MODE = 16;
+  private static final int DENSITY = 20;
+  private static final int SIZE = 24;
+  
+  
+  public FogBlock() {
+    super(NAME, FOG_BINDING, SIZE);
+  }
+  
+  
+  /** Writes a fog's color, mode, and density into the block. */
+  public void setFog(Fog fog) {
+    float[] color = fog.getColor();
+    putVec4(COLOR, color[0], color[1], color[2], 1f);
+    putInt(MODE, (int) fog.getMode());
+    putFloat(DENSITY, fog.getDensity());
+  }
+}
@@ -28,6 +28,8 @@ package pwneegl.light;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 ======================================================================*/
 
+import java.util.Arrays;
+
 import javax.media.opengl.GL2;
 
 /** Represents an OpenGL light source. */
@@ -205,6 +207,33 @@ public abstract class Light {
   }
   
   
+  //////// Uniform blocks
+  
+  /** The number of floats a light takes up in a LightBlock. */
+  public static final int BLOCK_FLOATS = 28;
+  
+  /** 
+   * Writes the light into a float array as the LightData struct of a 
+   * LightBlock: position, ambient, diffuse, specular, attenuation, 
+   * spotDirection, and spotParams, each a vec4. Positions are in world 
+   * coordinates. The base light has no position or spot cone; subclasses 
+   * fill in the parts they have.
+   */
+  public void writeBlock(float[] dst, int off) {
+    Arrays.fill(dst, off, off + BLOCK_FLOATS, 0f);
+    dst[off + 2] = 1f;
+    System.arraycopy(ambient, 0, dst, off + 4, 4);
+    System.arraycopy(diffuse, 0, dst, off + 8, 4);
+    System.arraycopy(specular, 0, dst, off + 12, 4);
+    System.arraycopy(attenuation, 0, dst, off + 16, 3);
+    dst[off + 22] = -1f;
+    
+    // Not a spotlight: a 180 degree cutoff, like GL_SPOT_CUTOFF.
+    dst[off + 24] = 180f;
+    dst[off + 26] = -1f;
+  }
+  
+  
   ////////
   
   /** 
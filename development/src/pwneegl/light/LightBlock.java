@@ -0,0 +1,120 @@
+package pwneegl.light;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.util.List;
+
+import pwneegl.PwneeGLError;
+import pwneegl.shader.UniformBlock;
+
+/** 
+ * The lights uniform block, holding up to MAX_LIGHTS lights of any kind 
+ * packed into one array, so that shaders aren't limited to the 8 
+ * fixed-function lights. Shaders declare it as:
+ * 
+ *    struct LightData {
+ *      vec4 position;       // w is 0 for directional lights.
+ *      vec4 ambient;
+ *      vec4 diffuse;
+ *      vec4 specular;
+ *      vec4 attenuation;    // constant, linear, quadratic
+ *      vec4 spotDirection;
+ *      vec4 spotParams;     // cutoff angle (180 for non-spotlights), exponent, cos(cutoff)
+ *    };
+ *    
+ *    layout(std140) uniform Lights {
+ *      int numLights;
+ *      LightData lights[16];
+ *    };
+ * 
+ * The positions and directions are in world coordinates, unlike those 
+ * given to glLight, which are transformed by the model-view matrix.
+ */
+public class LightBlock extends UniformBlock {
+  
+  /** The name of the block in the shaders. */
+  public static final String NAME = "Lights";
+  
+  /** The largest number of lights the block holds. */
+  public static final int MAX_LIGHTS = 16;
+  
+  private static final int NUM_LIGHTS = 0;
+  private static final int LIGHTS = 16;
+  private static final int LIGHT_STRIDE = Light.BLOCK_FLOATS*4;
+  
+  
+  /** The number of lights in the block. */
+  private int numLights = 0;
+  
+  /** Scratch array for writing a light. */
+  private float[] scratch = new float[Light.BLOCK_FLOATS];
+  
+  
+  public LightBlock() {
+    super(NAME, LIGHTS_BINDING, LIGHTS + MAX_LIGHTS*LIGHT_STRIDE);
+    putInt(NUM_LIGHTS, 0);
+  }
+  
+  
+  /** Removes all the lights from the block. */
+  public void clear() {
+    numLights = 0;
+    putInt(NUM_LIGHTS, 0);
+  }
+  
+  /** Returns the number of lights in the block. */
+  public int getNumLights() {
+    return numLights;
+  }
+  
+  /** 
+   * Adds a light to the block and returns its index in the lights array. 
+   * A PwneeGLError is thrown if the block is full.
+   */
+  public int add(Light light) {
+    if(numLights == MAX_LIGHTS) {
+      throw new PwneeGLError("LightBlock can't hold more than " + MAX_LIGHTS + " lights.");
+    }
+    
+    light.writeBlock(scratch, 0);
+    putFloats(LIGHTS + numLights*LIGHT_STRIDE, scratch, 0, Light.BLOCK_FLOATS);
+    numLights++;
+    putInt(NUM_LIGHTS, numLights);
+    return numLights - 1;
+  }
+  
+  /** Replaces the lights in the block with a list of lights. */
+  public void setLights(List<? extends Light> lights) {
+    clear();
+    for(Light light : lights) {
+      add(light);
+    }
+  }
+}
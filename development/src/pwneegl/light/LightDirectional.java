@@ -38,6 +38,7 @@ import javax.media.opengl.GL2;
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
+import pwneegl.GLState;
 import pwneegl.math.Point3f;
 
 public class LightDirectional extends Light {
@@ -80,6 +81,19 @@ public class LightDirectional extends Light {
   
   
   
+  //////// Uniform blocks
+  
+  /** Writes the light into a LightBlock's LightData struct, with its direction as a position at infinity. */
+  @Override
+  public void writeBlock(float[] dst, int off) {
+    super.writeBlock(dst, off);
+    dst[off] = x;
+    dst[off + 1] = y;
+    dst[off + 2] = z;
+    dst[off + 3] = 0f;
+  }
+  
+  
   //////// Rendering
   
   /** 
@@ -88,7 +102,7 @@ public class LightDirectional extends Light {
    * implement the lights in a shader program. TODO)
    */
   public void glLight(GL2 gl, int index) {
-    gl.glEnable(GL_LIGHTING);
+    GLState.enable(gl, GL_LIGHTING);
     
     // Get the GL constant for our light index.
     int glLight = GL_LIGHT0;
@@ -115,7 +129,7 @@ public class LightDirectional extends Light {
     }
     
     // set up the light.
-    gl.glEnable(glLight);
+    GLState.enable(gl, glLight);
     
     gl.glLightfv(glLight, GL_POSITION, new float[] {x, y, z, 0f}, 0);
     gl.glLightfv(glLight, GL_AMBIENT, getAmbient(), 0);
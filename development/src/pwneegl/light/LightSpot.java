@@ -38,6 +38,7 @@ import javax.media.opengl.GL2;
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
+import pwneegl.GLState;
 import pwneegl.math.Point3f;
 
 /** A spotlight. */
@@ -107,6 +108,31 @@ public class LightSpot extends Light {
     return result;
   }
   
+  //////// Uniform blocks
+  
+  /** 
+   * Writes the light into a LightBlock's LightData struct, with its 
+   * position, direction, and its cutoff angle, exponent, and the cosine of 
+   * its cutoff angle as spotParams.
+   */
+  @Override
+  public void writeBlock(float[] dst, int off) {
+    super.writeBlock(dst, off);
+    dst[off] = x;
+    dst[off + 1] = y;
+    dst[off + 2] = z;
+    dst[off + 3] = 1f;
+    
+    dst[off + 20] = dx;
+    dst[off + 21] = dy;
+    dst[off + 22] = dz;
+    
+    dst[off + 24] = cutoffAngle;
+    dst[off + 25] = spotExponent;
+    dst[off + 26] = (float) Math.cos(Math.toRadians(cutoffAngle));
+  }
+  
+  
   //////// Rendering
   
   /** 
@@ -115,7 +141,7 @@ public class LightSpot extends Light {
    * implement the lights in a shader program. TODO)
    */
   public void glLight(GL2 gl, int index) {
-    gl.glEnable(GL_LIGHTING);
+    GLState.enable(gl, GL_LIGHTING);
     
     // Get the GL constant for our light index.
     int glLight = GL_LIGHT0;
@@ -142,7 +168,7 @@ public class LightSpot extends Light {
     }
     
     // set up the light.
-    gl.glEnable(glLight);
+    GLState.enable(gl, glLight);
     
     gl.glLightfv(glLight, GL_POSITION, getCoords(), 0);
     gl.glLightfv(glLight, GL_SPOT_DIRECTION, getDirection(), 0);
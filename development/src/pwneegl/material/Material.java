@@ -34,6 +34,7 @@ import javax.media.opengl.GL2;
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
+import pwneegl.GLState;
 import pwneegl.math.PwneeMath;
 
 /** Defines a colored surface material. */
@@ -253,14 +254,20 @@ public class Material {
   
   /** Applies this material to the OpenGL state. */
   public void glMaterial(GL2 gl) {
-    
-    gl.glDisable(GL_TEXTURE_2D);
-    gl.glMaterialfv(GL_FRONT, GL_AMBIENT, ambient, 0);
-    gl.glMaterialfv(GL_FRONT, GL_DIFFUSE, diffuse, 0);
-    gl.glMaterialfv(GL_FRONT, GL_SPECULAR, specular, 0);
-    gl.glMaterialf(GL_FRONT, GL_SHININESS, shininess);
-    gl.glMaterialfv(GL_FRONT, GL_EMISSION, emission, 0);
-    
+    GLState.disable(gl, GL_TEXTURE_2D);
+    glMaterialColors(gl);
+  }
+  
+  /** 
+   * Applies this material's colors and shininess to the front material 
+   * state. Values that are already set aren't set again.
+   */
+  protected void glMaterialColors(GL2 gl) {
+    GLState.material(gl, GL_FRONT, GL_AMBIENT, ambient, 0);
+    GLState.material(gl, GL_FRONT, GL_DIFFUSE, diffuse, 0);
+    GLState.material(gl, GL_FRONT, GL_SPECULAR, specular, 0);
+    GLState.material(gl, GL_FRONT, GL_SHININESS, shininess);
+    GLState.material(gl, GL_FRONT, GL_EMISSION, emission, 0);
   }
   
   /** 
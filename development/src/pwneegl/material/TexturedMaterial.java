@@ -42,10 +42,13 @@ import javax.media.opengl.GL2;
 
 import com.jogamp.opengl.util.texture.awt.AWTTextureIO;
 import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
 
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
+import pwneegl.GLState;
 import pwneegl.PwneeGLError;
 import pwneegl.math.PwneeMath;
 import pwneegl.shader.ShaderLibrary;
@@ -104,12 +107,49 @@ public class TexturedMaterial extends Material {
     this(path, false, GL_TEXTURE0);
   }
   
+  /** 
+   * Creates the textured material from an already decoded source image. The 
+   * texture will be loaded into graphics memory using the specified active 
+   * texture number (i.e.: GL_TEXTUREi).
+   */
+  public TexturedMaterial(BufferedImage image, int activeTexNum) {
+    super(0x000000);
+    this.image = image;
+    texture = null;
+    this.activeTexNum = activeTexNum;
+  }
+  
+  /** Creates the textured material from an already decoded source image. */
+  public TexturedMaterial(BufferedImage image) {
+    this(image, GL_TEXTURE0);
+  }
+  
   
   /** 
    * Loads the texture into graphics memory. 
    */
   private void _initTexture(GL2 gl) {
     texture = AWTTextureIO.newTexture(gl.getGLProfile(), image, false);
+    
+    // JOGL binds the new texture to the active unit behind GLState's back.
+    GLState.forgetActiveTexture();
+  }
+  
+  /** 
+   * Loads the texture into graphics memory from texture data that was 
+   * prepared in advance, such as on an asset loading thread, so that the 
+   * image doesn't need to be converted on the GL thread. 
+   */
+  public void initTexture(GL2 gl, TextureData data) {
+    if(texture == null) {
+      texture = TextureIO.newTexture(data);
+      GLState.forgetActiveTexture();
+    }
+  }
+  
+  /** Returns true iff the texture has been loaded into graphics memory. */
+  public boolean isTextureLoaded() {
+    return (texture != null);
   }
   
   /**
@@ -129,6 +169,7 @@ public class TexturedMaterial extends Material {
   @Override
   public void clean(GL2 gl) {
     if(texture != null) {
+      GLState.forgetTexture(texture.getTextureObject(gl));
       texture.destroy(gl);
     }
   }
@@ -172,15 +213,11 @@ public class TexturedMaterial extends Material {
       _initTexture(gl);
     }
     
-    gl.glActiveTexture(activeTexNum);
-    texture.bind(gl);
+    GLState.activeTexture(gl, activeTexNum);
+    GLState.bindTexture(gl, texture.getTarget(), texture.getTextureObject(gl));
     ShaderLibrary.get().setUniformi(gl, uniName, activeTexNum - GL_TEXTURE0);
     
-    gl.glMaterialfv(GL_FRONT, GL_AMBIENT, getAmbient(), 0);
-    gl.glMaterialfv(GL_FRONT, GL_DIFFUSE, getDiffuse(), 0);
-    gl.glMaterialfv(GL_FRONT, GL_SPECULAR, getSpecular(), 0);
-    gl.glMaterialf(GL_FRONT, GL_SHININESS, getShininess());
-    gl.glMaterialfv(GL_FRONT, GL_EMISSION, getEmission(), 0);
+    glMaterialColors(gl);
   }
 }
 
@@ -0,0 +1,64 @@
+package pwneegl.math;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+/** 
+ * Batch math kernels over the flat float arrays used by VertexStore, where 
+ * each vector is stored as 3 consecutive floats. All offsets are in array 
+ * elements. BatchMath picks an implementation of these at runtime.
+ */
+public interface BatchKernels {
+  
+  /** 
+   * Transforms count points from src by a 4x4 column-major matrix, treating 
+   * them as having w = 1, and stores their xyz coordinates in dst. No 
+   * perspective divide is done. src and dst may be the same array. 
+   */
+  void transformPoints(float[] m, float[] src, int srcOff, float[] dst, int dstOff, int count);
+  
+  /** Normalizes count vectors in place. Zero-length vectors are left unchanged. */
+  void normalize(float[] v, int off, int count);
+  
+  /** 
+   * Computes the (not normalized) normal vectors of numFaces triangles, 
+   * given 3 vertex indices per face in CCW order, and stores them in dst. 
+   * This is the same as Face3f.getNormal for each face.
+   */
+  void faceNormals(float[] positions, int[] indices, int indexOff, float[] dst, int dstOff, int numFaces);
+  
+  /** 
+   * Computes the tangental vectors of numFaces triangles from their 
+   * positions and texture coordinates, given 3 vertex indices per face, and 
+   * stores them in dst. A face's tangent is the same at each of its 
+   * vertices. Faces whose texture coordinates are degenerate get the tangent 
+   * [1, 0, 0].
+   */
+  void faceTangents(float[] positions, float[] texCoords, int[] indices, int indexOff, float[] dst, int dstOff, int numFaces);
+}
@@ -0,0 +1,107 @@
+package pwneegl.math;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+/** 
+ * Batch math over whole arrays of vectors, such as the position, normal, and 
+ * tangent arrays of a VertexStore. 
+ * 
+ * If the JDK's incubating Vector API is available (Java 16+, run with 
+ * --add-modules jdk.incubator.vector) and the build included the 
+ * pwneegl.math.simd package, the kernels are run with SIMD instructions. 
+ * Otherwise, the portable ScalarKernels are used. This is decided once, when 
+ * the class is loaded. Setting the system property pwneegl.simd to false 
+ * forces the scalar kernels.
+ */
+public class BatchMath {
+  
+  /** The class name of the SIMD kernels. */
+  private static final String SIMD_KERNELS = "pwneegl.math.simd.VectorKernels";
+  
+  /** The kernels in use. */
+  private static final BatchKernels kernels = loadKernels();
+  
+  
+  /** Returns the SIMD kernels if they can be used, or else the scalar kernels. */
+  private static BatchKernels loadKernels() {
+    if(!"false".equals(System.getProperty("pwneegl.simd"))) {
+      try {
+        return (BatchKernels) Class.forName(SIMD_KERNELS).getDeclaredConstructor().newInstance();
+      }
+      catch(ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+        // The Vector API isn't available. Use the scalar kernels.
+      }
+    }
+    return new ScalarKernels();
+  }
+  
+  /** Returns the kernels in use. */
+  public static BatchKernels getKernels() {
+    return kernels;
+  }
+  
+  /** Returns true iff the SIMD kernels are in use. */
+  public static boolean isAccelerated() {
+    return (kernels.getClass() != ScalarKernels.class);
+  }
+  
+  
+  //////// Kernels
+  
+  /** 
+   * Transforms count points by a 4x4 column-major matrix, treating them as 
+   * having w = 1, and stores their xyz coordinates in dst. src and dst may 
+   * be the same array. 
+   */
+  public static void transformPoints(float[] m, float[] src, float[] dst, int count) {
+    kernels.transformPoints(m, src, 0, dst, 0, count);
+  }
+  
+  /** Normalizes the first count vectors of an array in place. Zero-length vectors are left unchanged. */
+  public static void normalize(float[] v, int count) {
+    kernels.normalize(v, 0, count);
+  }
+  
+  /** 
+   * Computes the (not normalized) normal vectors of numFaces triangles, 
+   * given 3 vertex indices per face, and stores them in dst. 
+   */
+  public static void faceNormals(float[] positions, int[] indices, float[] dst, int numFaces) {
+    kernels.faceNormals(positions, indices, 0, dst, 0, numFaces);
+  }
+  
+  /** 
+   * Computes the tangental vectors of numFaces triangles, given 3 vertex 
+   * indices per face, and stores them in dst. 
+   */
+  public static void faceTangents(float[] positions, float[] texCoords, int[] indices, float[] dst, int numFaces) {
+    kernels.faceTangents(positions, texCoords, indices, 0, dst, 0, numFaces);
+  }
+}
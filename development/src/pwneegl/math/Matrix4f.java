@@ -0,0 +1,325 @@
+package pwneegl.math;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import com.jogamp.opengl.math.FloatUtil;
+
+/** 
+ * A mutable 4x4 float matrix, stored in column-major order as OpenGL expects,
+ * so that its array can be passed straight to glLoadMatrixf, glMultMatrixf, 
+ * or glUniformMatrix4fv. 
+ * 
+ * Like the fixed-function matrix calls, translate, rotate, and scale 
+ * post-multiply this matrix by the transform, so that the last transform 
+ * applied is the first one applied to vertices. None of the methods 
+ * allocate anything.
+ */
+public class Matrix4f {
+  
+  /** The matrix's elements in column-major order. */
+  private float[] m = new float[16];
+  
+  
+  //////// Constructors
+  
+  /** Creates the identity matrix. */
+  public Matrix4f() {
+    setIdentity();
+  }
+  
+  /** Creates a copy of another matrix. */
+  public Matrix4f(Matrix4f other) {
+    set(other);
+  }
+  
+  
+  //////// Get/Set elements
+  
+  /** Returns the element at some row and column. */
+  public float get(int row, int col) {
+    return m[col*4 + row];
+  }
+  
+  /** Sets the element at some row and column. Returns this matrix. */
+  public Matrix4f set(int row, int col, float value) {
+    m[col*4 + row] = value;
+    return this;
+  }
+  
+  /** 
+   * Returns the matrix's own array of elements in column-major order. This 
+   * is meant for passing to OpenGL; changes to the array change the matrix.
+   */
+  public float[] getData() {
+    return m;
+  }
+  
+  /** Copies the elements in column-major order into dst, starting at index off, and returns dst. */
+  public float[] get(float[] dst, int off) {
+    System.arraycopy(m, 0, dst, off, 16);
+    return dst;
+  }
+  
+  /** Puts the elements in column-major order into a buffer at its current position. */
+  public void writeTo(FloatBuffer dst) {
+    dst.put(m, 0, 16);
+  }
+  
+  /** Sets this matrix to the identity. Returns this matrix. */
+  public Matrix4f setIdentity() {
+    Arrays.fill(m, 0f);
+    m[0] = 1f;
+    m[5] = 1f;
+    m[10] = 1f;
+    m[15] = 1f;
+    return this;
+  }
+  
+  /** Sets this matrix to be a copy of another. Returns this matrix. */
+  public Matrix4f set(Matrix4f other) {
+    System.arraycopy(other.m, 0, m, 0, 16);
+    return this;
+  }
+  
+  /** Sets this matrix from 16 elements in column-major order, starting at src[off]. Returns this matrix. */
+  public Matrix4f set(float[] src, int off) {
+    System.arraycopy(src, off, m, 0, 16);
+    return this;
+  }
+  
+  
+  //////// Multiplication
+  
+  /** Post-multiplies this matrix by another, so that this = this * b. Returns this matrix. */
+  public Matrix4f mul(Matrix4f b) {
+    return mulInto(this, b);
+  }
+  
+  /** 
+   * Sets this matrix to the product a * b. Either matrix may be this one. 
+   * Returns this matrix. 
+   */
+  public Matrix4f mulInto(Matrix4f a, Matrix4f b) {
+    float[] am = a.m;
+    float[] bm = b.m;
+    
+    ScratchPool pool = ScratchPool.get();
+    int mark = pool.mark();
+    try {
+      float[] result = pool.matrix().m;
+      for(int col = 0; col < 4; col++) {
+        float b0 = bm[col*4];
+        float b1 = bm[col*4 + 1];
+        float b2 = bm[col*4 + 2];
+        float b3 = bm[col*4 + 3];
+        for(int row = 0; row < 4; row++) {
+          result[col*4 + row] = am[row]*b0 + am[4 + row]*b1 + am[8 + row]*b2 + am[12 + row]*b3;
+        }
+      }
+      System.arraycopy(result, 0, m, 0, 16);
+    }
+    finally {
+      pool.release(mark);
+    }
+    return this;
+  }
+  
+  
+  //////// Transforms
+  
+  /** Post-multiplies this matrix by a translation. Returns this matrix. */
+  public Matrix4f translate(float x, float y, float z) {
+    for(int row = 0; row < 4; row++) {
+      m[12 + row] += m[row]*x + m[4 + row]*y + m[8 + row]*z;
+    }
+    return this;
+  }
+  
+  /** Post-multiplies this matrix by a scale. Returns this matrix. */
+  public Matrix4f scale(float x, float y, float z) {
+    for(int row = 0; row < 4; row++) {
+      m[row] *= x;
+      m[4 + row] *= y;
+      m[8 + row] *= z;
+    }
+    return this;
+  }
+  
+  /** Post-multiplies this matrix by a rotation about the X axis, in radians. Returns this matrix. */
+  public Matrix4f rotateX(float theta) {
+    return rotateColumns(1, 2, theta);
+  }
+  
+  /** Post-multiplies this matrix by a rotation about the Y axis, in radians. Returns this matrix. */
+  public Matrix4f rotateY(float theta) {
+    return rotateColumns(2, 0, theta);
+  }
+  
+  /** Post-multiplies this matrix by a rotation about the Z axis, in radians. Returns this matrix. */
+  public Matrix4f rotateZ(float theta) {
+    return rotateColumns(0, 1, theta);
+  }
+  
+  /** 
+   * Post-multiplies this matrix by a rotation from column a towards 
+   * column b. Only those 2 columns change. 
+   */
+  private Matrix4f rotateColumns(int a, int b, float theta) {
+    if(theta == 0) {
+      return this;
+    }
+    float cos = FloatUtil.cos(theta);
+    float sin = FloatUtil.sin(theta);
+    for(int row = 0; row < 4; row++) {
+      float ma = m[a*4 + row];
+      float mb = m[b*4 + row];
+      m[a*4 + row] = ma*cos + mb*sin;
+      m[b*4 + row] = mb*cos - ma*sin;
+    }
+    return this;
+  }
+  
+  
+  //////// Projections
+  
+  /** 
+   * Sets this matrix to a perspective projection, the same as gluPerspective.
+   * Returns this matrix.
+   * @param fovy    The field of view angle in the y direction, in degrees.
+   * @param aspect  The aspect ratio, width/height.
+   * @param zNear   The distance to the near clipping plane.
+   * @param zFar    The distance to the far clipping plane.
+   */
+  public Matrix4f setPerspective(float fovy, float aspect, float zNear, float zFar) {
+    float f = (float) (1.0/Math.tan(Math.toRadians(fovy)/2));
+    Arrays.fill(m, 0f);
+    m[0] = f/aspect;
+    m[5] = f;
+    m[10] = (zFar + zNear)/(zNear - zFar);
+    m[11] = -1f;
+    m[14] = 2*zFar*zNear/(zNear - zFar);
+    return this;
+  }
+  
+  /** Sets this matrix to an orthographic projection, the same as glOrtho. Returns this matrix. */
+  public Matrix4f setOrtho(float left, float right, float bottom, float top, float zNear, float zFar) {
+    Arrays.fill(m, 0f);
+    m[0] = 2f/(right - left);
+    m[5] = 2f/(top - bottom);
+    m[10] = -2f/(zFar - zNear);
+    m[12] = -(right + left)/(right - left);
+    m[13] = -(top + bottom)/(top - bottom);
+    m[14] = -(zFar + zNear)/(zFar - zNear);
+    m[15] = 1f;
+    return this;
+  }
+  
+  /** 
+   * Sets this matrix to a view transform looking from an eye point towards 
+   * a center point, the same as gluLookAt. Returns this matrix.
+   */
+  public Matrix4f setLookAt( float eyeX, float eyeY, float eyeZ, 
+                             float centerX, float centerY, float centerZ, 
+                             float upX, float upY, float upZ) {
+    ScratchPool pool = ScratchPool.get();
+    int mark = pool.mark();
+    try {
+      Vector3f f = pool.vector(centerX - eyeX, centerY - eyeY, centerZ - eyeZ).normalizeLocal();
+      Vector3f s = pool.vector().crossInto(f, pool.vector(upX, upY, upZ)).normalizeLocal();
+      Vector3f u = pool.vector().crossInto(s, f);
+      
+      setIdentity();
+      m[0] = s.getX();
+      m[4] = s.getY();
+      m[8] = s.getZ();
+      m[1] = u.getX();
+      m[5] = u.getY();
+      m[9] = u.getZ();
+      m[2] = -f.getX();
+      m[6] = -f.getY();
+      m[10] = -f.getZ();
+      return translate(-eyeX, -eyeY, -eyeZ);
+    }
+    finally {
+      pool.release(mark);
+    }
+  }
+  
+  
+  //////// Transforming points
+  
+  /** 
+   * Transforms the point at v[off], v[off+1], v[off+2] in place, treating 
+   * it as having w = 1. No perspective divide is done. 
+   */
+  public void transformPoint(float[] v, int off) {
+    float x = v[off];
+    float y = v[off + 1];
+    float z = v[off + 2];
+    v[off] = m[0]*x + m[4]*y + m[8]*z + m[12];
+    v[off + 1] = m[1]*x + m[5]*y + m[9]*z + m[13];
+    v[off + 2] = m[2]*x + m[6]*y + m[10]*z + m[14];
+  }
+  
+  
+  //////// Misc
+  
+  @Override
+  public boolean equals(Object o) {
+    if(!(o instanceof Matrix4f)) {
+      return false;
+    }
+    return Arrays.equals(m, ((Matrix4f) o).m);
+  }
+  
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(m);
+  }
+  
+  public String toString() {
+    StringBuilder result = new StringBuilder("Matrix4f:[");
+    for(int row = 0; row < 4; row++) {
+      if(row > 0) {
+        result.append("; ");
+      }
+      for(int col = 0; col < 4; col++) {
+        if(col > 0) {
+          result.append(", ");
+        }
+        result.append(get(row, col));
+      }
+    }
+    return result.append("]").toString();
+  }
+}
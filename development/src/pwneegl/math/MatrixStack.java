@@ -0,0 +1,147 @@
+package pwneegl.math;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.util.Arrays;
+
+import javax.media.opengl.GL2;
+
+import pwneegl.PwneeGLError;
+
+/** 
+ * A CPU-side stack of transform matrices, used in place of the fixed-function
+ * glPushMatrix/glPopMatrix and glTranslatef/glRotatef/glScalef calls. The 
+ * transforms are composed on the CPU, and the result is handed to OpenGL with
+ * a single glLoadMatrixf or uniform upload per object, instead of one driver 
+ * call per transform. The stack's matrices are reused, so pushing and popping
+ * doesn't allocate anything once the stack has reached its deepest level.
+ */
+public class MatrixStack {
+  
+  /** The matrices on the stack. Only the first size are in use. */
+  private Matrix4f[] stack = new Matrix4f[8];
+  
+  /** The number of matrices on the stack. */
+  private int size;
+  
+  
+  /** Creates the stack with the identity matrix on top. */
+  public MatrixStack() {
+    stack[0] = new Matrix4f();
+    size = 1;
+  }
+  
+  
+  //////// Stack
+  
+  /** Returns the matrix on top of the stack. Transforms are applied to this. */
+  public Matrix4f top() {
+    return stack[size - 1];
+  }
+  
+  /** Pushes a copy of the top matrix onto the stack, and returns it. */
+  public Matrix4f push() {
+    if(size == stack.length) {
+      stack = Arrays.copyOf(stack, size*2);
+    }
+    if(stack[size] == null) {
+      stack[size] = new Matrix4f();
+    }
+    size++;
+    return stack[size - 1].set(stack[size - 2]);
+  }
+  
+  /** 
+   * Pops the top matrix off the stack. A PwneeGLError is thrown if this 
+   * would leave the stack empty. 
+   */
+  public void pop() {
+    if(size == 1) {
+      throw new PwneeGLError("Can't pop the last matrix off of a matrix stack.");
+    }
+    size--;
+  }
+  
+  /** Returns the number of matrices on the stack. */
+  public int depth() {
+    return size;
+  }
+  
+  /** Removes all but the bottom matrix, and sets it to the identity. */
+  public void reset() {
+    size = 1;
+    stack[0].setIdentity();
+  }
+  
+  
+  //////// Transforms of the top matrix
+  
+  /** Post-multiplies the top matrix by another. */
+  public void mul(Matrix4f m) {
+    top().mul(m);
+  }
+  
+  /** Post-multiplies the top matrix by a translation. */
+  public void translate(float x, float y, float z) {
+    top().translate(x, y, z);
+  }
+  
+  /** Post-multiplies the top matrix by a rotation about the X axis, in radians. */
+  public void rotateX(float theta) {
+    top().rotateX(theta);
+  }
+  
+  /** Post-multiplies the top matrix by a rotation about the Y axis, in radians. */
+  public void rotateY(float theta) {
+    top().rotateY(theta);
+  }
+  
+  /** Post-multiplies the top matrix by a rotation about the Z axis, in radians. */
+  public void rotateZ(float theta) {
+    top().rotateZ(theta);
+  }
+  
+  /** Post-multiplies the top matrix by a scale. */
+  public void scale(float x, float y, float z) {
+    top().scale(x, y, z);
+  }
+  
+  
+  //////// Rendering
+  
+  /** 
+   * Loads the top matrix into OpenGL's model-view matrix, for shaders that 
+   * use the built-in gl_ModelViewMatrix. The current matrix mode is 
+   * expected to be GL_MODELVIEW. 
+   */
+  public void glLoad(GL2 gl) {
+    gl.glLoadMatrixf(top().getData(), 0);
+  }
+}
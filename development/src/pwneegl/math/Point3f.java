@@ -29,17 +29,29 @@ package pwneegl.math;
 ======================================================================*/
 
 import java.awt.geom.Point2D;
+import java.nio.FloatBuffer;
 
 /** A point in 3D space. */
 public class Point3f {
   
-  /** The XYZ model coordinates array. */
+  /** 
+   * The XYZ model coordinates array. This is null for subclasses that keep 
+   * their coordinates elsewhere, such as Vertex3f. 
+   */
   public float[] coords;
   
   
   
   //////// Constructors
   
+  /** 
+   * Creates a point without a coordinates array, for subclasses that 
+   * override the coordinate accessors to keep their coordinates elsewhere.
+   */
+  protected Point3f() {
+    coords = null;
+  }
+  
   public Point3f(float x, float y, float z) {
     coords = new float[4];
     coords[0] = x;
@@ -80,6 +92,26 @@ public class Point3f {
     return result;
   }
   
+  /** 
+   * Copies the 4-dimensional coordinates into dst, starting at index off, 
+   * and returns dst. Unlike getCoords(), this doesn't allocate anything. 
+   */
+  public float[] getCoords(float[] dst, int off) {
+    dst[off] = getX();
+    dst[off + 1] = getY();
+    dst[off + 2] = getZ();
+    dst[off + 3] = coords[3];
+    return dst;
+  }
+  
+  /** Puts the 4-dimensional coordinates into a buffer at its current position. */
+  public void writeTo(FloatBuffer dst) {
+    dst.put(getX());
+    dst.put(getY());
+    dst.put(getZ());
+    dst.put(coords[3]);
+  }
+  
   
   /** Set the X coordinate. */
   public void setX(float x) {
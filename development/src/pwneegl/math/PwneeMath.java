@@ -49,15 +49,18 @@ public class PwneeMath {
    * given in radians.
    */
   public static float[] toRadial(float x, float y, float z) {
+    return toRadial(x, y, z, new float[3]);
+  }
+  
+  /** 
+   * Converts XYZ coordinates to radial coordinates of the form 
+   * (radius, thetaX, thetaY), storing them in dst, which is returned. 
+   */
+  public static float[] toRadial(float x, float y, float z, float[] dst) {
+    float length = (float) Math.sqrt(x*x + y*y + z*z);
     
-    Vector3f v = new Vector3f(x, y, z);
-    float length = v.length();
-    
-    // Easier to convert using a unit vector.
-    v = v.normalize();
-    
-    // Get the angles.
-    float thetaX = (float) Math.asin(clamp(v.getY(), -1f, 1f));
+    // Get the angles, using the Y component of the unit vector.
+    float thetaX = (float) Math.asin(clamp(y/length, -1f, 1f));
     float thetaY = 0f;
     if(x == 0) {
       if(z > 0) {
@@ -74,7 +77,10 @@ public class PwneeMath {
       }
     }
     
-    return new float[] {length, thetaX, thetaY};
+    dst[0] = length;
+    dst[1] = thetaX;
+    dst[2] = thetaY;
+    return dst;
   }
   
   /** 
@@ -136,5 +142,60 @@ public class PwneeMath {
     return result;
   }
   
+  
+  //////// Packing
+  
+  /** 
+   * Converts a float to an IEEE 754 half-precision float, returned as the 
+   * 16 bits of a short. Values are rounded to the nearest half-float. 
+   * Values too large to represent become infinity.
+   */
+  public static short toHalfFloat(float value) {
+    int bits = Float.floatToIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    int abs = bits & 0x7FFFFFFF;
+    
+    // NaN and infinity.
+    if(abs >= 0x7F800000) {
+      return (short) (sign | 0x7C00 | (abs > 0x7F800000 ? 0x0200 : 0));
+    }
+    
+    // Round to nearest by adding half of the dropped mantissa bits.
+    int rounded = abs + 0x00001000;
+    
+    // Too large. Becomes infinity.
+    if(rounded >= 0x47800000) {
+      return (short) (sign | 0x7C00);
+    }
+    
+    // Normalized half-float.
+    if(rounded >= 0x38800000) {
+      return (short) (sign | ((rounded - 0x38000000) >>> 13));
+    }
+    
+    // Too small. Becomes (signed) zero.
+    if(abs < 0x33000000) {
+      return (short) sign;
+    }
+    
+    // Denormalized half-float.
+    int exponent = abs >>> 23;
+    int mantissa = (abs & 0x007FFFFF) | 0x00800000;
+    return (short) (sign | ((mantissa + (0x00800000 >>> (exponent - 102))) >>> (126 - exponent)));
+  }
+  
+  /** 
+   * Packs a 4-component vector with components in the range [-1, 1] into a 
+   * GL_INT_2_10_10_10_REV int. x, y, and z get 10 signed bits each, and w 
+   * gets the top 2 bits. 
+   */
+  public static int packSnorm1010102(float x, float y, float z, float w) {
+    int ix = Math.round(clamp(x, -1f, 1f)*511) & 0x3FF;
+    int iy = Math.round(clamp(y, -1f, 1f)*511) & 0x3FF;
+    int iz = Math.round(clamp(z, -1f, 1f)*511) & 0x3FF;
+    int iw = Math.round(clamp(w, -1f, 1f)) & 0x3;
+    return ix | (iy << 10) | (iz << 20) | (iw << 30);
+  }
+  
 }
 
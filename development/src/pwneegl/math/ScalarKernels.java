@@ -0,0 +1,129 @@
+package pwneegl.math;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+/** 
+ * The portable implementation of the batch math kernels, using plain loops 
+ * over the arrays. The JIT can unroll these, but the strided layout keeps it
+ * from vectorizing them. Also used for the leftover elements of the SIMD 
+ * implementation.
+ */
+public class ScalarKernels implements BatchKernels {
+  
+  @Override
+  public void transformPoints(float[] m, float[] src, int srcOff, float[] dst, int dstOff, int count) {
+    for(int i = 0; i < count; i++) {
+      int s = srcOff + i*3;
+      int d = dstOff + i*3;
+      float x = src[s];
+      float y = src[s + 1];
+      float z = src[s + 2];
+      dst[d] = m[0]*x + m[4]*y + m[8]*z + m[12];
+      dst[d + 1] = m[1]*x + m[5]*y + m[9]*z + m[13];
+      dst[d + 2] = m[2]*x + m[6]*y + m[10]*z + m[14];
+    }
+  }
+  
+  
+  @Override
+  public void normalize(float[] v, int off, int count) {
+    for(int i = 0; i < count; i++) {
+      int k = off + i*3;
+      float x = v[k];
+      float y = v[k + 1];
+      float z = v[k + 2];
+      float length2 = x*x + y*y + z*z;
+      if(length2 > 0) {
+        float inv = 1f/(float) Math.sqrt(length2);
+        v[k] = x*inv;
+        v[k + 1] = y*inv;
+        v[k + 2] = z*inv;
+      }
+    }
+  }
+  
+  
+  @Override
+  public void faceNormals(float[] positions, int[] indices, int indexOff, float[] dst, int dstOff, int numFaces) {
+    for(int f = 0; f < numFaces; f++) {
+      int i = indices[indexOff + f*3]*3;
+      int j = indices[indexOff + f*3 + 1]*3;
+      int k = indices[indexOff + f*3 + 2]*3;
+      
+      float ux = positions[j] - positions[i];
+      float uy = positions[j + 1] - positions[i + 1];
+      float uz = positions[j + 2] - positions[i + 2];
+      float vx = positions[k] - positions[i];
+      float vy = positions[k + 1] - positions[i + 1];
+      float vz = positions[k + 2] - positions[i + 2];
+      
+      int d = dstOff + f*3;
+      dst[d] = uy*vz - uz*vy;
+      dst[d + 1] = uz*vx - ux*vz;
+      dst[d + 2] = ux*vy - uy*vx;
+    }
+  }
+  
+  
+  @Override
+  public void faceTangents(float[] positions, float[] texCoords, int[] indices, int indexOff, float[] dst, int dstOff, int numFaces) {
+    for(int f = 0; f < numFaces; f++) {
+      int i = indices[indexOff + f*3];
+      int j = indices[indexOff + f*3 + 1];
+      int k = indices[indexOff + f*3 + 2];
+      
+      float ux = positions[j*3] - positions[i*3];
+      float uy = positions[j*3 + 1] - positions[i*3 + 1];
+      float uz = positions[j*3 + 2] - positions[i*3 + 2];
+      float vx = positions[k*3] - positions[i*3];
+      float vy = positions[k*3 + 1] - positions[i*3 + 1];
+      float vz = positions[k*3 + 2] - positions[i*3 + 2];
+      
+      float su = texCoords[j*2] - texCoords[i*2];
+      float sv = texCoords[k*2] - texCoords[i*2];
+      float tu = texCoords[j*2 + 1] - texCoords[i*2 + 1];
+      float tv = texCoords[k*2 + 1] - texCoords[i*2 + 1];
+      float det = tv*su - tu*sv;
+      
+      int d = dstOff + f*3;
+      if(det == 0) {
+        dst[d] = 1f;
+        dst[d + 1] = 0f;
+        dst[d + 2] = 0f;
+      }
+      else {
+        float scale = 1/det;
+        dst[d] = (ux*tv - vx*tu)*scale;
+        dst[d + 1] = (uy*tv - vy*tu)*scale;
+        dst[d + 2] = (uz*tv - vz*tu)*scale;
+      }
+    }
+  }
+}
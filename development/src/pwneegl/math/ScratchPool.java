@@ -0,0 +1,136 @@
+package pwneegl.math;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.util.Arrays;
+
+/** 
+ * A per-thread stack of temporary vectors and matrices for math that would 
+ * otherwise allocate a new object for each intermediate result. Mark the pool, 
+ * borrow as many vectors as needed, and release back to the mark when done:
+ * 
+ *    ScratchPool pool = ScratchPool.get();
+ *    int mark = pool.mark();
+ *    try {
+ *      Vector3f u = pool.vector(x, y, z);
+ *      ...
+ *    }
+ *    finally {
+ *      pool.release(mark);
+ *    }
+ * 
+ * Borrowed objects must not be kept after they are released, since they will
+ * be handed out again. The pool grows as needed, so once it has warmed up, 
+ * borrowing doesn't allocate anything.
+ */
+public class ScratchPool {
+  
+  /** The pool for each thread. */
+  private static final ThreadLocal<ScratchPool> pools = new ThreadLocal<ScratchPool>() {
+    @Override
+    protected ScratchPool initialValue() {
+      return new ScratchPool();
+    }
+  };
+  
+  /** The pooled vectors. */
+  private Vector3f[] vectors = new Vector3f[16];
+  
+  /** The number of vectors currently borrowed. */
+  private int numVectors = 0;
+  
+  /** The pooled matrices. */
+  private Matrix4f[] matrices = new Matrix4f[4];
+  
+  /** The number of matrices currently borrowed. */
+  private int numMatrices = 0;
+  
+  
+  private ScratchPool() {}
+  
+  /** Returns the pool for the current thread. */
+  public static ScratchPool get() {
+    return pools.get();
+  }
+  
+  
+  //////// Borrowing
+  
+  /** Returns a marker for the current top of the pool, to be passed to release. */
+  public int mark() {
+    return (numMatrices << 16) | numVectors;
+  }
+  
+  /** Releases everything that was borrowed since the pool was marked. */
+  public void release(int mark) {
+    numVectors = mark & 0xFFFF;
+    numMatrices = mark >>> 16;
+  }
+  
+  /** Borrows a zero vector from the pool. */
+  public Vector3f vector() {
+    if(numVectors == vectors.length) {
+      vectors = Arrays.copyOf(vectors, numVectors*2);
+    }
+    
+    Vector3f v = vectors[numVectors];
+    if(v == null) {
+      v = new Vector3f();
+      vectors[numVectors] = v;
+    }
+    numVectors++;
+    return v.set(0f, 0f, 0f);
+  }
+  
+  /** Borrows a vector from the pool, set to the given components. */
+  public Vector3f vector(float x, float y, float z) {
+    return vector().set(x, y, z);
+  }
+  
+  /** Borrows a vector from the pool, set to the vector from p1 to p2. */
+  public Vector3f vector(Point3f p1, Point3f p2) {
+    return vector().set(p1, p2);
+  }
+  
+  /** Borrows an identity matrix from the pool. */
+  public Matrix4f matrix() {
+    if(numMatrices == matrices.length) {
+      matrices = Arrays.copyOf(matrices, numMatrices*2);
+    }
+    
+    Matrix4f m = matrices[numMatrices];
+    if(m == null) {
+      m = new Matrix4f();
+      matrices[numMatrices] = m;
+    }
+    numMatrices++;
+    return m.setIdentity();
+  }
+}
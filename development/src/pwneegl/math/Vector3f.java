@@ -28,9 +28,19 @@ package pwneegl.math;
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 ======================================================================*/
 
+import java.nio.FloatBuffer;
+
+import com.jogamp.opengl.math.FloatUtil;
 import com.jogamp.opengl.math.Quaternion;
 
-/** An immutable 3-dimensional vector. */
+/** 
+ * A 3-dimensional vector. 
+ * The methods that return a new Vector3f, such as add, scale, or cross, leave 
+ * this vector unchanged. The set, *Local, and *Into methods instead modify 
+ * this vector in place and return it for chaining, so that they can be used 
+ * in per-frame math without allocating anything. Temporary vectors for such 
+ * math can be borrowed from a ScratchPool.
+ */
 public class Vector3f {
   
   /** The XYZ scalar components array. */
@@ -39,6 +49,11 @@ public class Vector3f {
   
   //////// Constructors
   
+  /** Creates the zero vector. */
+  public Vector3f() {
+    this(0f, 0f, 0f);
+  }
+  
   /** Create the vector with the specified scalar components. */
   public Vector3f(float x, float y, float z) {
     coords = new float[4];
@@ -87,6 +102,26 @@ public class Vector3f {
     return coords[2];
   }
   
+  /** Sets the scalar components of this vector. Returns this vector. */
+  public Vector3f set(float x, float y, float z) {
+    coords[0] = x;
+    coords[1] = y;
+    coords[2] = z;
+    return this;
+  }
+  
+  /** Sets this vector to be a copy of another. Returns this vector. */
+  public Vector3f set(Vector3f v) {
+    return set(v.coords[0], v.coords[1], v.coords[2]);
+  }
+  
+  /** Sets this vector to be the vector from p1 to p2. Returns this vector. */
+  public Vector3f set(Point3f p1, Point3f p2) {
+    return set( p2.getX() - p1.getX(), 
+                p2.getY() - p1.getY(), 
+                p2.getZ() - p1.getZ());
+  }
+  
   /** Returns a copy of the underlying coordinates array. */
   public float[] getCoords() {
     return getCoords(4);
@@ -109,6 +144,28 @@ public class Vector3f {
     return result;
   }
   
+  /** 
+   * Copies the 4-dimensional coordinates into dst, starting at index off, 
+   * and returns dst. Unlike getCoords(), this doesn't allocate anything. 
+   */
+  public float[] getCoords(float[] dst, int off) {
+    return getCoords(dst, off, 4);
+  }
+  
+  /** 
+   * Copies the first length (in the range [1, 4]) coordinates into dst, 
+   * starting at index off, and returns dst. 
+   */
+  public float[] getCoords(float[] dst, int off, int length) {
+    System.arraycopy(coords, 0, dst, off, length);
+    return dst;
+  }
+  
+  /** Puts the 4-dimensional coordinates into a buffer at its current position. */
+  public void writeTo(FloatBuffer dst) {
+    dst.put(coords, 0, 4);
+  }
+  
   
   
   //////// Vector calculus
@@ -163,6 +220,69 @@ public class Vector3f {
   }
   
   
+  //////// In-place vector calculus
+  
+  /** Normalizes this vector in place. Returns this vector. */
+  public Vector3f normalizeLocal() {
+    float length = length();
+    return set(coords[0]/length, coords[1]/length, coords[2]/length);
+  }
+  
+  /** Negates this vector in place. Returns this vector. */
+  public Vector3f negateLocal() {
+    return set(-coords[0], -coords[1], -coords[2]);
+  }
+  
+  /** Scales this vector in place. Returns this vector. */
+  public Vector3f scaleLocal(float s) {
+    return set(coords[0]*s, coords[1]*s, coords[2]*s);
+  }
+  
+  /** Adds another vector to this one in place. Returns this vector. */
+  public Vector3f addLocal(Vector3f v) {
+    return addLocal(v.coords[0], v.coords[1], v.coords[2]);
+  }
+  
+  /** Adds the given components to this vector in place. Returns this vector. */
+  public Vector3f addLocal(float dx, float dy, float dz) {
+    return set(coords[0] + dx, coords[1] + dy, coords[2] + dz);
+  }
+  
+  /** Subtracts another vector from this one in place. Returns this vector. */
+  public Vector3f subLocal(Vector3f v) {
+    return set(coords[0] - v.coords[0], coords[1] - v.coords[1], coords[2] - v.coords[2]);
+  }
+  
+  /** 
+   * Sets this vector to the cross product u x v. Either vector may be this 
+   * one. Returns this vector. 
+   */
+  public Vector3f crossInto(Vector3f u, Vector3f v) {
+    float x = u.coords[1]*v.coords[2] - u.coords[2]*v.coords[1];
+    float y = u.coords[2]*v.coords[0] - u.coords[0]*v.coords[2];
+    float z = u.coords[0]*v.coords[1] - u.coords[1]*v.coords[0];
+    return set(x, y, z);
+  }
+  
+  /** 
+   * Rotates this vector in place around the y and x axes, in order. This 
+   * gives the same result as rotate(thetaX, thetaY), but without building 
+   * the intermediate quaternions. Returns this vector.
+   */
+  public Vector3f rotateLocal(float thetaX, float thetaY) {
+    float cos = FloatUtil.cos(thetaY);
+    float sin = FloatUtil.sin(thetaY);
+    float x = coords[0]*cos + coords[2]*sin;
+    float z = coords[2]*cos - coords[0]*sin;
+    
+    cos = FloatUtil.cos(thetaX);
+    sin = FloatUtil.sin(thetaX);
+    float y = coords[1]*cos - z*sin;
+    z = coords[1]*sin + z*cos;
+    return set(x, y, z);
+  }
+  
+  
   //////// Vector addition
   
   /** Computes the sum of this vector and another. */
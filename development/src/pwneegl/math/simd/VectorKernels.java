@@ -0,0 +1,172 @@
+package pwneegl.math.simd;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import pwneegl.math.ScalarKernels;
+
+/** 
+ * The batch math kernels implemented with the JDK's incubating Vector API. 
+ * Each lane handles one vector or face. Since the arrays store their vectors 
+ * as interleaved xyz triples, the components are gathered into separate x, y,
+ * and z registers and scattered back afterwards. The elements left over 
+ * after the last full register are handled by the scalar kernels, as are 
+ * face normals, whose 9 gathers per face cost more than the arithmetic 
+ * they save.
+ *
+ * This package is only compiled when building with Java 16 or later, and is 
+ * only loaded by BatchMath when the jdk.incubator.vector module is present.
+ */
+public class VectorKernels extends ScalarKernels {
+  
+  /** The widest species the hardware supports. */
+  private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+  
+  /** The number of lanes. */
+  private static final int LANES = SPECIES.length();
+  
+  /** Lane offsets for gathering the components of consecutive xyz triples. */
+  private static final int[] STRIDE3 = new int[LANES];
+  
+  static {
+    for(int l = 0; l < LANES; l++) {
+      STRIDE3[l] = l*3;
+    }
+  }
+  
+  
+  /** 
+   * Creates the kernels. An UnsupportedOperationException is thrown if the 
+   * hardware is too narrow for SIMD to be worth it. 
+   */
+  public VectorKernels() {
+    if(LANES < 4) {
+      throw new UnsupportedOperationException("SIMD registers only have " + LANES + " float lanes.");
+    }
+  }
+  
+  
+  @Override
+  public void transformPoints(float[] m, float[] src, int srcOff, float[] dst, int dstOff, int count) {
+    int full = count - count % LANES;
+    for(int i = 0; i < full; i += LANES) {
+      int s = srcOff + i*3;
+      int d = dstOff + i*3;
+      FloatVector x = FloatVector.fromArray(SPECIES, src, s, STRIDE3, 0);
+      FloatVector y = FloatVector.fromArray(SPECIES, src, s + 1, STRIDE3, 0);
+      FloatVector z = FloatVector.fromArray(SPECIES, src, s + 2, STRIDE3, 0);
+      
+      x.mul(m[0]).add(y.mul(m[4])).add(z.mul(m[8])).add(m[12]).intoArray(dst, d, STRIDE3, 0);
+      x.mul(m[1]).add(y.mul(m[5])).add(z.mul(m[9])).add(m[13]).intoArray(dst, d + 1, STRIDE3, 0);
+      x.mul(m[2]).add(y.mul(m[6])).add(z.mul(m[10])).add(m[14]).intoArray(dst, d + 2, STRIDE3, 0);
+    }
+    super.transformPoints(m, src, srcOff + full*3, dst, dstOff + full*3, count - full);
+  }
+  
+  
+  @Override
+  public void normalize(float[] v, int off, int count) {
+    int full = count - count % LANES;
+    for(int i = 0; i < full; i += LANES) {
+      int k = off + i*3;
+      FloatVector x = FloatVector.fromArray(SPECIES, v, k, STRIDE3, 0);
+      FloatVector y = FloatVector.fromArray(SPECIES, v, k + 1, STRIDE3, 0);
+      FloatVector z = FloatVector.fromArray(SPECIES, v, k + 2, STRIDE3, 0);
+      
+      FloatVector length2 = x.mul(x).add(y.mul(y)).add(z.mul(z));
+      VectorMask<Float> nonZero = length2.compare(VectorOperators.GT, 0f);
+      FloatVector inv = FloatVector.broadcast(SPECIES, 1f).div(length2.lanewise(VectorOperators.SQRT));
+      inv = FloatVector.broadcast(SPECIES, 1f).blend(inv, nonZero);
+      
+      x.mul(inv).intoArray(v, k, STRIDE3, 0);
+      y.mul(inv).intoArray(v, k + 1, STRIDE3, 0);
+      z.mul(inv).intoArray(v, k + 2, STRIDE3, 0);
+    }
+    super.normalize(v, off + full*3, count - full);
+  }
+  
+  
+  @Override
+  public void faceTangents(float[] positions, float[] texCoords, int[] indices, int indexOff, float[] dst, int dstOff, int numFaces) {
+    int[] iMap = new int[LANES];
+    int[] jMap = new int[LANES];
+    int[] kMap = new int[LANES];
+    int[] iTexMap = new int[LANES];
+    int[] jTexMap = new int[LANES];
+    int[] kTexMap = new int[LANES];
+    
+    int full = numFaces - numFaces % LANES;
+    for(int f = 0; f < full; f += LANES) {
+      for(int l = 0; l < LANES; l++) {
+        int base = indexOff + (f + l)*3;
+        int i = indices[base];
+        int j = indices[base + 1];
+        int k = indices[base + 2];
+        iMap[l] = i*3;
+        jMap[l] = j*3;
+        kMap[l] = k*3;
+        iTexMap[l] = i*2;
+        jTexMap[l] = j*2;
+        kTexMap[l] = k*2;
+      }
+      
+      FloatVector px = FloatVector.fromArray(SPECIES, positions, 0, iMap, 0);
+      FloatVector py = FloatVector.fromArray(SPECIES, positions, 1, iMap, 0);
+      FloatVector pz = FloatVector.fromArray(SPECIES, positions, 2, iMap, 0);
+      FloatVector ux = FloatVector.fromArray(SPECIES, positions, 0, jMap, 0).sub(px);
+      FloatVector uy = FloatVector.fromArray(SPECIES, positions, 1, jMap, 0).sub(py);
+      FloatVector uz = FloatVector.fromArray(SPECIES, positions, 2, jMap, 0).sub(pz);
+      FloatVector vx = FloatVector.fromArray(SPECIES, positions, 0, kMap, 0).sub(px);
+      FloatVector vy = FloatVector.fromArray(SPECIES, positions, 1, kMap, 0).sub(py);
+      FloatVector vz = FloatVector.fromArray(SPECIES, positions, 2, kMap, 0).sub(pz);
+      
+      FloatVector s = FloatVector.fromArray(SPECIES, texCoords, 0, iTexMap, 0);
+      FloatVector t = FloatVector.fromArray(SPECIES, texCoords, 1, iTexMap, 0);
+      FloatVector su = FloatVector.fromArray(SPECIES, texCoords, 0, jTexMap, 0).sub(s);
+      FloatVector tu = FloatVector.fromArray(SPECIES, texCoords, 1, jTexMap, 0).sub(t);
+      FloatVector sv = FloatVector.fromArray(SPECIES, texCoords, 0, kTexMap, 0).sub(s);
+      FloatVector tv = FloatVector.fromArray(SPECIES, texCoords, 1, kTexMap, 0).sub(t);
+      
+      FloatVector det = tv.mul(su).sub(tu.mul(sv));
+      VectorMask<Float> degenerate = det.compare(VectorOperators.EQ, 0f);
+      FloatVector scale = FloatVector.broadcast(SPECIES, 1f).div(det);
+      
+      int d = dstOff + f*3;
+      ux.mul(tv).sub(vx.mul(tu)).mul(scale).blend(1f, degenerate).intoArray(dst, d, STRIDE3, 0);
+      uy.mul(tv).sub(vy.mul(tu)).mul(scale).blend(0f, degenerate).intoArray(dst, d + 1, STRIDE3, 0);
+      uz.mul(tv).sub(vz.mul(tu)).mul(scale).blend(0f, degenerate).intoArray(dst, d + 2, STRIDE3, 0);
+    }
+    super.faceTangents(positions, texCoords, indices, indexOff + full*3, dst, dstOff + full*3, numFaces - full);
+  }
+}
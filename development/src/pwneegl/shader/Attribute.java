@@ -4,6 +4,9 @@ import pwneegl.GLNames;
 
 public class Attribute {
   
+  /** The name prefix of per-instance attributes. */
+  public static final String INSTANCE_PREFIX = "instance";
+  
   private String name;
   
   private int size;
@@ -82,6 +85,16 @@ public class Attribute {
     return name.startsWith("gl_");
   }
   
+  /** 
+   * Returns true iff this is a per-instance attribute. Per-instance 
+   * attributes are user-defined attributes whose names start with 
+   * "instance", such as instanceModel. Their values come from an instance 
+   * buffer, such as InstancedBatch's, instead of from the vertices.
+   */
+  public boolean isPerInstance() {
+    return name.startsWith(INSTANCE_PREFIX);
+  }
+  
   /**
    * Returns the location of the vertex attribute in graphics memory. 
    */
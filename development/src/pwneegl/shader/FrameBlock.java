@@ -0,0 +1,76 @@
+package pwneegl.shader;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import pwneegl.camera.Camera3D;
+
+/** 
+ * The per-frame uniform block, holding the camera's matrices and eye 
+ * position and the game time. Shaders declare it as:
+ * 
+ *    layout(std140) uniform Frame {
+ *      mat4 view;
+ *      mat4 projection;
+ *      mat4 viewProjection;
+ *      vec4 eyePosition;
+ *      float time;
+ *    };
+ */
+public class FrameBlock extends UniformBlock {
+  
+  /** The name of the block in the shaders. */
+  public static final String NAME = "Frame";
+  
+  private static final int VIEW = 0;
+  private static final int PROJECTION = 64;
+  private static final int VIEW_PROJECTION = 128;
+  private static final int EYE_POSITION = 192;
+  private static final int TIME = 208;
+  private static final int SIZE = 212;
+  
+  
+  public FrameBlock() {
+    super(NAME, FRAME_BINDING, SIZE);
+  }
+  
+  
+  /** Writes a camera's matrices and eye position into the block. */
+  public void setCamera(Camera3D camera) {
+    putMatrix(VIEW, camera.getViewMatrix());
+    putMatrix(PROJECTION, camera.getProjectionMatrix());
+    putMatrix(VIEW_PROJECTION, camera.getViewProjectionMatrix());
+    putVec4(EYE_POSITION, camera.getEyeX(), camera.getEyeY(), camera.getEyeZ(), 1f);
+  }
+  
+  /** Writes the game time into the block. */
+  public void setTime(float time) {
+    putFloat(TIME, time);
+  }
+}
@@ -29,7 +29,9 @@ package pwneegl.shader;
 ======================================================================*/
 
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
@@ -44,7 +46,9 @@ import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
 import pwneegl.GLNames;
+import pwneegl.GLState;
 import pwneegl.PwneeGLError;
+import pwneegl.math.Matrix4f;
 
 /** 
  * Reads and compiles a shader program which can then be used for customized rendering. 
@@ -70,6 +74,12 @@ public class ShaderProgram {
   /** Dictionary of uniform variables used in the shader. */
   private Map<String, Uniform> uniforms;
   
+  /** 
+   * Handles for uniform names that glGetActiveUniform doesn't report, such 
+   * as the base names and later elements of arrays, resolved on first use.
+   */
+  private Map<String, Uniform> uniformAliases = new HashMap<>();
+  
   /** The number of bytes custom float-based vertex attributes in the shader contribute to the pipeline. */
   private int attribsfBytes;
   
@@ -79,6 +89,12 @@ public class ShaderProgram {
   /** The number of bytes custom double-based vertex attributes in the shader contribute to the pipeline. */
   private int attribsdBytes;
   
+  /** 
+   * Incremented each time the vertex attribute information is rebuilt, so that 
+   * cached vertex array objects can tell when they are out of date. 
+   */
+  private int attribsVersion = 0;
+  
   
   /** 
    * Constructs the shader program from the provided source files mapped by 
@@ -124,32 +140,32 @@ public class ShaderProgram {
   }  
   
   
+  /** 
+   * Creates a shader program from shader source code mapped by shader type, 
+   * instead of from source files. This lets the sources be read on another 
+   * thread so that only compiling and linking happen on the GL thread.
+   * A PwneeGLError is thrown if the program fails to build.
+   */
+  public static ShaderProgram fromSources(GL2 gl, Map<Integer, String> shaderSources) {
+    ShaderProgram result = new ShaderProgram();
+    result.shaderPaths = new HashMap<>();
+    result.build(gl, shaderSources);
+    return result;
+  }
+  
+  private ShaderProgram() {}
+  
+  
   /** Initialization steps common to all the ShaderProgram constructors. */
   private void init(GL2 gl, Map<Integer, String> shaderPaths, boolean loadAsResources) {
     this.shaderPaths = new HashMap<>(shaderPaths);
-    List<Integer> shaders = new ArrayList<>();
     
     try {
-      // Compile any provided shaders.
+      Map<Integer, String> shaderSources = new HashMap<>();
       for(int shaderType: shaderPaths.keySet()) {
-        shaders.add(compileShader(gl, shaderType, shaderPaths.get(shaderType), loadAsResources));
-      } 
-      
-      // Combine the shaders into the shader program.
-      shaderProgram = gl.glCreateProgram();
-      glAttachShaders(gl, shaders);
-      glLinkProgram(gl);
-      glValidateProgram(gl);
-      
-      // Initialize the metadata for user-defined vertex attributes and uniform variables.
-      initAttribs(gl);
-      initUniforms(gl);
-      
-      // Once the program is built, we can delete the shaders to save memory.
-      // The compiled shaders won't actually be deleted until the program is deleted. 
-      for(int shaderIndex : shaders) {
-        gl.glDeleteShader(shaderIndex);
+        shaderSources.put(shaderType, readSource(shaderPaths.get(shaderType), loadAsResources));
       }
+      build(gl, shaderSources);
     }
     catch(Exception e) {
       e.printStackTrace();
@@ -157,29 +173,68 @@ public class ShaderProgram {
   }
   
   
+  /** Compiles and links the program from its shaders' sources. */
+  private void build(GL2 gl, Map<Integer, String> shaderSources) {
+    List<Integer> shaders = new ArrayList<>();
+    
+    // Compile any provided shaders.
+    for(int shaderType: shaderSources.keySet()) {
+      shaders.add(compileShader(gl, shaderType, shaderSources.get(shaderType)));
+    } 
+    
+    // Combine the shaders into the shader program.
+    shaderProgram = gl.glCreateProgram();
+    glAttachShaders(gl, shaders);
+    glLinkProgram(gl);
+    glValidateProgram(gl);
+    
+    // Initialize the metadata for user-defined vertex attributes and uniform variables.
+    initAttribs(gl);
+    initUniforms(gl);
+    UniformBlock.bindBlocks(gl, shaderProgram);
+    
+    // Once the program is built, we can delete the shaders to save memory.
+    // The compiled shaders won't actually be deleted until the program is deleted. 
+    for(int shaderIndex : shaders) {
+      gl.glDeleteShader(shaderIndex);
+    }
+  }
   
-  /** Reads and compiles the source for a vertex or fragment shader. */
-  private int compileShader(GL2 gl, int glShaderType, String path, boolean loadAsResource) throws Exception {
   
-    // Read the source into a String.
+  /** 
+   * Reads the source for a shader from a file or resource path. This doesn't 
+   * need the GL context, so it is safe to call from any thread. 
+   */
+  public static String readSource(String path, boolean loadAsResource) throws IOException {
     BufferedReader br;
     if(loadAsResource) {
-      InputStream is = getClass().getClassLoader().getResourceAsStream(path);
+      InputStream is = ShaderProgram.class.getClassLoader().getResourceAsStream(path);
+      if(is == null) {
+        throw new FileNotFoundException("Shader resource not found: " + path);
+      }
       br = new BufferedReader(new InputStreamReader(is));
     }
     else {
       br = new BufferedReader(new FileReader(path));
-      
     }
     
-    String shaderContents = "";
-    String line = br.readLine();
-    while(line != null) {
-      shaderContents += line + "\n";
-      line = br.readLine();
+    StringBuilder shaderContents = new StringBuilder();
+    try {
+      String line = br.readLine();
+      while(line != null) {
+        shaderContents.append(line).append("\n");
+        line = br.readLine();
+      }
     }
-    
-    br.close();
+    finally {
+      br.close();
+    }
+    return shaderContents.toString();
+  }
+  
+  
+  /** Compiles the source for a shader. */
+  private int compileShader(GL2 gl, int glShaderType, String shaderContents) {
     
     // Construct and compile the shader.
     int shader = gl.glCreateShader(glShaderType);
@@ -261,6 +316,7 @@ public class ShaderProgram {
     attribsfBytes = 0;
     attribsiBytes = 0;
     attribsdBytes = 0;
+    attribsVersion++;
     
     // Create objects to cache the information about the attributes. 
     for(int i = 0; i < numAttribs; i++) {
@@ -309,7 +365,9 @@ public class ShaderProgram {
     int maxLength = glGetProgrami(gl, GL_ACTIVE_UNIFORM_MAX_LENGTH);
     debugln("Max uniform name length: " + maxLength);
     
+    Map<String, Uniform> oldUniforms = uniforms;
     uniforms = new HashMap<>();
+    uniformAliases.clear();
     
     // Create objects to cache the information about the uniforms.
     for(int i = 0; i < numUnis; i++) {
@@ -327,8 +385,24 @@ public class ShaderProgram {
       int type = typePointer[0];
       String name = new String(nameBytes).trim();
       
-      debugln("Uniform " + i + ": " + name + ", length " + length + ", size " + size + ", type " + GLNames.glName(type));
-      uniforms.put(name, new Uniform(name, size, type));
+      int location = gl.glGetUniformLocation(shaderProgram, name);
+      
+      debugln("Uniform " + i + ": " + name + ", length " + length + ", size " + size + ", type " + GLNames.glName(type) + ", location " + location);
+      
+      // Keep the existing handles valid when the program is relinked.
+      Uniform uni = (oldUniforms == null) ? null : oldUniforms.get(name);
+      if(uni != null && uni.getType() == type && uni.getCount() == size) {
+        uni.relocate(location);
+      }
+      else {
+        uni = new Uniform(name, size, type, location);
+      }
+      uniforms.put(name, uni);
+      
+      // Arrays are reported by the name of their first element.
+      if(name.endsWith("[0]")) {
+        uniformAliases.put(name.substring(0, name.length() - 3), uni);
+      }
     }
   }
   
@@ -359,7 +433,7 @@ public class ShaderProgram {
   
   /** Removes the shader program from graphics memory. */
   public void clean(GL2 gl) {
-    gl.glDeleteProgram(shaderProgram);
+    GLState.deleteProgram(gl, shaderProgram);
   }
   
   
@@ -398,6 +472,29 @@ public class ShaderProgram {
   }
   
   
+  /** 
+   * Binds a vertex attribute to a specific location and relinks the program 
+   * so that the change takes effect. This changes the program's attribute 
+   * layout. A PwneeGLError is thrown if relinking fails.
+   */
+  public void bindAttribLocation(GL2 gl, String name, int location) {
+    gl.glBindAttribLocation(shaderProgram, location, name);
+    glLinkProgram(gl);
+    initAttribs(gl);
+    initUniforms(gl);
+    UniformBlock.bindBlocks(gl, shaderProgram);
+  }
+  
+  
+  /** 
+   * Returns a number that changes each time the program's vertex attribute 
+   * layout changes. 
+   */
+  public int getAttribsVersion() {
+    return attribsVersion;
+  }
+  
+  
   public int getAttribLocation(String name) {
     Attribute att = attributes.get(name);
     if(att != null) {
@@ -476,18 +573,33 @@ public class ShaderProgram {
   
   /** Returns the index to a uniform attribute specified in the shader program. */
   public int getUniformLocation(GL2 gl, String name) {
+    Uniform uni = uniforms.get(name);
+    if(uni == null) {
+      uni = uniformAliases.get(name);
+    }
+    if(uni != null) {
+      return uni.getLocation();
+    }
     return gl.glGetUniformLocation(shaderProgram, name);
   }
   
   
   
-  /** Returns information about a uniform variable used by this shader. */
+  /** 
+   * Returns information about a uniform variable used by this shader. This 
+   * is also a handle that sets the uniform's value by its location, skipping 
+   * the upload if the value hasn't changed. Look it up once and keep it 
+   * rather than setting uniforms by name every frame.
+   */
   public Uniform getUniform(String name) {
     Uniform result = uniforms.get(name);
+    if(result == null) {
+      result = uniformAliases.get(name);
+    }
     if(result == null) {
       throw new PwneeGLError("Uniform variable " + name + " isn't used in this shader.");
     }
-    return uniforms.get(name);
+    return result;
   }
   
   
@@ -503,32 +615,65 @@ public class ShaderProgram {
   }
   
   
+  /** 
+   * Returns the handle for a uniform by name. Names that the program 
+   * doesn't report, such as elements of arrays, are resolved with 
+   * glGetUniformLocation the first time and then cached, even if they 
+   * don't exist, with the given type.
+   */
+  private Uniform uniformHandle(GL2 gl, String name, int type) {
+    Uniform uni = uniforms.get(name);
+    if(uni == null) {
+      uni = uniformAliases.get(name);
+    }
+    if(uni == null) {
+      uni = new Uniform(name, 1, type, gl.glGetUniformLocation(shaderProgram, name));
+      uniformAliases.put(name, uni);
+    }
+    return uni;
+  }
+  
+  
+  /** Returns the type of a float vector with some number of components. */
+  private static int floatVecType(int size) {
+    switch(size) {
+      case 1 :
+        return GL_FLOAT;
+      case 2 :
+        return GL_FLOAT_VEC2;
+      case 3 :
+        return GL_FLOAT_VEC3;
+      case 4 :
+        return GL_FLOAT_VEC4;
+    }
+    throw new PwneeGLError("Size of float array not supported.");
+  }
+  
+  /** Returns the type of an int or unsigned int vector with some number of components. */
+  private static int intVecType(int size, boolean unsigned) {
+    switch(size) {
+      case 1 :
+        return unsigned ? GL_UNSIGNED_INT : GL_INT;
+      case 2 :
+        return unsigned ? GL_UNSIGNED_INT_VEC2 : GL_INT_VEC2;
+      case 3 :
+        return unsigned ? GL_UNSIGNED_INT_VEC3 : GL_INT_VEC3;
+      case 4 :
+        return unsigned ? GL_UNSIGNED_INT_VEC4 : GL_INT_VEC4;
+    }
+    throw new PwneeGLError("Size of int array not supported.");
+  }
+  
+  
   
   /** Sets the value for some uniform float variable in the shader. */
   public void setUniformf(GL2 gl, String name, float value) {
-    int uniLoc = getUniformLocation(gl, name);
-    gl.glUniform1f(uniLoc, value);
+    uniformHandle(gl, name, GL_FLOAT).set(gl, value);
   }
   
   /** Sets the value for some uniform float variable in the shader. */
   public void setUniformfv(GL2 gl, String name, float[] values) {
-    int size = values.length;
-    int loc = getUniformLocation(gl, name);
-    if(size == 1) {
-      gl.glUniform1fv(loc, 1, values, 0);
-    }
-    else if(size == 2) {
-      gl.glUniform2fv(loc, 2, values, 0);
-    }
-    else if(size == 3) {
-      gl.glUniform3fv(loc, 3, values, 0);
-    }
-    else if(size == 4) {
-      gl.glUniform4fv(loc, 4, values, 0);
-    }
-    else {
-      throw new PwneeGLError("Size of float array not supported.");
-    }
+    uniformHandle(gl, name, floatVecType(values.length)).set(gl, values);
   }
   
   
@@ -536,29 +681,12 @@ public class ShaderProgram {
   
   /** Sets the value for some uniform int variable in the shader. */
   public void setUniformi(GL2 gl, String name, int value) {
-    int uniLoc = getUniformLocation(gl, name);
-    gl.glUniform1i(uniLoc, value);
+    uniformHandle(gl, name, GL_INT).set(gl, value);
   }
   
   /** Sets the value for some uniform int variable in the shader. */
   public void setUniformiv(GL2 gl, String name, int[] values) {
-    int size = values.length;
-    int loc = getUniformLocation(gl, name);
-    if(size == 1) {
-      gl.glUniform1iv(loc, 1, values, 0);
-    }
-    else if(size == 2) {
-      gl.glUniform2iv(loc, 2, values, 0);
-    }
-    else if(size == 3) {
-      gl.glUniform3iv(loc, 3, values, 0);
-    }
-    else if(size == 4) {
-      gl.glUniform4iv(loc, 4, values, 0);
-    }
-    else {
-      throw new PwneeGLError("Size of float array not supported.");
-    }
+    uniformHandle(gl, name, intVecType(values.length, false)).set(gl, values);
   }
   
   
@@ -566,33 +694,30 @@ public class ShaderProgram {
   
   /** Sets the value for some uniform unsigned int variable in the shader. */
   public void setUniformui(GL2 gl, String name, int value) {
-    int uniLoc = getUniformLocation(gl, name);
-    gl.getGLES3().glUniform1ui(uniLoc, value);
+    uniformHandle(gl, name, GL_UNSIGNED_INT).set(gl, value);
   }
   
   /** Sets the value for some uniform unsigned int variable in the shader. */
   public void setUniformuiv(GL2 gl, String name, int[] values) {
-    int size = values.length;
-    int loc = getUniformLocation(gl, name);
-    if(size == 1) {
-      gl.getGLES3().glUniform1uiv(loc, 1, values, 0);
-    }
-    else if(size == 2) {
-      gl.getGLES3().glUniform2uiv(loc, 2, values, 0);
-    }
-    else if(size == 3) {
-      gl.getGLES3().glUniform3uiv(loc, 3, values, 0);
-    }
-    else if(size == 4) {
-      gl.getGLES3().glUniform4uiv(loc, 4, values, 0);
-    }
-    else {
-      throw new PwneeGLError("Size of float array not supported.");
-    }
+    uniformHandle(gl, name, intVecType(values.length, true)).set(gl, values);
   }
   
   
-  // TODO : Matrix support
+  /** 
+   * Sets the value for some uniform mat4 variable in the shader, given its 
+   * 16 elements in column-major order. 
+   */
+  public void setUniformMatrix4fv(GL2 gl, String name, float[] values) {
+    if(values.length != 16) {
+      throw new PwneeGLError("A mat4 uniform needs 16 values.");
+    }
+    uniformHandle(gl, name, GL_FLOAT_MAT4).set(gl, values);
+  }
+  
+  /** Sets the value for some uniform mat4 variable in the shader. */
+  public void setUniformMatrix(GL2 gl, String name, Matrix4f m) {
+    setUniformMatrix4fv(gl, name, m.getData());
+  }
   
   
   
@@ -606,6 +731,6 @@ public class ShaderProgram {
   
   /** Switches the OpenGL state to use this shader program. */
   public void useProgram(GL2 gl) {
-    gl.glUseProgram(shaderProgram);
+    GLState.useProgram(gl, shaderProgram);
   }
 }
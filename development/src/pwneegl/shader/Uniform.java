@@ -1,7 +1,24 @@
 package pwneegl.shader;
 
+import java.util.Arrays;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.GL3ES3;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+
 import pwneegl.GLNames;
+import pwneegl.PwneeGLError;
+import pwneegl.math.Matrix4f;
 
+/** 
+ * A uniform variable in a shader program, along with its resolved location.
+ * It also serves as a handle for setting the uniform's value by location. 
+ * The last value set through the handle is remembered, and setting the same 
+ * value again doesn't upload anything. Like glUniform, the setters apply to 
+ * the program currently in use, which must be the uniform's program.
+ */
 public class Uniform {
   
   private String name;
@@ -14,20 +31,35 @@ public class Uniform {
   
   private int type;
   
+  private int location;
+  
+  
+  /** The last float values set, or null if none were set. */
+  private float[] valuesf;
+  
+  /** The last int values set, or null if none were set. */
+  private int[] valuesi;
+  
+  /** The number of values in valuesf or valuesi that were last set. */
+  private int numValues;
+  
   
   /** 
    * @param name is the name of the uniform.
    * @param size is the size of the uniform in units of its type.
    * @param type is the OpenGL type constant for the uniform.
+   * @param location is the uniform's location in its program, or -1 if it has none.
    */
-  public Uniform(String name, int size, int type) {
+  public Uniform(String name, int size, int type, int location) {
     this.name = name;
     this.size = size;
     this.sizeBytes = size*GLNames.glSizeBytes(type);
     this.sizeUnits = size*GLNames.glSizeUnits(type);
     this.type = type;
+    this.location = location;
   }
   
+  
   /** Returns the name of the uniform variable. */
   public String getName() {
     return name;
@@ -53,6 +85,11 @@ public class Uniform {
     return type;
   }
   
+  /** Returns the uniform's location in its program, or -1 if it has none. */
+  public int getLocation() {
+    return location;
+  }
+  
   
   /** 
    * Returns the unit type of the uniform. For example, if the uniform 
@@ -79,4 +116,245 @@ public class Uniform {
   public boolean isBuiltIn() {
     return name.startsWith("gl_");
   }
+  
+  
+  //////// Values
+  
+  /** 
+   * Moves the uniform to a new location after its program was relinked. 
+   * Linking resets the program's uniforms, so the last value is forgotten. 
+   */
+  void relocate(int location) {
+    this.location = location;
+    forget();
+  }
+  
+  /** Forgets the last value set, so that the next value is always uploaded. */
+  public void forget() {
+    valuesf = null;
+    valuesi = null;
+    numValues = 0;
+  }
+  
+  
+  /** 
+   * Remembers count float values, returning true iff they differ from the 
+   * last values set.
+   */
+  private boolean changed(float[] values, int off, int count) {
+    if(valuesf != null && numValues == count) {
+      boolean same = true;
+      for(int i = 0; i < count; i++) {
+        if(valuesf[i] != values[off + i]) {
+          same = false;
+          break;
+        }
+      }
+      if(same) {
+        return false;
+      }
+    }
+    
+    if(valuesf == null || valuesf.length < count) {
+      valuesf = new float[Math.max(count, 4)];
+    }
+    System.arraycopy(values, off, valuesf, 0, count);
+    valuesi = null;
+    numValues = count;
+    return true;
+  }
+  
+  /** 
+   * Remembers count int values, returning true iff they differ from the 
+   * last values set.
+   */
+  private boolean changed(int[] values, int off, int count) {
+    if(valuesi != null && numValues == count) {
+      boolean same = true;
+      for(int i = 0; i < count; i++) {
+        if(valuesi[i] != values[off + i]) {
+          same = false;
+          break;
+        }
+      }
+      if(same) {
+        return false;
+      }
+    }
+    
+    if(valuesi == null || valuesi.length < count) {
+      valuesi = new int[Math.max(count, 4)];
+    }
+    System.arraycopy(values, off, valuesi, 0, count);
+    valuesf = null;
+    numValues = count;
+    return true;
+  }
+  
+  /** Returns true iff a single float value differs from the last value set, remembering it. */
+  private boolean changed(float value) {
+    if(valuesf != null && numValues == 1 && valuesf[0] == value) {
+      return false;
+    }
+    if(valuesf == null) {
+      valuesf = new float[4];
+    }
+    valuesf[0] = value;
+    valuesi = null;
+    numValues = 1;
+    return true;
+  }
+  
+  /** Returns true iff a single int value differs from the last value set, remembering it. */
+  private boolean changed(int value) {
+    if(valuesi != null && numValues == 1 && valuesi[0] == value) {
+      return false;
+    }
+    if(valuesi == null) {
+      valuesi = new int[4];
+    }
+    valuesi[0] = value;
+    valuesf = null;
+    numValues = 1;
+    return true;
+  }
+  
+  
+  //////// Setters
+  
+  /** Sets the value of a float uniform. */
+  public void set(GL2 gl, float value) {
+    if(location >= 0 && changed(value)) {
+      gl.glUniform1f(location, value);
+    }
+  }
+  
+  /** 
+   * Sets the value of an int, unsigned int, bool, or sampler uniform. 
+   * For samplers, this is the index of the texture unit.
+   */
+  public void set(GL2 gl, int value) {
+    if(location >= 0 && changed(value)) {
+      if(getUnitType() == GL_UNSIGNED_INT) {
+        ((GL3ES3) gl).glUniform1ui(location, value);
+      }
+      else {
+        gl.glUniform1i(location, value);
+      }
+    }
+  }
+  
+  /** 
+   * Sets the value of a float-based uniform from an array. Vectors take 
+   * their components from the array, and matrices take their elements in 
+   * column-major order. If the uniform is an array, values can hold 
+   * several elements one after another.
+   */
+  public void set(GL2 gl, float[] values) {
+    set(gl, values, 0, values.length);
+  }
+  
+  /** Sets the value of a float-based uniform from count values of an array, starting at index off. */
+  public void set(GL2 gl, float[] values, int off, int count) {
+    int n = componentsPerElement(count);
+    int elements = count/n;
+    if(location < 0 || !changed(values, off, count)) {
+      return;
+    }
+    
+    switch(type) {
+      case GL_FLOAT_MAT2 :
+        gl.glUniformMatrix2fv(location, elements, false, values, off);
+        break;
+      case GL_FLOAT_MAT3 :
+        gl.glUniformMatrix3fv(location, elements, false, values, off);
+        break;
+      case GL_FLOAT_MAT4 :
+        gl.glUniformMatrix4fv(location, elements, false, values, off);
+        break;
+      default :
+        if(n == 1) {
+          gl.glUniform1fv(location, elements, values, off);
+        }
+        else if(n == 2) {
+          gl.glUniform2fv(location, elements, values, off);
+        }
+        else if(n == 3) {
+          gl.glUniform3fv(location, elements, values, off);
+        }
+        else {
+          gl.glUniform4fv(location, elements, values, off);
+        }
+    }
+  }
+  
+  /** Sets the value of a mat4 uniform. */
+  public void set(GL2 gl, Matrix4f m) {
+    set(gl, m.getData(), 0, 16);
+  }
+  
+  /** 
+   * Sets the value of an int-based uniform from an array. If the uniform is 
+   * an array, values can hold several elements one after another.
+   */
+  public void set(GL2 gl, int[] values) {
+    set(gl, values, 0, values.length);
+  }
+  
+  /** Sets the value of an int-based uniform from count values of an array, starting at index off. */
+  public void set(GL2 gl, int[] values, int off, int count) {
+    int n = componentsPerElement(count);
+    int elements = count/n;
+    if(location < 0 || !changed(values, off, count)) {
+      return;
+    }
+    
+    if(getUnitType() == GL_UNSIGNED_INT) {
+      GL3ES3 gl3 = (GL3ES3) gl;
+      if(n == 1) {
+        gl3.glUniform1uiv(location, elements, values, off);
+      }
+      else if(n == 2) {
+        gl3.glUniform2uiv(location, elements, values, off);
+      }
+      else if(n == 3) {
+        gl3.glUniform3uiv(location, elements, values, off);
+      }
+      else {
+        gl3.glUniform4uiv(location, elements, values, off);
+      }
+    }
+    else {
+      if(n == 1) {
+        gl.glUniform1iv(location, elements, values, off);
+      }
+      else if(n == 2) {
+        gl.glUniform2iv(location, elements, values, off);
+      }
+      else if(n == 3) {
+        gl.glUniform3iv(location, elements, values, off);
+      }
+      else {
+        gl.glUniform4iv(location, elements, values, off);
+      }
+    }
+  }
+  
+  
+  /** 
+   * Returns the number of components in each element of the uniform, 
+   * checking that count values are a whole number of elements. Types that
+   * GLNames doesn't know the size of, such as samplers and bools, are 
+   * treated as scalars.
+   */
+  private int componentsPerElement(int count) {
+    int n = GLNames.glSizeUnits(type);
+    if(n <= 0) {
+      n = 1;
+    }
+    if(count == 0 || count % n != 0 || (n > 4 && type != GL_FLOAT_MAT3 && type != GL_FLOAT_MAT4)) {
+      throw new PwneeGLError("Can't set uniform " + name + " of type " + GLNames.glName(type) + " with " + count + " values.");
+    }
+    return n;
+  }
 }
@@ -0,0 +1,250 @@
+package pwneegl.shader;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL2;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+
+import pwneegl.GLState;
+import pwneegl.PwneeGLError;
+import pwneegl.light.FogBlock;
+import pwneegl.light.LightBlock;
+import pwneegl.math.Matrix4f;
+
+/** 
+ * A block of uniform data laid out by the std140 rules and kept in a 
+ * Uniform Buffer Object. Each block is bound to a fixed binding point, and
+ * every ShaderProgram connects its uniform block of the same name to that 
+ * binding point when it is linked. Writing and uploading a block once per 
+ * frame makes its data available to all the programs that declare it, 
+ * without setting any uniforms per program.
+ * 
+ * The engine's standard blocks use binding points below FIRST_USER_BINDING.
+ * Blocks are registered by name when they are constructed, so they should 
+ * be created before the programs that use them are linked.
+ */
+public class UniformBlock {
+  
+  /** The binding point of the per-frame camera and time block. */
+  public static final int FRAME_BINDING = 0;
+  
+  /** The binding point of the lights block. */
+  public static final int LIGHTS_BINDING = 1;
+  
+  /** The binding point of the fog block. */
+  public static final int FOG_BINDING = 2;
+  
+  /** The first binding point available for user-defined blocks. */
+  public static final int FIRST_USER_BINDING = 3;
+  
+  
+  /** The binding points of the known blocks, by block name. */
+  private static Map<String, Integer> bindings = new HashMap<>();
+  
+  static {
+    bindings.put(FrameBlock.NAME, FRAME_BINDING);
+    bindings.put(LightBlock.NAME, LIGHTS_BINDING);
+    bindings.put(FogBlock.NAME, FOG_BINDING);
+  }
+  
+  /** Whether the OpenGL context supports uniform buffer objects. Checked on first use. */
+  private static Boolean supported = null;
+  
+  
+  /** The name of the block in the shaders. */
+  private String name;
+  
+  /** The binding point of the block. */
+  private int binding;
+  
+  /** The block's data, in std140 layout. */
+  private ByteBuffer data;
+  
+  /** The pointer to the uniform buffer object. */
+  private int buffer = 0;
+  
+  /** Whether the data changed since it was last uploaded. */
+  private boolean dirty = true;
+  
+  
+  /** 
+   * Creates a block of sizeBytes bytes with the given name in the shaders, 
+   * bound to a binding point. A PwneeGLError is thrown if another block with 
+   * the same name uses a different binding point.
+   */
+  public UniformBlock(String name, int binding, int sizeBytes) {
+    Integer existing = bindings.get(name);
+    if(existing != null && existing != binding) {
+      throw new PwneeGLError("Uniform block " + name + " is already bound to binding point " + existing + ".");
+    }
+    bindings.put(name, binding);
+    
+    this.name = name;
+    this.binding = binding;
+    
+    // std140 blocks are sized in multiples of a vec4.
+    data = ByteBuffer.allocateDirect((sizeBytes + 15)/16*16);
+    data.order(ByteOrder.nativeOrder());
+  }
+  
+  
+  //////// Binding points
+  
+  /** Returns true iff the OpenGL context supports uniform buffer objects. */
+  public static boolean isSupported(GL2 gl) {
+    if(supported == null) {
+      supported = gl.isFunctionAvailable("glBindBufferBase") && gl.isFunctionAvailable("glUniformBlockBinding");
+    }
+    return supported;
+  }
+  
+  /** 
+   * Connects each of a program's uniform blocks whose names are registered 
+   * to its binding point. Programs call this when they are linked.
+   */
+  public static void bindBlocks(GL2 gl, int program) {
+    if(!isSupported(gl)) {
+      return;
+    }
+    for(Map.Entry<String, Integer> entry : bindings.entrySet()) {
+      int index = gl.glGetUniformBlockIndex(program, entry.getKey());
+      if(index != GL_INVALID_INDEX) {
+        gl.glUniformBlockBinding(program, index, entry.getValue());
+      }
+    }
+  }
+  
+  
+  //////// Properties
+  
+  /** Returns the name of the block in the shaders. */
+  public String getName() {
+    return name;
+  }
+  
+  /** Returns the block's binding point. */
+  public int getBinding() {
+    return binding;
+  }
+  
+  /** Returns the size of the block in bytes. */
+  public int getSizeBytes() {
+    return data.capacity();
+  }
+  
+  
+  //////// std140 writers
+  
+  /** Writes a float at a byte offset. */
+  protected void putFloat(int offset, float value) {
+    data.putFloat(offset, value);
+    dirty = true;
+  }
+  
+  /** Writes an int at a byte offset. */
+  protected void putInt(int offset, int value) {
+    data.putInt(offset, value);
+    dirty = true;
+  }
+  
+  /** Writes a vec4 at a byte offset, which must be a multiple of 16. */
+  protected void putVec4(int offset, float x, float y, float z, float w) {
+    data.putFloat(offset, x);
+    data.putFloat(offset + 4, y);
+    data.putFloat(offset + 8, z);
+    data.putFloat(offset + 12, w);
+    dirty = true;
+  }
+  
+  /** Writes count floats from an array, starting at index off, at a byte offset. */
+  protected void putFloats(int offset, float[] values, int off, int count) {
+    for(int i = 0; i < count; i++) {
+      data.putFloat(offset + i*4, values[off + i]);
+    }
+    dirty = true;
+  }
+  
+  /** Writes a mat4 in column-major order at a byte offset, which must be a multiple of 16. */
+  protected void putMatrix(int offset, Matrix4f m) {
+    float[] values = m.getData();
+    for(int i = 0; i < 16; i++) {
+      data.putFloat(offset + i*4, values[i]);
+    }
+    dirty = true;
+  }
+  
+  
+  //////// Rendering
+  
+  /** 
+   * Uploads the block's data if it changed since the last upload, and binds
+   * the block's buffer to its binding point. Call this once per frame after
+   * writing the block, before rendering anything that uses it.
+   */
+  public void upload(GL2 gl) {
+    if(!isSupported(gl)) {
+      return;
+    }
+    
+    if(buffer == 0) {
+      int[] buffers = new int[1];
+      gl.glGenBuffers(1, buffers, 0);
+      buffer = buffers[0];
+      dirty = true;
+    }
+    
+    if(dirty) {
+      // Re-specify the whole buffer, so the driver can orphan the storage 
+      // that earlier frames' draws may still be reading.
+      data.rewind();
+      GLState.bindBuffer(gl, GL_UNIFORM_BUFFER, buffer);
+      gl.glBufferData(GL_UNIFORM_BUFFER, data.capacity(), data, GL_STREAM_DRAW);
+      dirty = false;
+    }
+    gl.glBindBufferBase(GL_UNIFORM_BUFFER, binding, buffer);
+  }
+  
+  
+  /** Removes the block's buffer from graphics memory. */
+  public void clean(GL2 gl) {
+    if(buffer != 0) {
+      GLState.deleteBuffers(gl, new int[] {buffer});
+      buffer = 0;
+      dirty = true;
+    }
+  }
+}
@@ -0,0 +1,272 @@
+package pwneegl.sprite;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.media.opengl.GL2;
+
+import static javax.media.opengl.GL.*;  // GL constants
+import static javax.media.opengl.GL2.*; // GL2 constants
+
+import pwneegl.GLState;
+import pwneegl.geom.Poly3f;
+import pwneegl.geom.data.InstanceAttributes;
+import pwneegl.geom.data.StagingArena;
+import pwneegl.geom.data.VBOPipeline;
+import pwneegl.math.Matrix4f;
+import pwneegl.shader.ShaderProgram;
+
+/** 
+ * Renders many copies of one shared mesh with a single instanced draw call. 
+ * Each instance has a model matrix and a color, which are collected into an 
+ * instance buffer and passed to the shader as the per-instance attributes 
+ * instanceModel (mat4) and instanceColor (vec4). For example:
+ * 
+ *    attribute mat4 instanceModel;
+ *    attribute vec4 instanceColor;
+ *    ...
+ *    gl_Position = gl_ModelViewProjectionMatrix * instanceModel * gl_Vertex;
+ *    gl_FrontColor = gl_Color * instanceColor;
+ * 
+ * A typical use is to clear the batch each frame, add the visible sprites 
+ * that share the mesh, bind their material, and render the batch. The 
+ * instance buffer is only re-uploaded when instances were added since it 
+ * was last rendered. If the OpenGL context doesn't support instancing, the 
+ * instances are drawn one at a time instead.
+ */
+public class InstancedBatch implements InstanceAttributes {
+  
+  /** The name of the per-instance model matrix attribute. */
+  public static final String MODEL_ATTRIBUTE = "instanceModel";
+  
+  /** The name of the per-instance color attribute. */
+  public static final String COLOR_ATTRIBUTE = "instanceColor";
+  
+  /** The number of floats per instance: a 4x4 model matrix followed by an RGBA color. */
+  public static final int FLOATS_PER_INSTANCE = 20;
+  
+  /** The byte offset of the color in an instance. */
+  private static final int COLOR_OFFSET = 16*4;
+  
+  /** The number of bytes per instance. */
+  private static final int STRIDE = FLOATS_PER_INSTANCE*4;
+  
+  
+  /** The mesh drawn for each instance. */
+  private Poly3f mesh;
+  
+  /** The instance data, FLOATS_PER_INSTANCE floats per instance. */
+  private float[] data = new float[FLOATS_PER_INSTANCE*64];
+  
+  /** The number of instances in the batch. */
+  private int numInstances = 0;
+  
+  /** The pointer to the VBO containing the instance data. */
+  private int instanceBuffer = 0;
+  
+  /** Whether instances have changed since the instance buffer was last filled. */
+  private boolean dirty = false;
+  
+  
+  /** Creates an empty batch for instances of a mesh. */
+  public InstancedBatch(Poly3f mesh) {
+    this.mesh = mesh;
+  }
+  
+  /** Returns the mesh drawn for each instance. */
+  public Poly3f getMesh() {
+    return mesh;
+  }
+  
+  
+  //////// Instances
+  
+  /** Removes all the instances from the batch. */
+  public void clear() {
+    numInstances = 0;
+    dirty = true;
+  }
+  
+  /** Returns the number of instances in the batch. */
+  public int getNumInstances() {
+    return numInstances;
+  }
+  
+  /** Adds an instance with a model matrix and an RGBA color. Returns its index. */
+  public int add(Matrix4f model, float r, float g, float b, float a) {
+    if((numInstances + 1)*FLOATS_PER_INSTANCE > data.length) {
+      data = Arrays.copyOf(data, data.length*2);
+    }
+    
+    int base = numInstances*FLOATS_PER_INSTANCE;
+    model.get(data, base);
+    data[base + 16] = r;
+    data[base + 17] = g;
+    data[base + 18] = b;
+    data[base + 19] = a;
+    
+    dirty = true;
+    numInstances++;
+    return numInstances - 1;
+  }
+  
+  /** 
+   * Adds an instance for a sprite, using its world matrix and its opacity. 
+   * Invisible sprites aren't added, and -1 is returned for them. Otherwise, 
+   * the instance's index is returned.
+   */
+  public int add(Sprite3f sprite) {
+    if(!sprite.isVisible) {
+      return -1;
+    }
+    return add(sprite.getWorldMatrix(), 1f, 1f, 1f, sprite.opacity);
+  }
+  
+  
+  //////// Rendering
+  
+  /** 
+   * Renders all the instances of the mesh with the shader program currently
+   * in use. Any materials the mesh needs should be bound first.
+   */
+  public void render(GL2 gl) {
+    if(numInstances == 0) {
+      return;
+    }
+    if(dirty && VBOPipeline.isInstancingSupported(gl)) {
+      fillInstanceBuffer(gl);
+    }
+    mesh.renderInstanced(gl, this);
+  }
+  
+  
+  /** Fills the instance buffer with the instance data. */
+  private void fillInstanceBuffer(GL2 gl) {
+    if(instanceBuffer == 0) {
+      int[] buffers = new int[1];
+      gl.glGenBuffers(1, buffers, 0);
+      instanceBuffer = buffers[0];
+    }
+    
+    ByteBuffer staging = StagingArena.acquire(numInstances*STRIDE);
+    staging.asFloatBuffer().put(data, 0, numInstances*FLOATS_PER_INSTANCE);
+    
+    // Re-specify the whole buffer, so the driver can orphan the old storage.
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, instanceBuffer);
+    gl.glBufferData(GL_ARRAY_BUFFER, staging.limit(), staging, GL_STREAM_DRAW);
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, 0);
+    StagingArena.release(staging);
+    dirty = false;
+  }
+  
+  
+  /** Removes the instance buffer from graphics memory. The mesh isn't cleaned. */
+  public void clean(GL2 gl) {
+    if(instanceBuffer != 0) {
+      GLState.deleteBuffers(gl, new int[] {instanceBuffer});
+      instanceBuffer = 0;
+      dirty = true;
+    }
+  }
+  
+  
+  //////// Instance attributes
+  
+  /** Returns the location of a per-instance attribute in a program, or -1 if the program doesn't use it. */
+  private static int location(ShaderProgram program, String name) {
+    if(program == null || !program.hasAttribute(name)) {
+      return -1;
+    }
+    return program.getAttrib(name).getLocation();
+  }
+  
+  
+  @Override
+  public void enable(GL2 gl, ShaderProgram program) {
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, instanceBuffer);
+    
+    // A mat4 attribute takes up 4 consecutive locations, one per column.
+    int model = location(program, MODEL_ATTRIBUTE);
+    if(model >= 0) {
+      for(int col = 0; col < 4; col++) {
+        gl.glVertexAttribPointer(model + col, 4, GL_FLOAT, false, STRIDE, col*16);
+        gl.glEnableVertexAttribArray(model + col);
+        VBOPipeline.setAttribDivisor(gl, model + col, 1);
+      }
+    }
+    
+    int color = location(program, COLOR_ATTRIBUTE);
+    if(color >= 0) {
+      gl.glVertexAttribPointer(color, 4, GL_FLOAT, false, STRIDE, COLOR_OFFSET);
+      gl.glEnableVertexAttribArray(color);
+      VBOPipeline.setAttribDivisor(gl, color, 1);
+    }
+    
+    GLState.bindBuffer(gl, GL_ARRAY_BUFFER, 0);
+  }
+  
+  
+  @Override
+  public void disable(GL2 gl, ShaderProgram program) {
+    int model = location(program, MODEL_ATTRIBUTE);
+    if(model >= 0) {
+      for(int col = 0; col < 4; col++) {
+        VBOPipeline.setAttribDivisor(gl, model + col, 0);
+        gl.glDisableVertexAttribArray(model + col);
+      }
+    }
+    
+    int color = location(program, COLOR_ATTRIBUTE);
+    if(color >= 0) {
+      VBOPipeline.setAttribDivisor(gl, color, 0);
+      gl.glDisableVertexAttribArray(color);
+    }
+  }
+  
+  
+  @Override
+  public void applyInstance(GL2 gl, ShaderProgram program, int index) {
+    int base = index*FLOATS_PER_INSTANCE;
+    
+    int model = location(program, MODEL_ATTRIBUTE);
+    if(model >= 0) {
+      for(int col = 0; col < 4; col++) {
+        gl.glVertexAttrib4fv(model + col, data, base + col*4);
+      }
+    }
+    
+    int color = location(program, COLOR_ATTRIBUTE);
+    if(color >= 0) {
+      gl.glVertexAttrib4fv(color, data, base + 16);
+    }
+  }
+}
@@ -0,0 +1,467 @@
+package pwneegl.sprite;
+
+
+/*======================================================================
+ * 
+ * PwneeGL : A JOGL 2.* game engine for Java. 
+ * 
+ * Copyright (c) 2013 by Stephen Lindberg (sllindberg21@students.tntech.edu)
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: 
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer. 
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution. 
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+======================================================================*/
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.media.opengl.GL2;
+
+import pwneegl.camera.Camera3D;
+import pwneegl.geom.Poly3f;
+import pwneegl.material.MaterialLibrary;
+import pwneegl.math.Matrix4f;
+import pwneegl.math.PwneeMath;
+import pwneegl.shader.ShaderLibrary;
+
+/** 
+ * Collects the draws for a frame and renders them sorted by their OpenGL 
+ * state, so that each shader program, material, and mesh is only bound 
+ * once per run of draws that use it. 
+ * 
+ * Each draw names its shader program and material by their keys in the 
+ * ShaderLibrary and MaterialLibrary, and is given a 64-bit sort key when it 
+ * is submitted. Opaque draws are ordered by shader, then material (and 
+ * thus texture), then mesh, then front to back. Translucent draws are 
+ * rendered after all the opaque ones, back to front. The keys are sorted 
+ * with a stable radix sort, so draws with equal keys keep the order they 
+ * were submitted in.
+ * 
+ * A typical frame clears the queue, sets its camera, submits the visible 
+ * sprites' meshes, and then renders the queue. The queue loads the shader 
+ * programs and materials itself, so the sprites shouldn't.
+ */
+public class RenderQueue {
+  
+  //////// Sort key layout
+  
+  /** The number of key bits for the shader program. */
+  private static final int SHADER_BITS = 8;
+  
+  /** The number of key bits for the material. */
+  private static final int MATERIAL_BITS = 12;
+  
+  /** The number of key bits for the mesh. */
+  private static final int MESH_BITS = 12;
+  
+  /** The number of key bits for the quantized depth. */
+  private static final int DEPTH_BITS = 24;
+  
+  /** The largest quantized depth. */
+  private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+  
+  /** The key bit set for translucent draws, so they sort after opaque ones. */
+  private static final long TRANSLUCENT = 1L << 63;
+  
+  
+  //////// Draws
+  
+  /** The number of draws submitted. */
+  private int numDraws = 0;
+  
+  /** The sort keys of the draws. */
+  private long[] keys = new long[64];
+  
+  /** The shader program key of each draw. */
+  private String[] shaders = new String[64];
+  
+  /** The material key of each draw. */
+  private String[] materials = new String[64];
+  
+  /** The texture uniform name of each draw's material. */
+  private String[] texUniforms = new String[64];
+  
+  /** The mesh of each draw. */
+  private Poly3f[] meshes = new Poly3f[64];
+  
+  /** The world matrix of each draw, 16 floats per draw. */
+  private float[] worlds = new float[64*16];
+  
+  
+  //////// Sorting
+  
+  /** The indices of the draws in sorted order. */
+  private int[] order = new int[64];
+  
+  /** Scratch arrays for the radix sort. */
+  private long[] sortKeys = new long[64];
+  private long[] tmpKeys = new long[64];
+  private int[] tmpOrder = new int[64];
+  private int[] counts = new int[256];
+  
+  
+  //////// Key ids
+  
+  /** The ids used in the sort keys for shader programs, by key. */
+  private Map<String, Integer> shaderIds = new HashMap<>();
+  
+  /** The ids used in the sort keys for materials, by key. */
+  private Map<String, Integer> materialIds = new HashMap<>();
+  
+  
+  //////// Depth
+  
+  /** The view matrix used to compute the depths of sprites. */
+  private Matrix4f view = new Matrix4f();
+  
+  /** The distance mapped to the smallest quantized depth. */
+  private float near = 0.1f;
+  
+  /** The distance mapped to the largest quantized depth. */
+  private float far = 100f;
+  
+  
+  //////// Stats
+  
+  /** The number of times a shader program was bound in the last render. */
+  private int numShaderChanges = 0;
+  
+  /** The number of times a material was bound in the last render. */
+  private int numMaterialChanges = 0;
+  
+  /** The number of times a mesh was bound in the last render. */
+  private int numMeshBinds = 0;
+  
+  
+  
+  //////// Setup
+  
+  /** 
+   * Uses a camera to compute the depths of the sprites submitted after this. 
+   * The camera's clipping planes are used as the range of depths. 
+   */
+  public void setCamera(Camera3D camera) {
+    view.set(camera.getViewMatrix());
+    setDepthRange(camera.getClippingPlaneNear(), camera.getClippingPlaneFar());
+  }
+  
+  /** 
+   * Sets the range of view distances that draws are ordered within. Draws 
+   * outside the range are ordered as though they were at its nearest end.
+   */
+  public void setDepthRange(float near, float far) {
+    this.near = near;
+    this.far = far;
+  }
+  
+  
+  //////// Submission
+  
+  /** Removes all the draws from the queue. */
+  public void clear() {
+    Arrays.fill(meshes, 0, numDraws, null);
+    numDraws = 0;
+  }
+  
+  /** Returns the number of draws in the queue. */
+  public int getNumDraws() {
+    return numDraws;
+  }
+  
+  
+  /** 
+   * Submits a draw of a sprite's mesh using its world matrix. Its depth is 
+   * computed using the camera given to setCamera. The draw is translucent if
+   * the sprite's opacity is less than 1. Invisible sprites aren't submitted.
+   * @param shader      The key of the shader program.
+   * @param material    The key of the material, or null to leave the material as is.
+   * @param texUniform  The name of the material's sampler uniform, if it is textured.
+   * @param mesh        The mesh to draw.
+   * @param sprite      The sprite whose world matrix the mesh is drawn with.
+   */
+  public void submit(String shader, String material, String texUniform, Poly3f mesh, Sprite3f sprite) {
+    if(!sprite.isVisible) {
+      return;
+    }
+    Matrix4f world = sprite.getWorldMatrix();
+    submit(shader, material, texUniform, mesh, world, getDepth(world), sprite.opacity < 1f);
+  }
+  
+  
+  /** 
+   * Submits a draw of a mesh.
+   * @param shader      The key of the shader program.
+   * @param material    The key of the material, or null to leave the material as is.
+   * @param texUniform  The name of the material's sampler uniform, if it is textured.
+   * @param mesh        The mesh to draw.
+   * @param world       The mesh's world matrix. It is copied.
+   * @param depth       The distance of the mesh from the camera.
+   * @param translucent Whether the mesh needs to be drawn after the opaque meshes, back to front.
+   */
+  public void submit(String shader, String material, String texUniform, Poly3f mesh, Matrix4f world, float depth, boolean translucent) {
+    if(numDraws == keys.length) {
+      grow();
+    }
+    
+    int i = numDraws;
+    keys[i] = makeKey(shaderId(shader), materialId(material), meshId(mesh), quantize(depth), translucent);
+    shaders[i] = shader;
+    materials[i] = material;
+    texUniforms[i] = texUniform;
+    meshes[i] = mesh;
+    world.get(worlds, i*16);
+    numDraws++;
+  }
+  
+  
+  /** Returns the distance of the origin of a world matrix in front of the camera. */
+  private float getDepth(Matrix4f world) {
+    // The z coordinate of the world matrix's translation, in view space.
+    float[] v = view.getData();
+    float[] w = world.getData();
+    return -(v[2]*w[12] + v[6]*w[13] + v[10]*w[14] + v[14]);
+  }
+  
+  
+  /** Doubles the capacity of the queue. */
+  private void grow() {
+    int capacity = keys.length*2;
+    keys = Arrays.copyOf(keys, capacity);
+    shaders = Arrays.copyOf(shaders, capacity);
+    materials = Arrays.copyOf(materials, capacity);
+    texUniforms = Arrays.copyOf(texUniforms, capacity);
+    meshes = Arrays.copyOf(meshes, capacity);
+    worlds = Arrays.copyOf(worlds, capacity*16);
+    order = new int[capacity];
+    sortKeys = new long[capacity];
+    tmpKeys = new long[capacity];
+    tmpOrder = new int[capacity];
+  }
+  
+  
+  //////// Sort keys
+  
+  /** 
+   * Packs a draw's state into its sort key. Ids larger than their fields 
+   * wrap around. That only costs some extra state changes, since the draws 
+   * are rendered using their actual state rather than their keys.
+   */
+  private static long makeKey(int shader, int material, int mesh, int depth, boolean translucent) {
+    long s = shader & ((1 << SHADER_BITS) - 1);
+    long m = material & ((1 << MATERIAL_BITS) - 1);
+    long p = mesh & ((1 << MESH_BITS) - 1);
+    
+    if(translucent) {
+      // Back to front first, then by state.
+      long d = MAX_DEPTH - depth;
+      return TRANSLUCENT | (d << 39) | (s << 31) | (m << 19) | (p << 7);
+    }
+    else {
+      // By state first, then front to back.
+      return (s << 55) | (m << 43) | (p << 31) | ((long) depth << 7);
+    }
+  }
+  
+  /** Maps a depth into the range of quantized depths. */
+  private int quantize(float depth) {
+    float t = PwneeMath.clamp((depth - near)/(far - near));
+    if(t != t) {
+      t = 0f; // NaN, from an empty range.
+    }
+    return (int) (t*MAX_DEPTH);
+  }
+  
+  /** Returns the key id for a shader program, assigning one if it doesn't have one yet. */
+  private int shaderId(String key) {
+    Integer id = shaderIds.get(key);
+    if(id == null) {
+      id = shaderIds.size();
+      shaderIds.put(key, id);
+    }
+    return id;
+  }
+  
+  /** Returns the key id for a material, assigning one if it doesn't have one yet. 0 is used for no material. */
+  private int materialId(String key) {
+    if(key == null) {
+      return 0;
+    }
+    Integer id = materialIds.get(key);
+    if(id == null) {
+      id = materialIds.size() + 1;
+      materialIds.put(key, id);
+    }
+    return id;
+  }
+  
+  /** Returns the key id for a mesh. Meshes that share an id just won't be grouped. */
+  private static int meshId(Poly3f mesh) {
+    return System.identityHashCode(mesh);
+  }
+  
+  
+  //////// Sorting
+  
+  /** 
+   * Sorts the draws by their keys into order, using a least significant 
+   * digit radix sort with 8-bit digits. Digits that are the same for every 
+   * draw are skipped. 
+   */
+  private void sort() {
+    int n = numDraws;
+    if(n == 0) {
+      return;
+    }
+    
+    // Sort a copy of the keys, so that the draws' own keys aren't disturbed.
+    long[] src = sortKeys;
+    long[] dst = tmpKeys;
+    int[] srcOrder = order;
+    int[] dstOrder = tmpOrder;
+    System.arraycopy(keys, 0, src, 0, n);
+    for(int i = 0; i < n; i++) {
+      srcOrder[i] = i;
+    }
+    
+    for(int shift = 0; shift < 64; shift += 8) {
+      Arrays.fill(counts, 0);
+      for(int i = 0; i < n; i++) {
+        counts[(int) (src[i] >>> shift) & 0xFF]++;
+      }
+      if(counts[(int) (src[0] >>> shift) & 0xFF] == n) {
+        continue;
+      }
+      
+      // Turn the counts into the starting position of each digit.
+      int total = 0;
+      for(int d = 0; d < 256; d++) {
+        int c = counts[d];
+        counts[d] = total;
+        total += c;
+      }
+      
+      for(int i = 0; i < n; i++) {
+        int pos = counts[(int) (src[i] >>> shift) & 0xFF]++;
+        dst[pos] = src[i];
+        dstOrder[pos] = srcOrder[i];
+      }
+      
+      long[] swapKeys = src;
+      src = dst;
+      dst = swapKeys;
+      int[] swapOrder = srcOrder;
+      srcOrder = dstOrder;
+      dstOrder = swapOrder;
+    }
+    
+    if(srcOrder != order) {
+      System.arraycopy(srcOrder, 0, order, 0, n);
+    }
+  }
+  
+  
+  //////// Rendering
+  
+  /** 
+   * Renders the draws in the queue, sorted by their keys. A shader program, 
+   * material, or mesh is only bound when it differs from the previous 
+   * draw's. The queue isn't cleared afterwards, so the same draws can be 
+   * rendered again.
+   */
+  public void render(GL2 gl) {
+    numShaderChanges = 0;
+    numMaterialChanges = 0;
+    numMeshBinds = 0;
+    sort();
+    
+    String shader = null;
+    String material = null;
+    String texUniform = null;
+    Poly3f mesh = null;
+    
+    for(int k = 0; k < numDraws; k++) {
+      int i = order[k];
+      
+      // Changing the program invalidates the bound mesh's attribute arrays
+      // and the material's sampler uniforms.
+      if(!shaders[i].equals(shader)) {
+        if(mesh != null) {
+          mesh.unbind(gl);
+          mesh = null;
+        }
+        shader = shaders[i];
+        ShaderLibrary.use(gl, shader);
+        material = null;
+        texUniform = null;
+        numShaderChanges++;
+      }
+      
+      if(materials[i] != null && !(materials[i].equals(material) && equals(texUniforms[i], texUniform))) {
+        material = materials[i];
+        texUniform = texUniforms[i];
+        MaterialLibrary.use(gl, material, texUniform);
+        numMaterialChanges++;
+      }
+      
+      if(meshes[i] != mesh) {
+        if(mesh != null) {
+          mesh.unbind(gl);
+        }
+        mesh = meshes[i];
+        mesh.bind(gl);
+        numMeshBinds++;
+      }
+      
+      gl.glPushMatrix();
+      gl.glMultMatrixf(worlds, i*16);
+      mesh.draw(gl);
+      gl.glPopMatrix();
+    }
+    
+    if(mesh != null) {
+      mesh.unbind(gl);
+    }
+  }
+  
+  
+  /** Returns true iff two possibly null strings are equal. */
+  private static boolean equals(String a, String b) {
+    return (a == null) ? (b == null) : a.equals(b);
+  }
+  
+  
+  //////// Stats
+  
+  /** Returns the number of times a shader program was bound in the last render. */
+  public int getNumShaderChanges() {
+    return numShaderChanges;
+  }
+  
+  /** Returns the number of times a material was bound in the last render. */
+  public int getNumMaterialChanges() {
+    return numMaterialChanges;
+  }
+  
+  /** Returns the number of times a mesh was bound in the last render. */
+  public int getNumMeshBinds() {
+    return numMeshBinds;
+  }
+}
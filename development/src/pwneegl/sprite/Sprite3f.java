@@ -34,6 +34,8 @@ import javax.media.opengl.GL2;
 import static javax.media.opengl.GL.*;  // GL constants
 import static javax.media.opengl.GL2.*; // GL2 constants
 
+import pwneegl.math.Matrix4f;
+import pwneegl.math.MatrixStack;
 import pwneegl.math.PwneeMath;
 
 /** 
@@ -97,6 +99,23 @@ public abstract class Sprite3f {
   /** Whether or not this sprite has been destroyed. */
   public boolean isDestroyed;
   
+  /** The cached world matrix. */
+  private Matrix4f worldMatrix = new Matrix4f();
+  
+  /** 
+   * The transform properties the world matrix was computed from: x, y, z, 
+   * angleX, angleY, angleZ, scaleX, scaleY, scaleZ, and scaleUni. These 
+   * start out as NaN so that the first call computes the matrix.
+   */
+  private float[] worldSnapshot = {Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN, 
+                                   Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN};
+  
+  /** Incremented whenever the world matrix is recomputed. */
+  private int worldVersion = 0;
+  
+  /** Scratch matrix for applyTransforms. */
+  private Matrix4f transformMatrix = new Matrix4f();
+  
   
   //////// Constructors
   
@@ -142,21 +161,102 @@ public abstract class Sprite3f {
     GL2 gl2 = gl.getGL2();
     gl2.glPushMatrix();
     
-    // Apply the sprite's transforms before drawing it. 
-    gl2.glTranslatef(x, y, z);
-    applyTransforms(gl2);
+    // Apply the sprite's transforms before drawing it, composed into a 
+    // single matrix.
+    gl2.glMultMatrixf(getWorldMatrix().getData(), 0);
     
     draw(gl2);
     gl2.glPopMatrix();
   }
   
+  /** 
+   * Renders the sprite using a CPU-side matrix stack instead of OpenGL's. 
+   * The sprite's world matrix is multiplied onto the stack's top matrix and 
+   * the result is loaded as the model-view matrix with a single call.
+   */
+  public void render(GL gl, MatrixStack stack) {
+    if(!isVisible) {
+      return;
+    }
+    
+    GL2 gl2 = gl.getGL2();
+    stack.push();
+    stack.mul(getWorldMatrix());
+    stack.glLoad(gl2);
+    
+    draw(gl2);
+    stack.pop();
+  }
+  
   
+  /** Multiplies the current OpenGL matrix by the sprite's rotation and scale. */
   public void applyTransforms(GL2 gl) {
-    gl.glRotatef(angleX/PwneeMath.TAU*360, 1f, 0f, 0f);
-    gl.glRotatef(angleY/PwneeMath.TAU*360, 0f, 1f, 0f);
-    gl.glRotatef(angleZ/PwneeMath.TAU*360, 0f, 0f, 1f);
+    gl.glMultMatrixf(applyTransforms(transformMatrix.setIdentity()).getData(), 0);
+  }
+  
+  /** 
+   * Post-multiplies a matrix by the sprite's rotations about its X, Y, and Z
+   * axes, in that order, and its scale. Returns the matrix.
+   */
+  public Matrix4f applyTransforms(Matrix4f m) {
+    return m.rotateX(angleX)
+            .rotateY(angleY)
+            .rotateZ(angleZ)
+            .scale(scaleX*scaleUni, scaleY*scaleUni, scaleZ*scaleUni);
+  }
+  
+  
+  //////// World transform
+  
+  /** 
+   * Returns the sprite's world matrix, transforming its model coordinates 
+   * into world coordinates. The matrix is cached, and is only recomputed 
+   * when one of the sprite's transform properties has changed since the 
+   * last call, so static sprites cost nothing to transform. Use it for 
+   * rendering, culling, and picking alike. It shouldn't be modified.
+   */
+  public Matrix4f getWorldMatrix() {
+    if(updateWorldSnapshot()) {
+      applyTransforms(worldMatrix.setIdentity().translate(x, y, z));
+      worldVersion++;
+    }
+    return worldMatrix;
+  }
+  
+  /** 
+   * Returns a number that changes whenever the world matrix is recomputed.
+   * Anything derived from the world matrix, such as world-space bounds, 
+   * can be cached along with this and recomputed when it differs.
+   */
+  public int getWorldVersion() {
+    getWorldMatrix();
+    return worldVersion;
+  }
+  
+  /** 
+   * Compares the transform properties to those the world matrix was last 
+   * computed from. If any have changed, the snapshot is updated and true is
+   * returned.
+   */
+  private boolean updateWorldSnapshot() {
+    float[] snap = worldSnapshot;
+    if( snap[0] == x && snap[1] == y && snap[2] == z &&
+        snap[3] == angleX && snap[4] == angleY && snap[5] == angleZ && 
+        snap[6] == scaleX && snap[7] == scaleY && snap[8] == scaleZ && snap[9] == scaleUni) {
+      return false;
+    }
     
-    gl.glScalef(scaleX*scaleUni, scaleY*scaleUni, scaleZ*scaleUni);
+    snap[0] = x;
+    snap[1] = y;
+    snap[2] = z;
+    snap[3] = angleX;
+    snap[4] = angleY;
+    snap[5] = angleZ;
+    snap[6] = scaleX;
+    snap[7] = scaleY;
+    snap[8] = scaleZ;
+    snap[9] = scaleUni;
+    return true;
   }
   
   
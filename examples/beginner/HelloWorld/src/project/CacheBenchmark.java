@@ -0,0 +1,32 @@
+package project;
+
+import pwneegl.geom.Poly3f;
+import pwneegl.geom.io.WavefrontIO;
+import pwneegl.geom.util.VertexCacheOptimizer;
+
+
+/**
+ * Optimizes the Wavefront .obj files given as arguments for the post-transform
+ * vertex cache and reports their statistics and how long the optimization
+ * took.
+ */
+public class CacheBenchmark {
+
+  public static void main(String[] args) {
+    if(args.length == 0) {
+      System.out.println("Usage: CacheBenchmark file.obj [file.obj ...]");
+      return;
+    }
+
+    for(String path : args) {
+      Poly3f poly = WavefrontIO.readFromFile(path);
+
+      long start = System.nanoTime();
+      VertexCacheOptimizer.CacheStatistics stats = VertexCacheOptimizer.optimize(poly);
+      long elapsed = System.nanoTime() - start;
+
+      System.out.println(path + ": " + poly.getNumVertices() + " vertices, " + poly.getNumFaces() + " faces");
+      System.out.println("  " + stats + " in " + (elapsed/1000000f) + " ms");
+    }
+  }
+}